@@ -0,0 +1,93 @@
+package com.github.migmong.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.migmong.MongoMigration;
+import com.github.migmong.exception.MigrationException;
+import com.github.migmong.migration.MigrationReport;
+
+/**
+ * End-to-end {@link MongoMigration#execute()} of 100 indexed migrations against in-memory MongoDB. Either all
+ * units are pending or all of them have been applied before.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 20)
+@Fork(1)
+public class ExecuteBenchmark
+{
+    private static final int MIGRATIONS = 100;
+    private static final int UNITS = 5;
+
+    @Param({ "true", "false" })
+    private boolean pending;
+
+    private InMemoryMongo mongo;
+    private GeneratedMigrations generatedMigrations;
+
+
+    @Setup
+    public void setUp() throws MigrationException
+    {
+        mongo = new InMemoryMongo();
+        generatedMigrations = GeneratedMigrations.compile(MIGRATIONS, UNITS, true);
+        if (!pending)
+            execute();
+    }
+
+
+    @Setup(Level.Invocation)
+    public void clearMigrationLog()
+    {
+        if (pending)
+            mongo.getDatabase().drop();
+    }
+
+
+    @TearDown
+    public void tearDown() throws IOException
+    {
+        generatedMigrations.close();
+        mongo.shutdown();
+    }
+
+
+    @Benchmark
+    public MigrationReport execute() throws MigrationException
+    {
+        MongoMigration migration = new MongoMigration(mongo.getMongoClient())
+                .setDbName(InMemoryMongo.DB_NAME)
+                .setMigrationScanPackage(GeneratedMigrations.PACKAGE);
+        migration.setMigrationNamePrefix(GeneratedMigrations.PREFIX);
+
+        // MongoMigration looks up migrations with the context class loader
+        Thread thread = Thread.currentThread();
+        ClassLoader previousClassLoader = thread.getContextClassLoader();
+        thread.setContextClassLoader(generatedMigrations.getClassLoader());
+        try
+        {
+            return migration.execute();
+        }
+        finally
+        {
+            thread.setContextClassLoader(previousClassLoader);
+        }
+    }
+}
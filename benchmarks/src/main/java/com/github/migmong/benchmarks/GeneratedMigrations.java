@@ -0,0 +1,122 @@
+package com.github.migmong.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.tools.JavaCompiler;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import com.github.migmong.index.MigrationIndex;
+import com.github.migmong.index.MigrationIndexProcessor;
+import com.github.migmong.migration.annotations.Migration;
+
+/**
+ * Migration classes compiled at benchmark setup, so the count of migrations is a benchmark parameter
+ */
+public final class GeneratedMigrations
+{
+    public static final String PACKAGE = "com.github.migmong.benchmarks.generated";
+    public static final String PREFIX = "V_";
+
+    private final URLClassLoader classLoader;
+
+
+    private GeneratedMigrations(URLClassLoader classLoader)
+    {
+        this.classLoader = classLoader;
+    }
+
+
+    /**
+     * Compiles migrations with versions 1..count, each of them has the given count of empty units
+     * @param count count of migrations
+     * @param units count of units of every migration
+     * @param indexed whether {@link MigrationIndex} is built, otherwise the package is scanned at run time
+     * @return loader of compiled migrations
+     */
+    public static GeneratedMigrations compile(int count, int units, boolean indexed)
+    {
+        try
+        {
+            Path sources = Files.createTempDirectory("migmong-sources");
+            Path output = Files.createTempDirectory("migmong-classes");
+            List<File> files = new ArrayList<>();
+            for (int i = 1; i <= count; i++)
+                files.add(writeMigration(sources, getClassName(i), units).toFile());
+
+            JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+            try (StandardJavaFileManager fileManager = compiler.getStandardFileManager(null, null, null))
+            {
+                String classPath = new File(Migration.class.getProtectionDomain().getCodeSource().getLocation()
+                        .getPath()).getPath();
+                List<String> options = Arrays.asList("-d", output.toString(), "-classpath", classPath,
+                        "-A" + MigrationIndex.PREFIX_OPTION + "=" + PREFIX);
+
+                JavaCompiler.CompilationTask task = compiler.getTask(null, fileManager, null, options, null,
+                        fileManager.getJavaFileObjectsFromFiles(files));
+                task.setProcessors(indexed
+                        ? Collections.singletonList(new MigrationIndexProcessor())
+                        : Collections.emptyList());
+                if (!task.call())
+                    throw new IllegalStateException("Generated migrations are not compiled");
+            }
+
+            return new GeneratedMigrations(new URLClassLoader(new URL[] { output.toUri().toURL() },
+                    GeneratedMigrations.class.getClassLoader()));
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+
+    public static String getClassName(int version)
+    {
+        return PREFIX + version + "__migration";
+    }
+
+
+    public ClassLoader getClassLoader()
+    {
+        return classLoader;
+    }
+
+
+    public void close() throws IOException
+    {
+        classLoader.close();
+    }
+
+
+    private static Path writeMigration(Path directory, String className, int units) throws IOException
+    {
+        StringBuilder content = new StringBuilder()
+                .append("package ").append(PACKAGE).append(";\n")
+                .append("import com.github.migmong.migration.MigrationContext;\n")
+                .append("import com.github.migmong.migration.annotations.Migration;\n")
+                .append("import com.github.migmong.migration.annotations.MigrationUnit;\n")
+                .append("@Migration public class ").append(className).append(" {\n");
+        for (int unit = 1; unit <= units; unit++)
+        {
+            content.append("@MigrationUnit(id = ").append(unit).append(") public void unit").append(unit)
+                    .append("(MigrationContext context) {}\n");
+        }
+        content.append("}\n");
+
+        Path source = directory.resolve(className + ".java");
+        Files.write(source, content.toString().getBytes(StandardCharsets.UTF_8));
+        return source;
+    }
+}
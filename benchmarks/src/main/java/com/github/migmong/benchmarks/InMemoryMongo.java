@@ -0,0 +1,48 @@
+package com.github.migmong.benchmarks;
+
+import java.net.InetSocketAddress;
+
+import com.mongodb.MongoClient;
+import com.mongodb.ServerAddress;
+import com.mongodb.client.MongoDatabase;
+
+import de.bwaldvogel.mongo.MongoServer;
+import de.bwaldvogel.mongo.backend.memory.MemoryBackend;
+
+/**
+ * In-memory mongo-java-server, the same one which is used by tests of migmong
+ */
+public final class InMemoryMongo
+{
+    public static final String DB_NAME = "migmongBenchmarks";
+
+    private final MongoServer mongoServer;
+    private final MongoClient mongoClient;
+
+
+    public InMemoryMongo()
+    {
+        mongoServer = new MongoServer(new MemoryBackend());
+        InetSocketAddress serverAddress = mongoServer.bind();
+        mongoClient = new MongoClient(new ServerAddress(serverAddress));
+    }
+
+
+    public MongoClient getMongoClient()
+    {
+        return mongoClient;
+    }
+
+
+    public MongoDatabase getDatabase()
+    {
+        return mongoClient.getDatabase(DB_NAME);
+    }
+
+
+    public void shutdown()
+    {
+        mongoClient.close();
+        mongoServer.shutdownNow();
+    }
+}
@@ -0,0 +1,64 @@
+package com.github.migmong.benchmarks;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.migmong.exception.MigrationException;
+import com.github.migmong.migration.MigrationInfo;
+import com.github.migmong.utils.MigrationService;
+
+/**
+ * Discovery of migrations with build-time index and with scanning of the package
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MigrationDiscoveryBenchmark
+{
+    @Param({ "10", "100", "1000" })
+    private int migrations;
+
+    @Param({ "true", "false" })
+    private boolean indexed;
+
+    private GeneratedMigrations generatedMigrations;
+
+
+    @Setup
+    public void setUp()
+    {
+        generatedMigrations = GeneratedMigrations.compile(migrations, 5, indexed);
+    }
+
+
+    @TearDown
+    public void tearDown() throws IOException
+    {
+        generatedMigrations.close();
+    }
+
+
+    @Benchmark
+    public List<MigrationInfo> fetchMigrations() throws MigrationException
+    {
+        return new MigrationService(GeneratedMigrations.PACKAGE, generatedMigrations.getClassLoader())
+                .fetchMigrations(GeneratedMigrations.PREFIX);
+    }
+}
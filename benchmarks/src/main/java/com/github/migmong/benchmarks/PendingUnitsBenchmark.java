@@ -0,0 +1,125 @@
+package com.github.migmong.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.Document;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.migmong.dao.ChangeEntryDao;
+import com.github.migmong.exception.MigrationException;
+import com.github.migmong.migration.AppliedMigrationUnits;
+import com.github.migmong.migration.MigrationEntry;
+import com.github.migmong.migration.MigrationInfo;
+import com.github.migmong.migration.MigrationUnitInfo;
+import com.github.migmong.migration.Version;
+import com.github.migmong.utils.MigrationService;
+
+/**
+ * Check of pending migration units against migration logs of different sizes. Every migration has 10 units and
+ * all of them are applied.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PendingUnitsBenchmark
+{
+    private static final int UNITS = 10;
+    private static final String MIGRATION_COLLECTION = "migrationLog";
+
+    @Param({ "1000", "10000", "100000" })
+    private int entries;
+
+    private InMemoryMongo mongo;
+    private ChangeEntryDao dao;
+    private MigrationService service;
+    private List<MigrationInfo> migrations;
+    private AppliedMigrationUnits appliedMigrationUnits;
+
+
+    @Setup
+    public void setUp() throws MigrationException
+    {
+        mongo = new InMemoryMongo();
+        dao = new ChangeEntryDao(MIGRATION_COLLECTION, "migrationLock", false, 0, 0, false);
+        dao.connectMongoDb(mongo.getMongoClient(), InMemoryMongo.DB_NAME);
+        dao.initializeCollections();
+        service = new MigrationService(GeneratedMigrations.PACKAGE);
+
+        List<MigrationUnitInfo> units = new ArrayList<>();
+        for (int unit = 1; unit <= UNITS; unit++)
+            units.add(new MigrationUnitInfo(unit, "unit" + unit, false));
+
+        migrations = new ArrayList<>();
+        List<Document> log = new ArrayList<>();
+        for (int version = 1; version <= entries / UNITS; version++)
+        {
+            MigrationInfo migration = new MigrationInfo(GeneratedMigrations.PACKAGE + "." +
+                    GeneratedMigrations.getClassName(version), new Version(version), units, Collections.emptySet(),
+                    getClass().getClassLoader());
+            migrations.add(migration);
+            for (MigrationUnitInfo unit : units)
+                log.add(service.createMigrationEntry(migration, unit).buildFullDBObject());
+        }
+        mongo.getDatabase().getCollection(MIGRATION_COLLECTION).insertMany(log);
+
+        appliedMigrationUnits = dao.fetchAppliedMigrationUnits();
+    }
+
+
+    @TearDown
+    public void tearDown()
+    {
+        mongo.shutdown();
+    }
+
+
+    @Benchmark
+    public AppliedMigrationUnits fetchWholeLog() throws MigrationException
+    {
+        return dao.fetchAppliedMigrationUnits();
+    }
+
+
+    @Benchmark
+    public AppliedMigrationUnits fetchFromHighestVersion() throws MigrationException
+    {
+        String highestVersion = dao.fetchHighestAppliedVersion();
+        dao.countAppliedMigrationUnitsByVersion(highestVersion);
+        return dao.fetchAppliedMigrationUnits(highestVersion, Collections.emptySet());
+    }
+
+
+    @Benchmark
+    public int checkPendingUnits()
+    {
+        int pending = 0;
+        for (MigrationInfo migration : migrations)
+        {
+            for (MigrationUnitInfo unit : migration.getMigrationUnits())
+            {
+                MigrationEntry migrationEntry = service.createMigrationEntry(migration, unit);
+                if (!appliedMigrationUnits.contains(migrationEntry))
+                    pending++;
+            }
+        }
+        return pending;
+    }
+}
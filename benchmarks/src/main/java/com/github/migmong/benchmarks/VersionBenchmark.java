@@ -0,0 +1,80 @@
+package com.github.migmong.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.github.migmong.migration.MigrationInfo;
+import com.github.migmong.migration.Version;
+
+/**
+ * Parsing, sorting and encoding of migration versions
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VersionBenchmark
+{
+    @Param({ "10", "100", "1000" })
+    private int migrations;
+
+    private List<String> classNames;
+    private List<Version> versions;
+
+
+    @Setup
+    public void setUp()
+    {
+        Random random = new Random(42);
+        classNames = new ArrayList<>();
+        versions = new ArrayList<>();
+        for (int i = 0; i < migrations; i++)
+        {
+            String version = random.nextInt(10) + "_" + random.nextInt(100) + "_" + random.nextInt(1000);
+            classNames.add("V_" + version + "__migration" + i);
+            versions.add(Version.from(version, "_"));
+        }
+    }
+
+
+    @Benchmark
+    public void parse(Blackhole blackhole)
+    {
+        for (String className : classNames)
+            blackhole.consume(MigrationInfo.parseVersion(className, "V_"));
+    }
+
+
+    @Benchmark
+    public List<Version> sort()
+    {
+        List<Version> sorted = new ArrayList<>(versions);
+        sorted.sort(Version::compareTo);
+        return sorted;
+    }
+
+
+    @Benchmark
+    public void encode(Blackhole blackhole)
+    {
+        for (Version version : versions)
+            blackhole.consume(version.encode());
+    }
+}
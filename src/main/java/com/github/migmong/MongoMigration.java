@@ -5,8 +5,21 @@ import static com.mongodb.ServerAddress.defaultPort;
 import static org.springframework.util.StringUtils.hasText;
 
 import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
 
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.context.ApplicationContext;
@@ -18,19 +31,42 @@ import com.github.migmong.exception.MigrationConfigurationException;
 import com.github.migmong.exception.MigrationConnectionException;
 import com.github.migmong.exception.MigrationException;
 import com.github.migmong.exception.MigrationLockException;
+import com.github.migmong.exception.MigrationUnitException;
+import com.github.migmong.listener.MetricsMigrationListener;
+import com.github.migmong.listener.MigrationListener;
+import com.github.migmong.listener.MigrationListeners;
+import com.github.migmong.migration.AppliedMigrationUnits;
 import com.github.migmong.migration.MigrationContext;
 import com.github.migmong.migration.MigrationEntry;
 import com.github.migmong.migration.MigrationInfo;
+import com.github.migmong.migration.MigrationProgress;
+import com.github.migmong.migration.MigrationReport;
+import com.github.migmong.migration.MigrationUnitDescriptor;
+import com.github.migmong.migration.MigrationUnitFailure;
+import com.github.migmong.migration.MigrationUnitInfo;
+import com.github.migmong.migration.UnitsDigest;
+import com.github.migmong.migration.Version;
 import com.github.migmong.migration.annotations.Migration;
+import com.github.migmong.migration.data.BulkWriteSummary;
+import com.github.migmong.migration.data.BulkWriter;
+import com.github.migmong.migration.data.ReplicaSetLoadProbe;
+import com.github.migmong.migration.data.UpdateSpec;
+import com.github.migmong.migration.data.UpdateSpecBatch;
+import com.github.migmong.migration.data.WriteThrottle;
+import com.github.migmong.trace.CommandSummary;
+import com.github.migmong.trace.CommandTracker;
+import com.github.migmong.utils.AsyncUnitResults;
+import com.github.migmong.utils.MigrationExecutors;
+import com.github.migmong.utils.MigrationGraph;
 import com.github.migmong.utils.MigrationService;
 import com.mongodb.MongoClient;
 import com.mongodb.MongoClientOptions;
 import com.mongodb.MongoClientURI;
 import com.mongodb.MongoCredential;
+import com.mongodb.MongoException;
 import com.mongodb.ReadConcern;
 import com.mongodb.ServerAddress;
 import com.mongodb.WriteConcern;
-import com.mongodb.client.MongoDatabase;
 
 import lombok.extern.slf4j.Slf4j;
 
@@ -57,6 +93,13 @@ public class MongoMigration implements InitializingBean
     private MongoClient mongoClient;
     private MigrationContext migrationContext = new MigrationContext();
     private String migrationPrefix = "V";
+    private int migrationThreads = 1;
+    private final MigrationListeners listeners = new MigrationListeners();
+    private final CommandTracker commandTracker = new CommandTracker();
+    private boolean commandTracing;
+    private boolean async;
+    private long asyncUnitTimeoutMillis;
+    private volatile MigrationProgress progress = new MigrationProgress();
 
 
     /**
@@ -141,6 +184,7 @@ public class MongoMigration implements InitializingBean
                 .builder()
                 .writeConcern(WriteConcern.ACKNOWLEDGED)
                 .readConcern(ReadConcern.LOCAL)
+                .addCommandListener(commandTracker)
                 .build();
         mongoClient = new MongoClient(address, credential, options);
         this.dao = createDao();
@@ -153,7 +197,16 @@ public class MongoMigration implements InitializingBean
     @Override
     public void afterPropertiesSet() throws Exception
     {
-        execute();
+        if (!async)
+        {
+            execute();
+            return;
+        }
+
+        executeAsync().whenComplete((report, e) -> {
+            if (e != null)
+                log.error("MongoMigration has failed", e);
+        });
     }
 
 
@@ -170,13 +223,89 @@ public class MongoMigration implements InitializingBean
     /**
      * Executing migration. Executes only {@link Migration Migrations} which version are less or equals to current application version
      * and ignores already executed.
+     * @return report with applied and failed migration units
+     */
+    public MigrationReport execute() throws MigrationException
+    {
+        return execute(null);
+    }
+
+
+    /**
+     * Executes the given migrations without scanning the migration package, so one scanned set of migrations can be
+     * applied to many databases
+     * @param migrations sorted migrations or null to scan the migration package
+     * @return report with applied and failed migration units
+     */
+    MigrationReport execute(List<MigrationInfo> migrations) throws MigrationException
+    {
+        MigrationProgress progress = startProgress();
+        try
+        {
+            MigrationReport report = executeProcess(progress, migrations);
+            progress.finish(report);
+            return report;
+        }
+        catch (MigrationException | RuntimeException e)
+        {
+            progress.fail(e);
+            throw e;
+        }
+    }
+
+
+    /**
+     * Executes migration on a separate thread, see {@link #execute()}. Progress of migrations can be tracked with
+     * {@link #getProgress()}.
+     * @return future of report with applied and failed migration units
      */
-    public void execute() throws MigrationException
+    public CompletableFuture<MigrationReport> executeAsync()
+    {
+        ExecutorService executor = MigrationExecutors.newBoundedExecutor(1, "migmong-async");
+        try
+        {
+            return CompletableFuture.supplyAsync(() -> {
+                try
+                {
+                    return execute();
+                }
+                catch (MigrationException e)
+                {
+                    throw new CompletionException(e);
+                }
+            }, executor);
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+
+
+    /**
+     * @return progress of the current migration process or of the next one if nothing is executed now
+     */
+    public MigrationProgress getProgress()
+    {
+        return progress;
+    }
+
+
+    private synchronized MigrationProgress startProgress()
+    {
+        if (progress.isFinished())
+            progress = new MigrationProgress();
+        return progress;
+    }
+
+
+    private MigrationReport executeProcess(MigrationProgress progress, List<MigrationInfo> scannedMigrations)
+            throws MigrationException
     {
         if (!isEnabled())
         {
             log.info("MongoMigration is disabled. Exiting.");
-            return;
+            return new MigrationReport(MigrationReport.Status.DISABLED);
         }
 
         validateConfig();
@@ -186,25 +315,136 @@ public class MongoMigration implements InitializingBean
         else
             dao.connectMongoDb(this.mongoClientURI, dbName);
 
-        if (!dao.acquireProcessLock())
+        MigrationService service = new MigrationService(migrationScanPackage);
+        List<MigrationInfo> migrations = scannedMigrations;
+        if (migrations == null)
         {
+            listeners.onScanStarted(migrationScanPackage);
+            long scanStarted = System.currentTimeMillis();
+            migrations = service.fetchMigrations(migrationPrefix);
+            listeners.onScanFinished(migrations, System.currentTimeMillis() - scanStarted);
+        }
+        progress.start(migrations);
+        String fingerprint = service.computeFingerprint(migrations);
+
+        // Neither the lock nor the indexes are touched if all known units have been applied before
+        if (!hasAlwaysRunnableUnits(migrations) && dao.isMigrationManifestCurrent(fingerprint))
+        {
+            log.info("MongoMigration found all migrations applied. Exiting.");
+            return new MigrationReport(MigrationReport.Status.UP_TO_DATE);
+        }
+
+        dao.initializeCollections();
+
+        // Waiting for the lock is stopped if another process applies the same migrations
+        dao.setMigrationFingerprint(hasAlwaysRunnableUnits(migrations) ? null : fingerprint);
+        listeners.onLockWaitStarted();
+        long lockWaitStarted = System.currentTimeMillis();
+        boolean lockAcquired = false;
+        try
+        {
+            lockAcquired = dao.acquireProcessLock();
+        }
+        finally
+        {
+            long lockWaitMillis = System.currentTimeMillis() - lockWaitStarted;
+            if (lockAcquired)
+                listeners.onLockAcquired(lockWaitMillis);
+            else
+                listeners.onLockNotAcquired(lockWaitMillis);
+        }
+
+        if (!lockAcquired)
+        {
+            if (!hasAlwaysRunnableUnits(migrations) && dao.isMigrationManifestCurrent(fingerprint))
+            {
+                log.info("MongoMigration found all migrations applied by another process. Exiting.");
+                return new MigrationReport(MigrationReport.Status.UP_TO_DATE);
+            }
+
             log.warn("MongoMigration did not acquire process lock. Exiting.");
-            return;
+            return new MigrationReport(MigrationReport.Status.LOCK_NOT_ACQUIRED);
         }
 
         log.info("MongoMigration acquired process lock, starting the data migration sequence..");
 
+        MigrationReport report;
+        long lockHeldSince = System.currentTimeMillis();
         try
         {
-            executeMigration();
+            boolean lockOwned = false;
+            try
+            {
+                report = executeMigrations(service, migrations);
+            }
+            finally
+            {
+                // Buffered entries of the migration log must be written before the lock is released. A process
+                // which has lost its lease writes nothing, the new lock holder may resume the same units.
+                lockOwned = dao.isProcessLockOwned();
+                if (lockOwned)
+                {
+                    dao.flush();
+                    dao.restoreDeferredIndexes();
+                }
+                else
+                {
+                    log.warn("MongoMigration has lost process lock, migration log entries and deferred indexes "
+                            + "are left to the new lock holder.");
+                }
+            }
+
+            if (lockOwned && report.getStatus() == MigrationReport.Status.COMPLETED)
+                dao.saveMigrationManifest(fingerprint, countMigrationUnits(migrations));
         }
         finally
         {
             log.info("MongoMigration is releasing process lock.");
             dao.releaseProcessLock();
+            listeners.onLockReleased(System.currentTimeMillis() - lockHeldSince);
         }
 
+        for (MigrationUnitFailure failure : report.getFailedUnits())
+            log.error(failure.toString(), failure.getCause());
+
         log.info("MongoMigration has finished his job.");
+        return report;
+    }
+
+
+    /**
+     * Folds the migration log entries of versions up to the given one into a summary document and moves the entries
+     * to the archive collection. Applied units are recognized by the summary, so compacted migrations are not
+     * executed again. Entries of always runnable units are compacted too, such units run again as usual.
+     * @param version version like '1.2', entries of this and older versions are compacted
+     * @return count of compacted entries, 0 if the process lock has not been acquired
+     */
+    public int compactMigrationLog(String version) throws MigrationException
+    {
+        String upToVersion = Version.from(version, ".").encode();
+        validateConfig();
+
+        if (this.mongoClient != null)
+            dao.connectMongoDb(this.mongoClient, dbName);
+        else
+            dao.connectMongoDb(this.mongoClientURI, dbName);
+        dao.initializeCollections();
+
+        dao.setMigrationFingerprint(null);
+        if (!dao.acquireProcessLock())
+        {
+            log.warn("MongoMigration did not acquire process lock, migration log is not compacted.");
+            return 0;
+        }
+
+        try
+        {
+            return dao.compactMigrationLog(upToVersion);
+        }
+        finally
+        {
+            dao.releaseProcessLock();
+        }
     }
 
 
@@ -255,7 +495,8 @@ public class MongoMigration implements InitializingBean
 
 
     /**
-     * Poll rate for acquiring lock if waitForLock is true
+     * Maximum poll rate for acquiring lock if waitForLock is true. Polls start more often and back off
+     * exponentially up to this rate.
      * @param migrationLockPollRate Poll rate in seconds for acquiring lock
      */
     public MongoMigration setLockPollRate(long migrationLockPollRate)
@@ -265,6 +506,18 @@ public class MongoMigration implements InitializingBean
     }
 
 
+    /**
+     * Duration of the lock lease. The lease is renewed by a heartbeat while migrations are executed, and the lock
+     * of a crashed process can be taken over when its lease expires. Default is 60 seconds.
+     * @param lockLeaseTime lease duration in seconds
+     */
+    public MongoMigration setLockLeaseTime(long lockLeaseTime)
+    {
+        this.dao.setLockLeaseTime(lockLeaseTime * 1000);
+        return this;
+    }
+
+
     /**
      * Waiting time for acquiring lock if waitForLock is true
      * @param migrationLockWaitTime Waiting time in minutes for acquiring lock
@@ -287,6 +540,45 @@ public class MongoMigration implements InitializingBean
     }
 
 
+    /**
+     * Sets count of threads for concurrent execution of migrations. Only migrations which declare disjoint
+     * {@link Migration#collections()} are executed concurrently. Default is 1, all migrations are executed
+     * on the calling thread.
+     * @param migrationThreads maximum count of concurrently executed migrations
+     */
+    public MongoMigration setMigrationThreads(int migrationThreads)
+    {
+        this.migrationThreads = migrationThreads;
+        return this;
+    }
+
+
+    /**
+     * Overwrites a default name of collection with fingerprints of applied migrations
+     * {@link ChangeEntryDao#DEFAULT_MANIFEST_COLLECTION_NAME}. The fingerprint lets skip the migration process
+     * without acquiring the lock if there are no new migration units.
+     * @param manifestCollectionName a new manifest collection name
+     */
+    public MongoMigration setManifestCollectionName(String manifestCollectionName)
+    {
+        this.dao.setManifestCollectionName(manifestCollectionName);
+        return this;
+    }
+
+
+    /**
+     * Overwrites a default name of capped collection with lock release and migration completion events
+     * {@link ChangeEntryDao#DEFAULT_EVENTS_COLLECTION_NAME}. Processes waiting for the lock are woken up by them.
+     * Event ids are kept in the collection with the same name and the 'Sequence' suffix.
+     * @param eventsCollectionName a new events collection name
+     */
+    public MongoMigration setEventsCollectionName(String eventsCollectionName)
+    {
+        this.dao.setEventsCollectionName(eventsCollectionName);
+        return this;
+    }
+
+
     /**
      * Overwrites a default name of collection for migration log instead of {@link #DEFAULT_MIGRATION_COLLECTION_NAME}
      * <p>CAUTION! Use this method carefully - when changing the name on a existing system,
@@ -300,6 +592,18 @@ public class MongoMigration implements InitializingBean
     }
 
 
+    /**
+     * Overwrites a default name of collection for compacted migration log entries, which is the migration
+     * collection name with 'Archive' suffix
+     * @param archiveCollectionName a new archive collection name
+     */
+    public MongoMigration setArchiveCollectionName(String archiveCollectionName)
+    {
+        this.dao.setArchiveCollectionName(archiveCollectionName);
+        return this;
+    }
+
+
     /**
      * Used DB name should be set here or via MongoDB URI (in a constructor)
      * @param dbName database name
@@ -367,6 +671,105 @@ public class MongoMigration implements InitializingBean
     }
 
 
+    /**
+     * Sets count of migration log entries written with one bulk write. Entries are also written when all units of
+     * a migration class are executed and before the lock is released. Default is 1, every entry is written right
+     * after its unit.
+     * <p>CAUTION! If the process crashes, units of the current migration class which have been applied but not
+     * written to the log will be executed again. Use batches only for idempotent migration units.</p>
+     * @param migrationLogBatchSize count of entries in one write
+     */
+    public MongoMigration setMigrationLogBatchSize(int migrationLogBatchSize)
+    {
+        this.dao.setMigrationLogBatchSize(migrationLogBatchSize);
+        return this;
+    }
+
+
+    /**
+     * Sets write concern for the migration log, e.g. {@link WriteConcern#MAJORITY} for durability or
+     * {@link WriteConcern#W1} for throughput. By default write concern of the database is used.
+     * @param writeConcern write concern of the migration log
+     */
+    public MongoMigration setMigrationLogWriteConcern(WriteConcern writeConcern)
+    {
+        this.dao.setMigrationLogWriteConcern(writeConcern);
+        return this;
+    }
+
+
+    /**
+     * Sets throttle of writes made by bulk writers of {@link MigrationContext}. Its rate is adapted to replication
+     * lag of the cluster and write latency. By default migration writes are not throttled.
+     * @param writeThrottle throttle shared by all migration units
+     */
+    public MongoMigration setWriteThrottle(WriteThrottle writeThrottle)
+    {
+        migrationContext.setWriteThrottle(writeThrottle);
+        return this;
+    }
+
+
+    /**
+     * Limits waiting for a {@link java.util.concurrent.CompletionStage} or a publisher returned by a migration unit.
+     * The process lock is held while the unit is waited for, so a result which is never completed would block other
+     * processes. A unit which is not completed in time fails and its result is cancelled, so a publisher stops.
+     * @param asyncUnitTimeoutMillis maximum waiting time, default is 0 which means waiting without a limit
+     */
+    public MongoMigration setAsyncUnitTimeout(long asyncUnitTimeoutMillis)
+    {
+        if (asyncUnitTimeoutMillis < 0)
+            throw new IllegalArgumentException("Timeout should not be negative: " + asyncUnitTimeoutMillis);
+        this.asyncUnitTimeoutMillis = asyncUnitTimeoutMillis;
+        return this;
+    }
+
+
+    /**
+     * Makes Spring bean execute migrations asynchronously, so that only beans marked with
+     * {@link com.github.migmong.migration.annotations.DependsOnMigration} wait for them
+     * @param async whether migrations are executed on a separate thread, default is false
+     */
+    public MongoMigration setAsync(boolean async)
+    {
+        this.async = async;
+        return this;
+    }
+
+
+    /**
+     * Enables counting of commands sent by every migration unit. Summaries are logged when units end and put to
+     * {@link MigrationReport#getCommandSummaries()}. If {@link MongoClient} is passed to the constructor,
+     * {@link #getCommandTracker()} has to be added to its options, otherwise nothing is counted.
+     * @param commandTracing whether commands should be counted, default is false
+     */
+    public MongoMigration setCommandTracing(boolean commandTracing)
+    {
+        this.commandTracing = commandTracing;
+        return this;
+    }
+
+
+    /**
+     * @return command listener which attributes commands to running migration units
+     */
+    public CommandTracker getCommandTracker()
+    {
+        return commandTracker;
+    }
+
+
+    /**
+     * Registers listener of migration lifecycle, e.g. {@link MetricsMigrationListener}
+     * @param listener thread-safe listener
+     */
+    public MongoMigration addMigrationListener(MigrationListener listener)
+    {
+        listeners.add(listener);
+        return this;
+    }
+
+
     /**
      * Feature which enables/disables throwing {@link MigrationLockException} if migration can not obtain lock
      * @param throwException should throw {@link MigrationLockException} if lock can not be obtained
@@ -389,62 +792,432 @@ public class MongoMigration implements InitializingBean
     }
 
 
-    private void executeMigration() throws MigrationException
+    /**
+     * Executes migrations on the calling thread or, if there are several migration threads, concurrently along
+     * {@link MigrationGraph}. If a migration can not be instantiated, the migrations which depend on it are not
+     * executed and the exception is thrown after all others are finished.
+     */
+    private MigrationReport executeMigrations(MigrationService service, List<MigrationInfo> migrations)
+            throws MigrationException
     {
-        MigrationService service = new MigrationService(migrationScanPackage);
+        AppliedMigrationUnits appliedMigrationUnits = fetchAppliedMigrationUnits(migrations);
+        listeners.onUnitsPending(countPendingUnits(service, migrations, appliedMigrationUnits));
+        migrationContext.setMongoDatabase(dao.getMongoDatabase());
+        WriteThrottle writeThrottle = migrationContext.getWriteThrottle();
+        if (writeThrottle != null && writeThrottle.getLoadProbe() == null)
+            writeThrottle.setLoadProbe(new ReplicaSetLoadProbe(dao.getMongoClient().getDatabase("admin")));
+
+        MigrationGraph graph = new MigrationGraph(migrations);
+        ExecutorService executorService = migrationThreads > 1
+                ? MigrationExecutors.newBoundedExecutor(migrationThreads, "migmong")
+                : null;
+        Executor executor = executorService != null ? executorService : Runnable::run;
+
+        List<CompletableFuture<MigrationReport>> results = new ArrayList<>();
+        try
+        {
+            for (int i = 0; i < migrations.size(); i++)
+            {
+                MigrationInfo migrationInfo = migrations.get(i);
+                CompletableFuture<?>[] dependencies = graph.getDependencies(i).stream()
+                        .map(results::get)
+                        .toArray(CompletableFuture[]::new);
 
-        for (MigrationInfo migrationInfo : service.fetchMigrations(migrationPrefix))
+                results.add(CompletableFuture.allOf(dependencies).thenApplyAsync(x -> {
+                    try
+                    {
+                        return executeMigration(service, migrationInfo, appliedMigrationUnits);
+                    }
+                    catch (MigrationException e)
+                    {
+                        throw new CompletionException(e);
+                    }
+                }, executor));
+            }
+
+            CompletableFuture.allOf(results.toArray(new CompletableFuture[0]))
+                    .handle((x, e) -> null)
+                    .join();
+        }
+        finally
+        {
+            if (executorService != null)
+                executorService.shutdown();
+        }
+
+        MigrationReport report = new MigrationReport(MigrationReport.Status.COMPLETED);
+        for (CompletableFuture<MigrationReport> result : results)
         {
             try
             {
-                Object migrationInstance = migrationInfo.getMigrationClass().getConstructor().newInstance();
-                List<Method> migrationUnits = service.fetchMigrationUnits(migrationInstance.getClass());
+                report.addAll(result.join());
+            }
+            catch (CompletionException e)
+            {
+                // The first failed migration in version order is the cause of failures of its dependants
+                if (e.getCause() instanceof MigrationException)
+                    throw (MigrationException)e.getCause();
+                throw new MigrationException(e.getCause().getMessage(), e.getCause());
+            }
+        }
+        return report;
+    }
+
+
+    /**
+     * Compares digests of applied units computed by the server with digests of declared units version by version.
+     * Units of a version with the same digest are taken as applied without reading them, the log is read only for
+     * versions which differ, e.g. partially applied versions or versions with renamed migrations. Units of the
+     * compacted log summary are taken as applied.
+     */
+    private AppliedMigrationUnits fetchAppliedMigrationUnits(List<MigrationInfo> migrations) throws MigrationException
+    {
+        Map<String, String> versions = new HashMap<>();
+        for (MigrationInfo migration : migrations)
+            versions.put(migration.getSimpleName(), migration.getVersion().encode());
+        Map<String, UnitsDigest> appliedDigests = dao.fetchUnitsDigestsByVersion(versions);
+        // Only the compacted summary may have applied units
+        if (appliedDigests.isEmpty())
+            return dao.fetchAppliedMigrationUnits();
+
+        AppliedMigrationUnits compactedUnits = dao.fetchCompactedMigrationUnits();
+
+        Map<String, UnitsDigest> declaredDigests = new HashMap<>();
+        for (MigrationInfo migration : migrations)
+        {
+            if (isCompacted(migration, compactedUnits))
+                continue;
+
+            UnitsDigest digest = declaredDigests.computeIfAbsent(versions.get(migration.getSimpleName()),
+                    x -> new UnitsDigest());
+            for (MigrationUnitInfo migrationUnit : migration.getMigrationUnits())
+                digest.add(migration.getSimpleName(), migrationUnit.getId());
+        }
+
+        // Versions without applied entries have nothing to read
+        Set<String> versionsToRead = declaredDigests.entrySet().stream()
+                .filter(declared -> appliedDigests.containsKey(declared.getKey()) &&
+                        !appliedDigests.get(declared.getKey()).equals(declared.getValue()))
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toSet());
+        AppliedMigrationUnits appliedMigrationUnits = versionsToRead.isEmpty() ? new AppliedMigrationUnits()
+                : dao.fetchAppliedMigrationUnits(versionsToRead);
+        for (MigrationInfo migration : migrations)
+        {
+            String version = versions.get(migration.getSimpleName());
+            if (!appliedDigests.containsKey(version) || versionsToRead.contains(version)
+                    || isCompacted(migration, compactedUnits))
+                continue;
+
+            for (MigrationUnitInfo migrationUnit : migration.getMigrationUnits())
+                appliedMigrationUnits.add(migration.getSimpleName(), migrationUnit.getId());
+        }
+        appliedMigrationUnits.addAll(compactedUnits);
+        log.debug("Migration log has {} versions, {} of them differ from declared ones and are read",
+                appliedDigests.size(), versionsToRead.size());
+        return appliedMigrationUnits;
+    }
+
+
+    private static boolean isCompacted(MigrationInfo migration, AppliedMigrationUnits compactedUnits)
+    {
+        return compactedUnits.containsAll(migration.getSimpleName(), migration.getMigrationUnits().stream()
+                .map(MigrationUnitInfo::getId)
+                .collect(Collectors.toList()));
+    }
 
-                for (Method migrationUnit : migrationUnits)
+
+    private MigrationReport executeMigration(MigrationService service, MigrationInfo migrationInfo,
+            AppliedMigrationUnits appliedMigrationUnits) throws MigrationException
+    {
+        MigrationReport report = new MigrationReport(MigrationReport.Status.COMPLETED);
+        Map<MigrationUnitInfo, MigrationEntry> pendingUnits = new LinkedHashMap<>();
+        Set<MigrationUnitInfo> newUnits = new HashSet<>();
+        for (MigrationUnitInfo migrationUnit : migrationInfo.getMigrationUnits())
+        {
+            MigrationEntry migrationEntry = service.createMigrationEntry(migrationInfo, migrationUnit);
+            if (!appliedMigrationUnits.contains(migrationEntry))
+                newUnits.add(migrationUnit);
+
+            if (newUnits.contains(migrationUnit) || migrationUnit.isRunAlways())
+                pendingUnits.put(migrationUnit, migrationEntry);
+            else
+                log.debug(migrationEntry + " passed over");
+        }
+
+        // Classes without pending units are neither loaded nor instantiated
+        MigrationUnitInfo lastForegroundUnit = pendingUnits.keySet().stream()
+                .filter(migrationUnit -> !migrationUnit.isBackground())
+                .reduce((first, second) -> second)
+                .orElse(null);
+        if (lastForegroundUnit == null)
+            progress.ready(migrationInfo);
+
+        if (pendingUnits.isEmpty())
+            return report;
+
+        try
+        {
+            Class<?> migrationClass = migrationInfo.getMigrationClass();
+            Object migrationInstance = migrationClass.getConstructor().newInstance();
+            Map<Integer, MigrationUnitDescriptor> migrationUnits = new HashMap<>();
+            for (MigrationUnitDescriptor descriptor : service.fetchMigrationUnitDescriptors(migrationClass))
+                migrationUnits.put(descriptor.getId(), descriptor);
+            // A stale migration index may list units which the class does not have anymore
+            for (MigrationUnitInfo pendingUnit : pendingUnits.keySet())
+            {
+                if (!migrationUnits.containsKey(pendingUnit.getId()))
                 {
-                    MigrationEntry migrationEntry = service.createMigrationEntry(migrationUnit);
+                    throw new MigrationUnitException(String.format(
+                            "MigrationUnit '%s' with id %s is not found in %s, migration index may be stale",
+                            pendingUnit.getMethodName(), pendingUnit.getId(), migrationClass.getName()));
+                }
+            }
+            UpdateSpecBatch updateSpecs = new UpdateSpecBatch(migrationContext.getMongoDatabase());
+            List<DeclaredUnit> declaredUnits = new ArrayList<>();
 
-                    try
+            for (Map.Entry<MigrationUnitInfo, MigrationEntry> pendingUnit : pendingUnits.entrySet())
+            {
+                // Another process may have taken over the expired lease, so no more units are executed
+                if (dao.isProcessLockLost())
+                    throw new MigrationLockException("Process lock has been lost before " + pendingUnit.getValue());
+
+                MigrationEntry migrationEntry = pendingUnit.getValue();
+                MigrationUnitDescriptor migrationUnit = migrationUnits.get(pendingUnit.getKey().getId());
+                // Declared updates are applied before any unit which changes data itself
+                if (!migrationUnit.isDeclarative())
+                    applyUpdateSpecs(updateSpecs, declaredUnits, report, appliedMigrationUnits);
+
+                listeners.onUnitStarted(migrationEntry);
+                long unitStarted = System.currentTimeMillis();
+                CommandSummary commandSummary = commandTracing ? commandTracker.startTracking() : null;
+                boolean newUnit = newUnits.contains(pendingUnit.getKey());
+                // Progress of always runnable units is not saved, they start from the beginning every time, but
+                // indexes dropped by their bulk loads are saved to be rebuilt after a restart
+                MigrationContext unitContext = migrationContext.forMigrationUnit(migrationEntry,
+                        newUnit ? dao : dao.getDeferredIndexStore());
+                try
+                {
+                    Object result = migrationUnit.invoke(migrationInstance, unitContext);
+                    if (migrationUnit.isDeclarative())
                     {
-                        if (dao.isNewMigrationUnit(migrationEntry))
-                        {
-                            executeMigrationUnit(migrationUnit, migrationInstance, dao.getMongoDatabase());
-                            dao.save(migrationEntry);
-                            log.info(migrationEntry + " applied");
-                        }
-                        else if (service.isAlwaysRunnableMigration(migrationUnit))
-                        {
-                            executeMigrationUnit(migrationUnit, migrationInstance, dao.getMongoDatabase());
-                            log.info(migrationEntry + " applied");
-                        }
-                        else
-                        {
-                            log.debug(migrationEntry + " passed over");
-                        }
+                        if (!(result instanceof UpdateSpec))
+                            throw new MigrationUnitException(migrationEntry + " has returned no UpdateSpec");
+
+                        updateSpecs.add((UpdateSpec)result);
+                        declaredUnits.add(new DeclaredUnit(migrationEntry, newUnit, unitStarted));
+                        continue;
                     }
-                    catch (Exception e)
+
+                    if (AsyncUnitResults.isAsync(result))
+                        awaitUnitResult(migrationEntry, result);
+                    unitContext.flushBulkWriters();
+                    // Indexes are rebuilt before the entry replaces their saved specs
+                    unitContext.closeBulkLoadScopes();
+                    for (BulkWriter bulkWriter : unitContext.getBulkWriters())
+                        log.info("{} wrote to {}: {}", migrationEntry, bulkWriter.getCollectionName(),
+                                bulkWriter.getSummary());
+                    migrationEntry.setDurationMillis(System.currentTimeMillis() - unitStarted);
+                    if (newUnit)
                     {
-                        log.error(e.getMessage());
+                        dao.save(migrationEntry);
+                        appliedMigrationUnits.add(migrationEntry);
                     }
+                    report.addApplied(migrationEntry);
+                    listeners.onUnitFinished(migrationEntry, System.currentTimeMillis() - unitStarted,
+                            unitContext.getWriteSummary());
+                    log.info(migrationEntry + " applied");
+                }
+                catch (InvocationTargetException e)
+                {
+                    closeBulkLoadScopes(unitContext);
+                    report.addFailed(migrationEntry, e.getTargetException());
+                    listeners.onUnitFailed(migrationEntry, System.currentTimeMillis() - unitStarted,
+                            e.getTargetException());
+                }
+                catch (Exception e)
+                {
+                    closeBulkLoadScopes(unitContext);
+                    report.addFailed(migrationEntry, e);
+                    listeners.onUnitFailed(migrationEntry, System.currentTimeMillis() - unitStarted, e);
+                }
+                finally
+                {
+                    if (commandSummary != null)
+                    {
+                        commandTracker.stopTracking();
+                        report.addCommandSummary(migrationEntry, commandSummary);
+                        log.info("{} sent {} commands: {}", migrationEntry, commandSummary.getCount(),
+                                commandSummary);
+                    }
+                }
+
+                // Dependants of the migration do not wait for background units
+                if (pendingUnit.getKey() == lastForegroundUnit)
+                {
+                    applyUpdateSpecs(updateSpecs, declaredUnits, report, appliedMigrationUnits);
+                    signalReady(migrationInfo, report);
                 }
             }
-            catch (NoSuchMethodException | IllegalAccessException | InstantiationException e)
+            applyUpdateSpecs(updateSpecs, declaredUnits, report, appliedMigrationUnits);
+
+            // Migration class boundary: at most units of one migration class can be applied but not logged
+            if (dao.isProcessLockLost())
+                throw new MigrationLockException("Process lock has been lost after " + migrationInfo.getSimpleName());
+            dao.flush();
+        }
+        catch (NoSuchMethodException | IllegalAccessException | InstantiationException e)
+        {
+            throw new MigrationException(e.getMessage(), e);
+        }
+        catch (InvocationTargetException e)
+        {
+            throw new MigrationException(e.getTargetException().getMessage(), e);
+        }
+        return report;
+    }
+
+
+    /**
+     * Applies updates declared by units since the last data changing unit and logs the units. Units are failed
+     * starting from the update which has failed.
+     */
+    private void applyUpdateSpecs(UpdateSpecBatch updateSpecs, List<DeclaredUnit> declaredUnits,
+            MigrationReport report, AppliedMigrationUnits appliedMigrationUnits) throws MigrationException
+    {
+        if (updateSpecs.isEmpty())
+            return;
+
+        if (dao.isProcessLockLost())
+            throw new MigrationLockException("Process lock has been lost before " + declaredUnits.get(0).entry);
+
+        Exception failure = null;
+        try
+        {
+            updateSpecs.apply();
+            log.info("{} declared updates are applied with {} passes", declaredUnits.size(),
+                    updateSpecs.getPasses());
+        }
+        catch (MongoException e)
+        {
+            failure = e;
+        }
+
+        for (int i = 0; i < declaredUnits.size(); i++)
+        {
+            DeclaredUnit declaredUnit = declaredUnits.get(i);
+            MigrationEntry migrationEntry = declaredUnit.entry;
+            long durationMillis = System.currentTimeMillis() - declaredUnit.started;
+            if (i >= updateSpecs.getApplied())
             {
-                throw new MigrationException(e.getMessage(), e);
+                report.addFailed(migrationEntry, failure);
+                listeners.onUnitFailed(migrationEntry, durationMillis, failure);
+                continue;
             }
-            catch (InvocationTargetException e)
+
+            migrationEntry.setDurationMillis(durationMillis);
+            if (declaredUnit.newUnit)
             {
-                throw new MigrationException(e.getTargetException().getMessage(), e);
+                dao.save(migrationEntry);
+                appliedMigrationUnits.add(migrationEntry);
             }
+            report.addApplied(migrationEntry);
+            listeners.onUnitFinished(migrationEntry, durationMillis, new BulkWriteSummary());
+            log.info(migrationEntry + " applied");
         }
+        declaredUnits.clear();
     }
 
 
-    private Object executeMigrationUnit(Method migrationUnit, Object migration, MongoDatabase mongoDatabase)
-            throws IllegalAccessException, InvocationTargetException
+    /**
+     * Waits for a unit which returned a {@link java.util.concurrent.CompletionStage} or a publisher, so the unit is
+     * logged only when all its asynchronous operations are finished or the unit fails after the timeout
+     */
+    private void awaitUnitResult(MigrationEntry migrationEntry, Object result) throws InvocationTargetException
     {
-        migrationContext.setMongoDatabase(mongoDatabase);
-        return migrationUnit.invoke(migration, migrationContext);
+        CompletableFuture<Long> completion = AsyncUnitResults.subscribe(result);
+        try
+        {
+            long published = asyncUnitTimeoutMillis > 0
+                    ? completion.get(asyncUnitTimeoutMillis, TimeUnit.MILLISECONDS)
+                    : completion.get();
+            if (published > 0)
+                log.info("{} published {} elements", migrationEntry, published);
+        }
+        catch (ExecutionException e)
+        {
+            throw new InvocationTargetException(e.getCause());
+        }
+        catch (TimeoutException e)
+        {
+            completion.cancel(true);
+            throw new InvocationTargetException(new MigrationUnitException(String.format(
+                    "%s has not been completed in %d ms", migrationEntry, asyncUnitTimeoutMillis)));
+        }
+        catch (InterruptedException e)
+        {
+            completion.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new InvocationTargetException(e);
+        }
+    }
+
+
+    /**
+     * Rebuilds indexes dropped by a failed unit. If they could not be rebuilt, their specs stay in the migration log
+     * and the next attempt is made at the end of the migration process.
+     */
+    private void closeBulkLoadScopes(MigrationContext unitContext)
+    {
+        try
+        {
+            unitContext.closeBulkLoadScopes();
+        }
+        catch (MigrationException e)
+        {
+            log.error(e.getMessage(), e);
+        }
+    }
+
+
+    private void signalReady(MigrationInfo migrationInfo, MigrationReport report)
+    {
+        if (report.getFailedUnits().isEmpty())
+            progress.ready(migrationInfo);
+        else
+            progress.failed(migrationInfo, new MigrationException("Migration units have failed: " +
+                    report.getFailedUnits(), report.getFailedUnits().get(0).getCause()));
+    }
+
+
+    private int countPendingUnits(MigrationService service, List<MigrationInfo> migrations,
+            AppliedMigrationUnits appliedMigrationUnits)
+    {
+        int pendingUnits = 0;
+        for (MigrationInfo migration : migrations)
+        {
+            for (MigrationUnitInfo migrationUnit : migration.getMigrationUnits())
+            {
+                if (migrationUnit.isRunAlways() ||
+                        !appliedMigrationUnits.contains(service.createMigrationEntry(migration, migrationUnit)))
+                    pendingUnits++;
+            }
+        }
+        return pendingUnits;
+    }
+
+
+    private boolean hasAlwaysRunnableUnits(List<MigrationInfo> migrations)
+    {
+        return migrations.stream()
+                .flatMap(migration -> migration.getMigrationUnits().stream())
+                .anyMatch(MigrationUnitInfo::isRunAlways);
+    }
+
+
+    private int countMigrationUnits(List<MigrationInfo> migrations)
+    {
+        return migrations.stream().mapToInt(migration -> migration.getMigrationUnits().size()).sum();
     }
 
 
@@ -464,9 +1237,30 @@ public class MongoMigration implements InitializingBean
 
     private ChangeEntryDao createDao()
     {
-        return new ChangeEntryDao(DEFAULT_MIGRATION_COLLECTION_NAME, DEFAULT_LOCK_COLLECTION_NAME,
+        ChangeEntryDao dao = new ChangeEntryDao(DEFAULT_MIGRATION_COLLECTION_NAME, DEFAULT_LOCK_COLLECTION_NAME,
                 DEFAULT_WAIT_FOR_LOCK,
                 DEFAULT_MIGRATION_LOCK_WAIT_TIME, DEFAULT_MIGRATION_LOCK_POLL_RATE,
                 DEFAULT_THROW_EXCEPTION_IF_CANNOT_OBTAIN_LOCK);
+        dao.setCommandListener(commandTracker);
+        return dao;
+    }
+
+
+    /**
+     * Unit which has declared an update that is not applied yet
+     */
+    private static final class DeclaredUnit
+    {
+        private final MigrationEntry entry;
+        private final boolean newUnit;
+        private final long started;
+
+
+        private DeclaredUnit(MigrationEntry entry, boolean newUnit, long started)
+        {
+            this.entry = entry;
+            this.newUnit = newUnit;
+            this.started = started;
+        }
     }
 }
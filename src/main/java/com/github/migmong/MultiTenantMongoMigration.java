@@ -0,0 +1,229 @@
+package com.github.migmong;
+
+import static org.springframework.util.StringUtils.hasText;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+import com.github.migmong.exception.MigrationConfigurationException;
+import com.github.migmong.exception.MigrationException;
+import com.github.migmong.migration.MigrationInfo;
+import com.github.migmong.migration.MigrationReport;
+import com.github.migmong.migration.MultiTenantMigrationReport;
+import com.github.migmong.utils.MigrationExecutors;
+import com.github.migmong.utils.MigrationService;
+import com.mongodb.MongoClient;
+import com.mongodb.MongoClientURI;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Mongo migration entry point for a database per tenant. Migrations are scanned once and applied to every tenant
+ * database by its own {@link MongoMigration}, so every database has its own migration log and process lock.
+ * Databases are migrated concurrently with bounded concurrency, a failure of one tenant does not stop the others.
+ */
+@Slf4j
+public class MultiTenantMongoMigration
+{
+    public static final int DEFAULT_CONCURRENCY = 8;
+
+    private final MongoClient mongoClient;
+    private String migrationScanPackage;
+    private String migrationPrefix = "V";
+    private Supplier<Collection<String>> databaseNames;
+    private int concurrency = DEFAULT_CONCURRENCY;
+    private BiConsumer<String, MongoMigration> tenantConfigurer = (dbName, migration) -> {};
+
+
+    /**
+     * Constructor takes {@link MongoClient} object as a parameter, the client is shared by all tenants
+     * @param mongoClient database connection client
+     */
+    public MultiTenantMongoMigration(MongoClient mongoClient)
+    {
+        this.mongoClient = mongoClient;
+    }
+
+
+    /**
+     * Constructor takes correct uri string for {@link MongoClientURI}, database of the URI is ignored
+     * @param mongoURI with correct format
+     */
+    public MultiTenantMongoMigration(String mongoURI)
+    {
+        this(new MongoClient(new MongoClientURI(mongoURI)));
+    }
+
+
+    /**
+     * Executes migrations for all tenant databases
+     * @return reports by database name
+     * @throws MigrationException if migrations can not be scanned or databases can not be listed
+     */
+    public MultiTenantMigrationReport execute() throws MigrationException
+    {
+        validateConfig();
+
+        MigrationService service = new MigrationService(migrationScanPackage);
+        List<MigrationInfo> migrations = service.fetchMigrations(migrationPrefix);
+        List<String> dbNames = new ArrayList<>(new LinkedHashSet<>(databaseNames.get()));
+        log.info("MongoMigration is applying {} migrations to {} tenant databases", migrations.size(),
+                dbNames.size());
+
+        Map<String, CompletableFuture<MigrationReport>> results = new LinkedHashMap<>();
+        ExecutorService executor = MigrationExecutors.newBoundedExecutor(Math.min(concurrency,
+                Math.max(dbNames.size(), 1)), "migmong-tenant");
+        try
+        {
+            for (String dbName : dbNames)
+            {
+                results.put(dbName, CompletableFuture.supplyAsync(() -> {
+                    try
+                    {
+                        return executeTenant(dbName, migrations);
+                    }
+                    catch (MigrationException e)
+                    {
+                        throw new CompletionException(e);
+                    }
+                }, executor));
+            }
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+
+        MultiTenantMigrationReport report = new MultiTenantMigrationReport();
+        for (Map.Entry<String, CompletableFuture<MigrationReport>> result : results.entrySet())
+        {
+            try
+            {
+                report.addReport(result.getKey(), result.getValue().join());
+            }
+            catch (CompletionException e)
+            {
+                log.error("MongoMigration has failed for tenant database {}", result.getKey(), e.getCause());
+                report.addFailure(result.getKey(), e.getCause());
+            }
+        }
+
+        log.info("MongoMigration has finished for {} tenant databases, {} of them have failed", dbNames.size(),
+                report.getFailedTenants().size());
+        return report;
+    }
+
+
+    /**
+     * Closes the Mongo instance shared by tenants
+     */
+    public void close()
+    {
+        mongoClient.close();
+    }
+
+
+    /**
+     * Package where {@link com.github.migmong.migration.annotations.Migration} classes are placed
+     * @param migrationScanPackage package with migrations
+     */
+    public MultiTenantMongoMigration setMigrationScanPackage(String migrationScanPackage)
+    {
+        this.migrationScanPackage = migrationScanPackage;
+        return this;
+    }
+
+
+    /**
+     * Sets prefix for migration names. Default is 'V'.
+     * @param prefix prefix for migration name
+     */
+    public MultiTenantMongoMigration setMigrationNamePrefix(String prefix)
+    {
+        this.migrationPrefix = prefix;
+        return this;
+    }
+
+
+    /**
+     * @param databaseNames callback listing tenant databases, it is called once per execution
+     */
+    public MultiTenantMongoMigration setDatabaseNames(Supplier<Collection<String>> databaseNames)
+    {
+        this.databaseNames = databaseNames;
+        return this;
+    }
+
+
+    /**
+     * Tenant databases are listed on the server and filtered by the pattern
+     * @param databaseNamePattern regular expression which the whole database name should match, e.g. 'tenant_.+'
+     */
+    public MultiTenantMongoMigration setDatabaseNamePattern(String databaseNamePattern)
+    {
+        Pattern pattern = Pattern.compile(databaseNamePattern);
+        this.databaseNames = () -> {
+            List<String> dbNames = new ArrayList<>();
+            for (String dbName : mongoClient.listDatabaseNames())
+            {
+                if (pattern.matcher(dbName).matches())
+                    dbNames.add(dbName);
+            }
+            return dbNames;
+        };
+        return this;
+    }
+
+
+    /**
+     * @param concurrency count of databases migrated at the same time, default is {@link #DEFAULT_CONCURRENCY}
+     */
+    public MultiTenantMongoMigration setConcurrency(int concurrency)
+    {
+        if (concurrency < 1)
+            throw new IllegalArgumentException("Concurrency should be positive: " + concurrency);
+        this.concurrency = concurrency;
+        return this;
+    }
+
+
+    /**
+     * @param tenantConfigurer callback which configures {@link MongoMigration} of a tenant database before it is
+     * executed, e.g. sets custom variables, listeners or collection names
+     */
+    public MultiTenantMongoMigration setTenantConfigurer(BiConsumer<String, MongoMigration> tenantConfigurer)
+    {
+        this.tenantConfigurer = tenantConfigurer;
+        return this;
+    }
+
+
+    private MigrationReport executeTenant(String dbName, List<MigrationInfo> migrations) throws MigrationException
+    {
+        MongoMigration migration = new MongoMigration(mongoClient)
+                .setDbName(dbName)
+                .setMigrationScanPackage(migrationScanPackage);
+        migration.setMigrationNamePrefix(migrationPrefix);
+        tenantConfigurer.accept(dbName, migration);
+        return migration.execute(migrations);
+    }
+
+
+    private void validateConfig() throws MigrationConfigurationException
+    {
+        if (!hasText(migrationScanPackage))
+            throw new MigrationConfigurationException("Scan package for migrations is not set: use appropriate setter");
+        if (databaseNames == null)
+            throw new MigrationConfigurationException("Tenant databases are not set: use appropriate setter");
+    }
+}
@@ -2,38 +2,108 @@ package com.github.migmong.dao;
 
 import static org.springframework.util.StringUtils.hasText;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 import org.bson.Document;
+import org.bson.conversions.Bson;
 
 import com.github.migmong.exception.MigrationConfigurationException;
 import com.github.migmong.exception.MigrationConnectionException;
 import com.github.migmong.exception.MigrationLockException;
+import com.github.migmong.migration.AppliedMigrationUnits;
 import com.github.migmong.migration.MigrationEntry;
+import com.github.migmong.migration.UnitsDigest;
+import com.github.migmong.migration.data.BulkLoadScope;
+import com.github.migmong.migration.data.CheckpointStore;
+import com.github.migmong.migration.data.MigrationCheckpoint;
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoBulkWriteException;
 import com.mongodb.MongoClient;
+import com.mongodb.MongoClientOptions;
 import com.mongodb.MongoClientURI;
+import com.mongodb.MongoWriteException;
+import com.mongodb.WriteConcern;
+import com.mongodb.client.FindIterable;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Accumulators;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.UpdateManyModel;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
+import com.mongodb.client.model.Updates;
+import com.mongodb.event.CommandListener;
 
 import lombok.extern.slf4j.Slf4j;
 
 /**
+ * Migration log. Besides applied migration units the log keeps checkpoints of units in progress, marked with
+ * {@link MigrationEntry#STATE_IN_PROGRESS} state, which are replaced by entries when the units are applied.
+ * Entries of old versions can be compacted into one summary document with ranges of applied ids, the raw entries are
+ * moved to an archive collection. Reads of applied units treat the summary and the entries as one log.
+ *
  * @author lstolowski
  * @since 27/07/2014
  */
 @Slf4j
-public class ChangeEntryDao
+public class ChangeEntryDao implements CheckpointStore
 {
+    public static final String DEFAULT_MANIFEST_COLLECTION_NAME = "migrationManifest";
+    public static final String DEFAULT_EVENTS_COLLECTION_NAME = "migrationEvents";
+
+    private static final long INITIAL_LOCK_BACKOFF_MILLIS = 250;
+    private static final String UNITS_COUNT = "count";
+    private static final String UNITS_HASH_SUM = "hashSum";
+    private static final String HASHED_COUNT = "hashed";
+    private static final int BACKFILL_BATCH_SIZE = 1000;
+    private static final String SUMMARY_ID = "migrationLogSummary";
+    private static final String COMPACTED_VERSION = "compactedVersion";
+    private static final String COMPACTED_UNITS = "compactedUnits";
+    private static final String ARCHIVE_SUFFIX = "Archive";
+    private static final String DEFERRED_COLLECTION = "collection";
+    private static final String DEFERRED_INDEX_SPECS = "indexes";
+
     private MongoDatabase mongoDatabase;
     private MongoClient mongoClient;
+    private CommandListener commandListener;
     private ChangeEntryIndexDao indexDao;
     private String migrationCollectionName;
+    private String archiveCollectionName;
     private boolean waitForLock;
     private long migrationLockWaitTime;
     private long migrationLockPollRate;
     private boolean throwExceptionIfCannotObtainLock;
 
+    private int migrationLogBatchSize = 1;
+    private WriteConcern migrationLogWriteConcern;
+    private final List<MigrationEntry> pendingMigrationEntries = new ArrayList<>();
+    private final CheckpointStore deferredIndexStore = new DeferredIndexStore();
+
     private LockDao lockDao;
+    private ScheduledExecutorService lockHeartbeat;
+    private volatile boolean processLockLost;
+    private ManifestDao manifestDao = new ManifestDao(DEFAULT_MANIFEST_COLLECTION_NAME);
+    private EventDao eventDao = new EventDao(DEFAULT_EVENTS_COLLECTION_NAME);
+    private String migrationFingerprint;
 
 
     public ChangeEntryDao(String migrationCollectionName, String lockCollectionName, boolean waitForLock,
@@ -50,7 +120,11 @@ public class ChangeEntryDao
 
 
     /**
-     * Try to acquire process lock
+     * Try to acquire process lock. While waiting for the lock, it is polled with exponential backoff and jitter
+     * up to the poll rate, and the waiter is woken up by lock release events. The acquired lease is renewed by
+     * a background heartbeat until the lock is released.
+     * <p>If another process reports completion of migrations with the fingerprint set by
+     * {@link #setMigrationFingerprint(String)}, waiting is stopped and false is returned without an exception.</p>
      *
      * @return true if successfully acquired, false otherwise
      * @throws MigrationConnectionException exception
@@ -59,35 +133,55 @@ public class ChangeEntryDao
     public boolean acquireProcessLock() throws MigrationConnectionException, MigrationLockException
     {
         verifyDbConnection();
+        long lastEventId = waitForLock ? eventDao.getLatestEventId(getMongoDatabase()) : 0;
         boolean acquired = lockDao.acquireLock(getMongoDatabase());
+        boolean completedByAnotherProcess = false;
 
         if (!acquired && waitForLock)
         {
             long timeToGiveUp = new Date().getTime() + (migrationLockWaitTime * 1000 * 60);
+            long backoff = INITIAL_LOCK_BACKOFF_MILLIS;
+            // Every retry, the first one too, is preceded by a wait, so waiting replicas do not poll back to back
             while (!acquired && new Date().getTime() < timeToGiveUp)
             {
-                acquired = lockDao.acquireLock(getMongoDatabase());
-                if (!acquired)
+                // Jitter spreads polls of replicas which started waiting at the same time
+                long sleep = backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+                long maxBackoff = Math.max(INITIAL_LOCK_BACKOFF_MILLIS, migrationLockPollRate * 1000);
+                backoff = Math.min(backoff * 2, maxBackoff);
+                log.info("Waiting for migration lock....");
+                try
                 {
-                    log.info("Waiting for migration lock....");
-                    try
+                    Document event = eventDao.awaitEvent(getMongoDatabase(), lastEventId,
+                            Math.min(sleep, Math.max(0, timeToGiveUp - new Date().getTime())));
+                    if (event != null)
                     {
-                        Thread.sleep(migrationLockPollRate * 1000);
-                    }
-                    catch (InterruptedException e)
-                    {
-                        // nothing
+                        lastEventId = ((Number)event.get("_id")).longValue();
+                        if (eventDao.isMigrationCompleted(event, migrationCollectionName, migrationFingerprint))
+                        {
+                            log.info("Migrations have been completed by another process.");
+                            completedByAnotherProcess = true;
+                            break;
+                        }
                     }
                 }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                acquired = lockDao.acquireLock(getMongoDatabase());
             }
         }
 
-        if (!acquired && throwExceptionIfCannotObtainLock)
+        if (!acquired && !completedByAnotherProcess && throwExceptionIfCannotObtainLock)
         {
             log.info("MongoMigration did not acquire process lock. Throwing exception.");
             throw new MigrationLockException("Could not acquire process lock");
         }
 
+        if (acquired)
+            startLockHeartbeat();
+
         return acquired;
     }
 
@@ -105,8 +199,6 @@ public class ChangeEntryDao
 
         this.mongoClient = mongo;
         mongoDatabase = mongo.getDatabase(dbName);
-        indexDao.createRequiredUniqueIndex(mongoDatabase.getCollection(migrationCollectionName));
-        initializeLock();
         return mongoDatabase;
     }
 
@@ -115,13 +207,25 @@ public class ChangeEntryDao
             throws MigrationConfigurationException
     {
 
-        final MongoClient mongoClient = new MongoClient(mongoClientURI);
+        final MongoClient mongoClient = commandListener != null
+                ? new MongoClient(new MongoClientURI(mongoClientURI.getURI(),
+                        MongoClientOptions.builder(mongoClientURI.getOptions()).addCommandListener(commandListener)))
+                : new MongoClient(mongoClientURI);
         final String database = (!hasText(dbName)) ? mongoClientURI.getDatabase() : dbName;
 
         return this.connectMongoDb(mongoClient, database);
     }
 
 
+    /**
+     * @param commandListener listener added to the client created by {@link #connectMongoDb(MongoClientURI, String)}
+     */
+    public void setCommandListener(CommandListener commandListener)
+    {
+        this.commandListener = commandListener;
+    }
+
+
     public long getMigrationLockPollRate()
     {
         return migrationLockPollRate;
@@ -140,14 +244,389 @@ public class ChangeEntryDao
     }
 
 
+    public MongoClient getMongoClient()
+    {
+        return mongoClient;
+    }
+
+
+    /**
+     * Reads the whole migration log with one query
+     * @return index of applied migration units
+     * @throws MigrationConnectionException exception
+     */
+    public AppliedMigrationUnits fetchAppliedMigrationUnits() throws MigrationConnectionException
+    {
+        AppliedMigrationUnits appliedMigrationUnits = fetchAppliedMigrationUnits(
+                Filters.nin(MigrationEntry.STATE, MigrationEntry.STATE_IN_PROGRESS, MigrationEntry.STATE_COMPACTED));
+        appliedMigrationUnits.addAll(fetchCompactedMigrationUnits());
+        return appliedMigrationUnits;
+    }
+
+
+    /**
+     * Reads the summary of compacted entries with one read
+     * @return index of compacted migration units, empty if the log has not been compacted
+     * @throws MigrationConnectionException exception
+     */
+    public AppliedMigrationUnits fetchCompactedMigrationUnits() throws MigrationConnectionException
+    {
+        verifyDbConnection();
+
+        Document summary = getMongoDatabase().getCollection(migrationCollectionName)
+                .find(Filters.eq("_id", SUMMARY_ID))
+                .first();
+        return summary != null ? decodeCompactedUnits(summary.get(COMPACTED_UNITS, Document.class))
+                : new AppliedMigrationUnits();
+    }
+
+
+    /**
+     * Folds applied entries of versions up to the given one into the summary document. Entries are copied to the
+     * archive collection before the summary is updated and deleted after it, so an interrupted compaction loses no
+     * entries and is completed by the next one.
+     * @param upToVersion encoded version, entries of this and older versions are compacted
+     * @return count of compacted entries
+     * @throws MigrationConnectionException exception
+     */
+    public int compactMigrationLog(String upToVersion) throws MigrationConnectionException
+    {
+        verifyDbConnection();
+
+        MongoCollection<Document> migrationCollection = getMigrationCollection();
+        List<Document> entries = migrationCollection.find(Filters.and(
+                Filters.lte(MigrationEntry.VERSION, upToVersion),
+                Filters.nin(MigrationEntry.STATE, MigrationEntry.STATE_IN_PROGRESS, MigrationEntry.STATE_COMPACTED)))
+                .into(new ArrayList<>());
+        if (entries.isEmpty())
+            return 0;
+
+        List<ReplaceOneModel<Document>> archived = entries.stream()
+                .map(entry -> new ReplaceOneModel<>(Filters.eq("_id", entry.get("_id")), entry,
+                        new ReplaceOptions().upsert(true)))
+                .collect(Collectors.toList());
+        getMongoDatabase().getCollection(getArchiveCollectionName())
+                .bulkWrite(archived, new BulkWriteOptions().ordered(false));
+
+        Document summary = migrationCollection.find(Filters.eq("_id", SUMMARY_ID)).first();
+        AppliedMigrationUnits compactedUnits = summary != null
+                ? decodeCompactedUnits(summary.get(COMPACTED_UNITS, Document.class))
+                : new AppliedMigrationUnits();
+        String compactedVersion = summary != null ? summary.getString(COMPACTED_VERSION) : null;
+        for (Document entry : entries)
+        {
+            compactedUnits.add(entry.getString(MigrationEntry.MIGRATION_CLASS),
+                    entry.getInteger(MigrationEntry.CHANGE_ID));
+        }
+        if (compactedVersion == null || compactedVersion.compareTo(upToVersion) < 0)
+            compactedVersion = upToVersion;
+
+        migrationCollection.replaceOne(Filters.eq("_id", SUMMARY_ID), new Document("_id", SUMMARY_ID)
+                        .append(MigrationEntry.STATE, MigrationEntry.STATE_COMPACTED)
+                        .append(MigrationEntry.TIMESTAMP, new Date())
+                        .append(COMPACTED_VERSION, compactedVersion)
+                        .append(COMPACTED_UNITS, encodeCompactedUnits(compactedUnits)),
+                new ReplaceOptions().upsert(true));
+
+        migrationCollection.deleteMany(Filters.in("_id",
+                entries.stream().map(entry -> entry.get("_id")).collect(Collectors.toList())));
+        log.info("{} entries of migration log up to version {} have been compacted", entries.size(), upToVersion);
+        return entries.size();
+    }
+
+
+    /**
+     * Reads applied migration units of the listed versions
+     * @param versions encoded versions
+     * @return index of applied migration units
+     * @throws MigrationConnectionException exception
+     */
+    public AppliedMigrationUnits fetchAppliedMigrationUnits(Collection<String> versions)
+            throws MigrationConnectionException
+    {
+        return fetchAppliedMigrationUnits(Filters.and(Filters.in(MigrationEntry.VERSION, versions),
+                Filters.ne(MigrationEntry.STATE, MigrationEntry.STATE_IN_PROGRESS)));
+    }
+
+
+    /**
+     * Finds the highest version in the migration log with one read of the version index
+     * @return encoded version or null if no entry has a version
+     * @throws MigrationConnectionException exception
+     */
+    public String fetchHighestAppliedVersion() throws MigrationConnectionException
+    {
+        verifyDbConnection();
+
+        // Checkpoints of units in progress have no version, so they are not taken into account
+        Document entry = getMongoDatabase().getCollection(migrationCollectionName)
+                .find(Filters.exists(MigrationEntry.VERSION))
+                .sort(Sorts.descending(MigrationEntry.VERSION))
+                .projection(Projections.fields(Projections.include(MigrationEntry.VERSION), Projections.excludeId()))
+                .first();
+
+        return entry != null ? entry.getString(MigrationEntry.VERSION) : null;
+    }
+
+
+    /**
+     * Computes digests of applied migration units of every version on the server, so only a few numbers per version
+     * are read. Entries written by older versions of migmong have no version or hash, they are backfilled once and
+     * the digests are computed again.
+     * @param versions encoded versions by simple names of migration classes
+     * @return digests by encoded version
+     * @throws MigrationConnectionException exception
+     */
+    public Map<String, UnitsDigest> fetchUnitsDigestsByVersion(Map<String, String> versions)
+            throws MigrationConnectionException
+    {
+        verifyDbConnection();
+
+        Map<String, UnitsDigest> digests = new HashMap<>();
+        if (aggregateUnitsDigests(digests))
+        {
+            backfillMigrationLog(versions);
+            digests.clear();
+            aggregateUnitsDigests(digests);
+        }
+        return digests;
+    }
+
+
+    /**
+     * @return true if some entries have no hash
+     */
+    private boolean aggregateUnitsDigests(Map<String, UnitsDigest> digests)
+    {
+        boolean unhashed = false;
+        Document hashOrMissing = new Document("$ifNull", Arrays.asList("$" + MigrationEntry.UNIT_HASH, -1));
+        for (Document version : getMigrationCollection().aggregate(Arrays.asList(
+                Aggregates.match(Filters.and(Filters.exists(MigrationEntry.MIGRATION_CLASS),
+                        Filters.nin(MigrationEntry.STATE, MigrationEntry.STATE_IN_PROGRESS,
+                                MigrationEntry.STATE_COMPACTED))),
+                Aggregates.group("$" + MigrationEntry.VERSION,
+                        Accumulators.sum(UNITS_COUNT, 1),
+                        Accumulators.sum(UNITS_HASH_SUM, "$" + MigrationEntry.UNIT_HASH),
+                        // Hashes are not negative, so -1 stands for a missing hash
+                        Accumulators.sum(HASHED_COUNT, new Document("$cond", Arrays.asList(
+                                new Document("$eq", Arrays.asList(hashOrMissing, -1)), 0, 1)))))))
+        {
+            long count = ((Number)version.get(UNITS_COUNT)).longValue();
+            String encodedVersion = version.getString("_id");
+            unhashed |= ((Number)version.get(HASHED_COUNT)).longValue() < count;
+            // Entries of migrations which are not declared anymore may have no version
+            if (encodedVersion != null)
+                digests.put(encodedVersion, new UnitsDigest(count, ((Number)version.get(UNITS_HASH_SUM)).longValue()));
+        }
+        return unhashed;
+    }
+
+
+    /**
+     * Sets versions and hashes of entries written before they were kept in the migration log
+     * @param versions encoded versions by simple names of migration classes
+     * @throws MigrationConnectionException exception
+     */
+    public void backfillMigrationLog(Map<String, String> versions) throws MigrationConnectionException
+    {
+        verifyDbConnection();
+
+        MongoCollection<Document> migrationCollection = getMigrationCollection();
+        Bson applied = Filters.and(Filters.exists(MigrationEntry.MIGRATION_CLASS),
+                Filters.nin(MigrationEntry.STATE, MigrationEntry.STATE_IN_PROGRESS, MigrationEntry.STATE_COMPACTED));
+        Bson withoutVersion = Filters.and(applied, Filters.exists(MigrationEntry.VERSION, false));
+        List<WriteModel<Document>> updates = new ArrayList<>();
+        for (Map.Entry<String, String> version : versions.entrySet())
+        {
+            updates.add(new UpdateManyModel<>(
+                    Filters.and(withoutVersion, Filters.eq(MigrationEntry.MIGRATION_CLASS, version.getKey())),
+                    Updates.set(MigrationEntry.VERSION, version.getValue())));
+        }
+        long modified = updates.isEmpty() ? 0 : migrationCollection.bulkWrite(updates,
+                new BulkWriteOptions().ordered(false)).getModifiedCount();
+
+        updates.clear();
+        for (Document entry : migrationCollection.find(Filters.and(applied,
+                Filters.exists(MigrationEntry.UNIT_HASH, false)))
+                .projection(Projections.include(MigrationEntry.MIGRATION_CLASS, MigrationEntry.CHANGE_ID)))
+        {
+            updates.add(new UpdateOneModel<>(Filters.eq("_id", entry.get("_id")), Updates.set(MigrationEntry.UNIT_HASH,
+                    UnitsDigest.hash(entry.getString(MigrationEntry.MIGRATION_CLASS),
+                            entry.getInteger(MigrationEntry.CHANGE_ID)))));
+            if (updates.size() == BACKFILL_BATCH_SIZE)
+            {
+                modified += migrationCollection.bulkWrite(updates, new BulkWriteOptions().ordered(false))
+                        .getModifiedCount();
+                updates.clear();
+            }
+        }
+        if (!updates.isEmpty())
+            modified += migrationCollection.bulkWrite(updates, new BulkWriteOptions().ordered(false))
+                    .getModifiedCount();
+        log.info("{} migration log entries have been backfilled", modified);
+    }
+
+
+    private AppliedMigrationUnits fetchAppliedMigrationUnits(Bson filter) throws MigrationConnectionException
+    {
+        verifyDbConnection();
+
+        MongoCollection<Document> migrationCollection = getMongoDatabase().getCollection(migrationCollectionName);
+        AppliedMigrationUnits appliedMigrationUnits = new AppliedMigrationUnits();
+        FindIterable<Document> entries = migrationCollection.find(filter)
+                .projection(Projections.fields(
+                        Projections.include(MigrationEntry.CHANGE_ID, MigrationEntry.MIGRATION_CLASS),
+                        Projections.excludeId()));
+
+        for (Document entry : entries)
+        {
+            Integer changeId = entry.getInteger(MigrationEntry.CHANGE_ID);
+            if (changeId != null)
+                appliedMigrationUnits.add(entry.getString(MigrationEntry.MIGRATION_CLASS), changeId);
+        }
+
+        return appliedMigrationUnits;
+    }
+
+
+    /**
+     * Creates indexes of migration log and lock collections. Should be called before acquiring process lock.
+     * @throws MigrationConnectionException exception
+     */
+    public void initializeCollections() throws MigrationConnectionException
+    {
+        verifyDbConnection();
+        indexDao.createRequiredUniqueIndex(mongoDatabase.getCollection(migrationCollectionName));
+        indexDao.createVersionIndex(mongoDatabase.getCollection(migrationCollectionName));
+        initializeLock();
+        eventDao.initializeEvents(mongoDatabase);
+    }
+
+
+    /**
+     * Checks with one read whether all migration units with the fingerprint have been already applied
+     * @param fingerprint fingerprint of all known migration units
+     * @return true if the migration log is up to date
+     * @throws MigrationConnectionException exception
+     */
+    public boolean isMigrationManifestCurrent(String fingerprint) throws MigrationConnectionException
+    {
+        verifyDbConnection();
+        return manifestDao.isCurrent(getMongoDatabase(), migrationCollectionName, fingerprint);
+    }
+
+
     public boolean isNewMigrationUnit(MigrationEntry migrationEntry) throws MigrationConnectionException
     {
         verifyDbConnection();
 
         MongoCollection<Document> migrationCollection = getMongoDatabase().getCollection(migrationCollectionName);
-        Document entry = migrationCollection.find(migrationEntry.buildSearchQueryDBObject()).first();
+        Document entry = migrationCollection.find(Filters.and(migrationEntry.buildSearchQueryDBObject(),
+                Filters.ne(MigrationEntry.STATE, MigrationEntry.STATE_IN_PROGRESS))).first();
 
-        return entry == null;
+        return entry == null && !fetchCompactedMigrationUnits().contains(migrationEntry);
+    }
+
+
+    @Override
+    public MigrationCheckpoint loadCheckpoint(MigrationEntry migrationEntry, String partition)
+            throws MigrationConnectionException
+    {
+        Document entry = findInProgressEntry(migrationEntry);
+        Document checkpoint = entry != null
+                ? entry.getEmbedded(Arrays.asList(getCheckpointField(partition).split("\\.")), Document.class)
+                : null;
+
+        return checkpoint != null ? MigrationCheckpoint.from(checkpoint) : null;
+    }
+
+
+    /**
+     * Saves checkpoint of the migration unit in progress right away, it is not buffered like applied entries
+     */
+    @Override
+    public void saveCheckpoint(MigrationEntry migrationEntry, String partition, MigrationCheckpoint checkpoint)
+            throws MigrationConnectionException
+    {
+        updateInProgressEntry(migrationEntry, Updates.set(getCheckpointField(partition),
+                checkpoint.buildFullDBObject()));
+    }
+
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<Object> loadSplitPoints(MigrationEntry migrationEntry) throws MigrationConnectionException
+    {
+        Document entry = findInProgressEntry(migrationEntry);
+        return entry != null ? (List<Object>)entry.get(MigrationEntry.SPLIT_POINTS, List.class) : null;
+    }
+
+
+    @Override
+    public void saveSplitPoints(MigrationEntry migrationEntry, List<Object> splitPoints)
+            throws MigrationConnectionException
+    {
+        updateInProgressEntry(migrationEntry, Updates.set(MigrationEntry.SPLIT_POINTS, splitPoints));
+    }
+
+
+    @Override
+    public List<Document> loadDeferredIndexes(MigrationEntry migrationEntry, String collectionName)
+            throws MigrationConnectionException
+    {
+        return findDeferredIndexes(findInProgressEntry(migrationEntry), collectionName);
+    }
+
+
+    @Override
+    public void saveDeferredIndexes(MigrationEntry migrationEntry, String collectionName, List<Document> indexes)
+            throws MigrationConnectionException
+    {
+        updateInProgressEntry(migrationEntry,
+                updateDeferredIndexes(findInProgressEntry(migrationEntry), collectionName, indexes));
+    }
+
+
+    /**
+     * Storage for units which have been applied before and are executed again, like always runnable ones.
+     * Their progress is not saved, but specs of indexes dropped by {@link BulkLoadScope} are kept on the applied
+     * entry of the unit, so the indexes are rebuilt even if the process is killed.
+     * @return store which saves only deferred indexes
+     */
+    public CheckpointStore getDeferredIndexStore()
+    {
+        return deferredIndexStore;
+    }
+
+
+    /**
+     * Rebuilds indexes dropped by bulk loads of units which have been interrupted and not resumed, so no indexes
+     * stay dropped after the migration process. Entries of applied units are checked too, since always runnable
+     * units keep deferred indexes there.
+     * @return count of collections with rebuilt indexes
+     * @throws MigrationConnectionException exception
+     */
+    public int restoreDeferredIndexes() throws MigrationConnectionException
+    {
+        verifyDbConnection();
+
+        int collections = 0;
+        MongoCollection<Document> migrationCollection = getMigrationCollection();
+        for (Document entry : migrationCollection.find(Filters.exists(MigrationEntry.DEFERRED_INDEXES)))
+        {
+            for (Document deferred : entry.getList(MigrationEntry.DEFERRED_INDEXES, Document.class))
+            {
+                String collectionName = deferred.getString(DEFERRED_COLLECTION);
+                BulkLoadScope.rebuildIndexes(getMongoDatabase(), collectionName,
+                        deferred.getList(DEFERRED_INDEX_SPECS, Document.class));
+                log.warn("Indexes of {} dropped by interrupted {} are rebuilt", collectionName,
+                        entry.getString(MigrationEntry.MIGRATION_UNIT));
+                collections++;
+            }
+            migrationCollection.updateOne(Filters.eq("_id", entry.get("_id")),
+                    Updates.unset(MigrationEntry.DEFERRED_INDEXES));
+        }
+        return collections;
     }
 
 
@@ -173,16 +652,156 @@ public class ChangeEntryDao
     public void releaseProcessLock() throws MigrationConnectionException
     {
         verifyDbConnection();
+        stopLockHeartbeat();
         lockDao.releaseLock(getMongoDatabase());
+        publishEvent(EventDao.LOCK_RELEASED, null);
+    }
+
+
+    /**
+     * @return true if the lease of the acquired lock could not be renewed and the lock may be held by another process
+     */
+    public boolean isProcessLockLost()
+    {
+        return processLockLost;
     }
 
 
-    public void save(MigrationEntry migrationEntry) throws MigrationConnectionException
+    /**
+     * Checks the lock document, so a lease which has expired or has been taken over is detected before
+     * the heartbeat notices it
+     * @return true if the lock is still held by this process with the fencing token of its acquisition
+     * @throws MigrationConnectionException exception
+     */
+    public boolean isProcessLockOwned() throws MigrationConnectionException
     {
         verifyDbConnection();
+        return !processLockLost && lockDao.isLockOwned(getMongoDatabase());
+    }
+
 
-        MongoCollection<Document> migMong = getMongoDatabase().getCollection(migrationCollectionName);
-        migMong.insertOne(migrationEntry.buildFullDBObject());
+    /**
+     * @return fencing token of the acquired lock, it grows with every acquisition
+     */
+    public long getProcessLockFencingToken()
+    {
+        return lockDao.getFencingToken();
+    }
+
+
+    /**
+     * Saves the entry to the migration log. If batch size of the log is greater than one, the entry is buffered
+     * and written with the others by {@link #flush()} or when the batch is full. The entry replaces a checkpoint
+     * of the unit if there is one.
+     * @param migrationEntry applied migration unit
+     * @throws MigrationConnectionException exception
+     */
+    public synchronized void save(MigrationEntry migrationEntry) throws MigrationConnectionException
+    {
+        verifyDbConnection();
+
+        if (migrationLogBatchSize <= 1)
+        {
+            getMigrationCollection().replaceOne(migrationEntry.buildSearchQueryDBObject(),
+                    migrationEntry.buildFullDBObject(), new ReplaceOptions().upsert(true));
+            return;
+        }
+
+        pendingMigrationEntries.add(migrationEntry);
+        if (pendingMigrationEntries.size() >= migrationLogBatchSize)
+            flush();
+    }
+
+
+    /**
+     * Writes buffered entries to the migration log with one unordered bulk write.
+     * Entries replace checkpoints and entries which are already in the log.
+     * @throws MigrationConnectionException exception
+     */
+    public synchronized void flush() throws MigrationConnectionException
+    {
+        if (pendingMigrationEntries.isEmpty())
+            return;
+
+        verifyDbConnection();
+
+        List<ReplaceOneModel<Document>> replacements = pendingMigrationEntries.stream()
+                .map(entry -> new ReplaceOneModel<>(entry.buildSearchQueryDBObject(), entry.buildFullDBObject(),
+                        new ReplaceOptions().upsert(true)))
+                .collect(Collectors.toList());
+        try
+        {
+            getMigrationCollection().bulkWrite(replacements, new BulkWriteOptions().ordered(false));
+        }
+        catch (MongoBulkWriteException e)
+        {
+            boolean onlyDuplicates = e.getWriteErrors().stream()
+                    .allMatch(error -> ErrorCategory.fromErrorCode(error.getCode()) == ErrorCategory.DUPLICATE_KEY);
+            if (!onlyDuplicates || e.getWriteConcernError() != null)
+                throw e;
+
+            log.warn("{} migration entries have been already saved", e.getWriteErrors().size());
+        }
+        pendingMigrationEntries.clear();
+    }
+
+
+    /**
+     * Saves fingerprint of migration units which have been all applied
+     * @param fingerprint fingerprint of all known migration units
+     * @param units count of migration units
+     * @throws MigrationConnectionException exception
+     */
+    public void saveMigrationManifest(String fingerprint, int units) throws MigrationConnectionException
+    {
+        verifyDbConnection();
+        manifestDao.save(getMongoDatabase(), migrationCollectionName, fingerprint, units);
+        publishEvent(EventDao.MIGRATION_COMPLETED, fingerprint);
+    }
+
+
+    public void setEventsCollectionName(String eventsCollectionName)
+    {
+        this.eventDao.setEventsCollectionName(eventsCollectionName);
+    }
+
+
+    /**
+     * Sets fingerprint of migration units of this process. While waiting for the lock, completion of migrations
+     * with the same fingerprint by another process stops waiting.
+     * @param migrationFingerprint fingerprint of all known migration units or null if the process has to acquire
+     * the lock anyway
+     */
+    public void setMigrationFingerprint(String migrationFingerprint)
+    {
+        this.migrationFingerprint = migrationFingerprint;
+    }
+
+
+    public void setManifestCollectionName(String manifestCollectionName)
+    {
+        this.manifestDao.setManifestCollectionName(manifestCollectionName);
+    }
+
+
+    public void setMigrationLogBatchSize(int migrationLogBatchSize)
+    {
+        this.migrationLogBatchSize = migrationLogBatchSize;
+    }
+
+
+    public void setMigrationLogWriteConcern(WriteConcern migrationLogWriteConcern)
+    {
+        this.migrationLogWriteConcern = migrationLogWriteConcern;
+    }
+
+
+    /**
+     * @param lockLeaseMillis duration of the lock lease, it is renewed three times per lease
+     */
+    public void setLockLeaseTime(long lockLeaseMillis)
+    {
+        this.lockDao.setLeaseMillis(lockLeaseMillis);
     }
 
 
@@ -205,6 +824,16 @@ public class ChangeEntryDao
     }
 
 
+    /**
+     * @param archiveCollectionName collection of compacted entries, default is the migration collection name
+     * with 'Archive' suffix
+     */
+    public void setArchiveCollectionName(String archiveCollectionName)
+    {
+        this.archiveCollectionName = archiveCollectionName;
+    }
+
+
     public void setIndexDao(ChangeEntryIndexDao changeEntryIndexDao)
     {
         this.indexDao = changeEntryIndexDao;
@@ -236,6 +865,213 @@ public class ChangeEntryDao
     }
 
 
+    /* Visible for testing */
+    void setManifestDao(ManifestDao manifestDao)
+    {
+        this.manifestDao = manifestDao;
+    }
+
+
+    private MongoCollection<Document> getMigrationCollection()
+    {
+        MongoCollection<Document> migrationCollection = getMongoDatabase().getCollection(migrationCollectionName);
+        return migrationLogWriteConcern != null
+                ? migrationCollection.withWriteConcern(migrationLogWriteConcern)
+                : migrationCollection;
+    }
+
+
+    private static List<Document> findDeferredIndexes(Document entry, String collectionName)
+    {
+        if (entry == null)
+            return null;
+
+        for (Document deferred : entry.getList(MigrationEntry.DEFERRED_INDEXES, Document.class, new ArrayList<>()))
+        {
+            if (collectionName.equals(deferred.getString(DEFERRED_COLLECTION)))
+                return deferred.getList(DEFERRED_INDEX_SPECS, Document.class);
+        }
+        return null;
+    }
+
+
+    private static Bson updateDeferredIndexes(Document entry, String collectionName, List<Document> indexes)
+    {
+        List<Document> deferredIndexes = entry != null
+                ? entry.getList(MigrationEntry.DEFERRED_INDEXES, Document.class, new ArrayList<>())
+                : new ArrayList<>();
+        deferredIndexes.removeIf(deferred -> collectionName.equals(deferred.getString(DEFERRED_COLLECTION)));
+        if (indexes != null)
+        {
+            deferredIndexes.add(new Document(DEFERRED_COLLECTION, collectionName)
+                    .append(DEFERRED_INDEX_SPECS, indexes));
+        }
+
+        return deferredIndexes.isEmpty()
+                ? Updates.unset(MigrationEntry.DEFERRED_INDEXES)
+                : Updates.set(MigrationEntry.DEFERRED_INDEXES, deferredIndexes);
+    }
+
+
+    private Document findInProgressEntry(MigrationEntry migrationEntry) throws MigrationConnectionException
+    {
+        verifyDbConnection();
+
+        return getMongoDatabase().getCollection(migrationCollectionName)
+                .find(Filters.and(migrationEntry.buildSearchQueryDBObject(),
+                        Filters.eq(MigrationEntry.STATE, MigrationEntry.STATE_IN_PROGRESS)))
+                .first();
+    }
+
+
+    /**
+     * Upserts the entry of the unit in progress. Partitions of one unit save checkpoints concurrently, so the
+     * upsert which has lost the race for insertion is retried as an update.
+     */
+    private void updateInProgressEntry(MigrationEntry migrationEntry, Bson update)
+            throws MigrationConnectionException
+    {
+        verifyDbConnection();
+
+        Bson filter = Filters.and(migrationEntry.buildSearchQueryDBObject(),
+                Filters.eq(MigrationEntry.STATE, MigrationEntry.STATE_IN_PROGRESS));
+        Bson updates = Updates.combine(
+                Updates.set(MigrationEntry.TIMESTAMP, new Date()),
+                Updates.set(MigrationEntry.MIGRATION_UNIT, migrationEntry.getMigrationUnit()),
+                update);
+        try
+        {
+            getMigrationCollection().updateOne(filter, updates, new UpdateOptions().upsert(true));
+        }
+        catch (MongoWriteException e)
+        {
+            if (e.getError().getCategory() != ErrorCategory.DUPLICATE_KEY)
+                throw e;
+
+            getMigrationCollection().updateOne(filter, updates);
+        }
+    }
+
+
+    /**
+     * Ids of every migration class are kept as sorted ranges {@code [[first, last], ...]}
+     */
+    private static Document encodeCompactedUnits(AppliedMigrationUnits compactedUnits)
+    {
+        Document encoded = new Document();
+        for (String migrationClass : new TreeSet<>(compactedUnits.getMigrationClasses()))
+        {
+            List<List<Integer>> ranges = new ArrayList<>();
+            List<Integer> range = null;
+            for (Integer changeId : new TreeSet<>(compactedUnits.getChangeIds(migrationClass)))
+            {
+                if (range != null && range.get(1) + 1 == changeId)
+                {
+                    range.set(1, changeId);
+                    continue;
+                }
+                range = new ArrayList<>(Arrays.asList(changeId, changeId));
+                ranges.add(range);
+            }
+            encoded.append(migrationClass, ranges);
+        }
+        return encoded;
+    }
+
+
+    @SuppressWarnings("unchecked")
+    private static AppliedMigrationUnits decodeCompactedUnits(Document encoded)
+    {
+        AppliedMigrationUnits compactedUnits = new AppliedMigrationUnits();
+        if (encoded == null)
+            return compactedUnits;
+
+        for (Map.Entry<String, Object> migration : encoded.entrySet())
+        {
+            for (List<Integer> range : (List<List<Integer>>)migration.getValue())
+            {
+                for (int changeId = range.get(0); changeId <= range.get(1); changeId++)
+                    compactedUnits.add(migration.getKey(), changeId);
+            }
+        }
+        return compactedUnits;
+    }
+
+
+    private String getArchiveCollectionName()
+    {
+        return archiveCollectionName != null ? archiveCollectionName : migrationCollectionName + ARCHIVE_SUFFIX;
+    }
+
+
+    private String getCheckpointField(String partition)
+    {
+        return partition == null ? MigrationEntry.CHECKPOINT : MigrationEntry.PARTITION_CHECKPOINTS + "." + partition;
+    }
+
+
+    /**
+     * Events only shorten waiting of other processes, so a failure to publish one is not an error
+     */
+    private void publishEvent(String type, String fingerprint)
+    {
+        try
+        {
+            eventDao.publish(getMongoDatabase(), type, migrationCollectionName, fingerprint);
+        }
+        catch (RuntimeException e)
+        {
+            log.warn("Could not publish migration event {}: {}", type, e.getMessage());
+        }
+    }
+
+
+    private synchronized void startLockHeartbeat()
+    {
+        stopLockHeartbeat();
+        processLockLost = false;
+        if (lockDao.getLeaseMillis() <= 0)
+            return;
+
+        long period = Math.max(1, lockDao.getLeaseMillis() / 3);
+        lockHeartbeat = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "migmong-lock-heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+        lockHeartbeat.scheduleAtFixedRate(this::renewProcessLock, period, period, TimeUnit.MILLISECONDS);
+    }
+
+
+    private synchronized void stopLockHeartbeat()
+    {
+        if (lockHeartbeat != null)
+        {
+            lockHeartbeat.shutdownNow();
+            lockHeartbeat = null;
+        }
+    }
+
+
+    private void renewProcessLock()
+    {
+        try
+        {
+            if (!lockDao.renewLock(getMongoDatabase()))
+            {
+                log.error("Migration lock has been taken over by another process");
+                processLockLost = true;
+                stopLockHeartbeat();
+            }
+        }
+        catch (RuntimeException e)
+        {
+            // The lease is still valid until it expires, the next heartbeat retries
+            log.warn("Could not renew migration lock: {}", e.getMessage());
+        }
+    }
+
+
     private void initializeLock()
     {
         lockDao.initializeLock(mongoDatabase);
@@ -251,4 +1087,68 @@ public class ChangeEntryDao
         }
     }
 
+
+    /**
+     * Keeps deferred indexes on the applied entry of a unit, checkpoints are not saved
+     */
+    private class DeferredIndexStore implements CheckpointStore
+    {
+        @Override
+        public MigrationCheckpoint loadCheckpoint(MigrationEntry migrationEntry, String partition)
+        {
+            return null;
+        }
+
+
+        @Override
+        public void saveCheckpoint(MigrationEntry migrationEntry, String partition, MigrationCheckpoint checkpoint)
+        {
+        }
+
+
+        @Override
+        public List<Object> loadSplitPoints(MigrationEntry migrationEntry)
+        {
+            return null;
+        }
+
+
+        @Override
+        public void saveSplitPoints(MigrationEntry migrationEntry, List<Object> splitPoints)
+        {
+        }
+
+
+        @Override
+        public List<Document> loadDeferredIndexes(MigrationEntry migrationEntry, String collectionName)
+                throws MigrationConnectionException
+        {
+            return findDeferredIndexes(findAppliedEntry(migrationEntry), collectionName);
+        }
+
+
+        @Override
+        public void saveDeferredIndexes(MigrationEntry migrationEntry, String collectionName, List<Document> indexes)
+                throws MigrationConnectionException
+        {
+            getMigrationCollection().updateOne(appliedEntryFilter(migrationEntry),
+                    updateDeferredIndexes(findAppliedEntry(migrationEntry), collectionName, indexes));
+        }
+
+
+        private Document findAppliedEntry(MigrationEntry migrationEntry) throws MigrationConnectionException
+        {
+            verifyDbConnection();
+            return getMongoDatabase().getCollection(migrationCollectionName)
+                    .find(appliedEntryFilter(migrationEntry))
+                    .first();
+        }
+
+
+        private Bson appliedEntryFilter(MigrationEntry migrationEntry)
+        {
+            return Filters.and(migrationEntry.buildSearchQueryDBObject(),
+                    Filters.ne(MigrationEntry.STATE, MigrationEntry.STATE_IN_PROGRESS));
+        }
+    }
 }
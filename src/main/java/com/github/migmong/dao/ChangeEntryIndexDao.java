@@ -31,6 +31,15 @@ public class ChangeEntryIndexDao
     }
 
 
+    /**
+     * Creates index on encoded migration version, so the highest applied version is found with one index read
+     */
+    public void createVersionIndex(MongoCollection<Document> collection)
+    {
+        collection.createIndex(new Document(MigrationEntry.VERSION, 1));
+    }
+
+
     public void dropIndex(MongoCollection<Document> collection, Document index)
     {
         collection.dropIndex(index.get("name").toString());
@@ -0,0 +1,226 @@
+package com.github.migmong.dao;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import com.mongodb.CursorType;
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoCommandException;
+import com.mongodb.MongoException;
+import com.mongodb.MongoServerException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.CreateCollectionOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.ReturnDocument;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.Updates;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Capped collection of migration events, so processes waiting for the lock are woken up as soon as it is released.
+ * Waiters block on a tailable cursor or, if tailable cursors are not available, poll the collection often
+ * with a cheap query.
+ * <p>Events are identified by a sequence number incremented on the server, so they are ordered across processes
+ * regardless of client clocks. The sequence is kept in a separate collection, as documents of the capped collection
+ * are evicted.</p>
+ */
+@Slf4j
+public class EventDao
+{
+    public static final String LOCK_RELEASED = "LOCK_RELEASED";
+    public static final String MIGRATION_COMPLETED = "MIGRATION_COMPLETED";
+
+    private static final String ID = "_id";
+    private static final String TYPE = "type";
+    private static final String MIGRATION_COLLECTION = "migrationCollection";
+    private static final String FINGERPRINT = "fingerprint";
+    private static final String TIMESTAMP = "timestamp";
+    private static final String SEQUENCE = "sequence";
+    private static final String SEQUENCE_COLLECTION_SUFFIX = "Sequence";
+    private static final long CAPPED_SIZE_BYTES = 1024 * 1024;
+    private static final long CAPPED_MAX_DOCUMENTS = 1000;
+    private static final long MAX_AWAIT_MILLIS = 1000;
+    private static final long LONG_POLL_INTERVAL_MILLIS = 200;
+    private static final int NAMESPACE_EXISTS = 48;
+
+    private String eventsCollectionName;
+    private volatile boolean tailable = true;
+
+
+    public EventDao(String eventsCollectionName)
+    {
+        this.eventsCollectionName = eventsCollectionName;
+    }
+
+
+    /**
+     * Creates the capped events collection if it does not exist. If the server does not support capped collections,
+     * a regular collection is created on the first event and waiters poll it.
+     * @param db MongoDatabase object
+     */
+    public void initializeEvents(MongoDatabase db)
+    {
+        try
+        {
+            db.createCollection(eventsCollectionName, new CreateCollectionOptions()
+                    .capped(true)
+                    .sizeInBytes(CAPPED_SIZE_BYTES)
+                    .maxDocuments(CAPPED_MAX_DOCUMENTS));
+        }
+        catch (MongoCommandException e)
+        {
+            if (e.getErrorCode() != NAMESPACE_EXISTS)
+            {
+                log.info("Capped collection {} can not be created, events are polled: {}", eventsCollectionName,
+                        e.getErrorMessage());
+                tailable = false;
+            }
+        }
+    }
+
+
+    /**
+     * @param db MongoDatabase object
+     * @param type type of the event
+     * @param migrationCollectionName migration log which the event is related to
+     * @param fingerprint fingerprint of migration units or null
+     */
+    public void publish(MongoDatabase db, String type, String migrationCollectionName, String fingerprint)
+    {
+        Document event = new Document(ID, nextEventId(db))
+                .append(TYPE, type)
+                .append(MIGRATION_COLLECTION, migrationCollectionName)
+                .append(TIMESTAMP, new Date());
+        if (fingerprint != null)
+            event.append(FINGERPRINT, fingerprint);
+
+        db.getCollection(eventsCollectionName).insertOne(event);
+    }
+
+
+    /**
+     * @param db MongoDatabase object
+     * @return id of the latest event recorded by the server or 0 if there are no events
+     */
+    public long getLatestEventId(MongoDatabase db)
+    {
+        Document sequence = db.getCollection(getSequenceCollectionName())
+                .find(Filters.eq(ID, eventsCollectionName))
+                .first();
+        return sequence != null ? ((Number)sequence.get(SEQUENCE)).longValue() : 0;
+    }
+
+
+    /**
+     * Waits for an event newer than the given one
+     * @param db MongoDatabase object
+     * @param lastEventId id of the last seen event
+     * @param timeoutMillis maximum waiting time
+     * @return the next event or null if there were no events during the timeout
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public Document awaitEvent(MongoDatabase db, long lastEventId, long timeoutMillis) throws InterruptedException
+    {
+        MongoCollection<Document> events = db.getCollection(eventsCollectionName);
+        // Events published by older versions have object ids, numbers never match them
+        Bson filter = Filters.gt(ID, lastEventId);
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (true)
+        {
+            long start = System.currentTimeMillis();
+            long remaining = deadline - start;
+            Document event = tailable
+                    ? tail(events, filter, Math.max(1, Math.min(remaining, MAX_AWAIT_MILLIS)))
+                    : events.find(filter).sort(Sorts.ascending(ID)).first();
+            if (event != null)
+                return event;
+
+            remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0)
+                return null;
+
+            // An empty capped collection or a long-poll returns at once
+            long elapsed = System.currentTimeMillis() - start;
+            if (elapsed < LONG_POLL_INTERVAL_MILLIS)
+                Thread.sleep(Math.min(remaining, LONG_POLL_INTERVAL_MILLIS - elapsed));
+        }
+    }
+
+
+    /**
+     * @param event event returned by {@link #awaitEvent(MongoDatabase, long, long)}
+     * @param migrationCollectionName migration log
+     * @param fingerprint fingerprint of all known migration units
+     * @return true if the event reports that all migration units with the fingerprint have been applied
+     */
+    public boolean isMigrationCompleted(Document event, String migrationCollectionName, String fingerprint)
+    {
+        return MIGRATION_COMPLETED.equals(event.getString(TYPE)) &&
+                migrationCollectionName.equals(event.getString(MIGRATION_COLLECTION)) &&
+                fingerprint != null && fingerprint.equals(event.getString(FINGERPRINT));
+    }
+
+
+    public void setEventsCollectionName(String eventsCollectionName)
+    {
+        this.eventsCollectionName = eventsCollectionName;
+    }
+
+
+    private long nextEventId(MongoDatabase db)
+    {
+        Document sequence;
+        try
+        {
+            sequence = incrementSequence(db);
+        }
+        catch (MongoServerException e)
+        {
+            // Concurrent upserts of the first event may collide, the second attempt updates the inserted sequence
+            if (ErrorCategory.fromErrorCode(e.getCode()) != ErrorCategory.DUPLICATE_KEY)
+                throw e;
+            sequence = incrementSequence(db);
+        }
+        return ((Number)sequence.get(SEQUENCE)).longValue();
+    }
+
+
+    private Document incrementSequence(MongoDatabase db)
+    {
+        return db.getCollection(getSequenceCollectionName()).findOneAndUpdate(
+                Filters.eq(ID, eventsCollectionName),
+                Updates.inc(SEQUENCE, 1L),
+                new FindOneAndUpdateOptions().upsert(true).returnDocument(ReturnDocument.AFTER));
+    }
+
+
+    private String getSequenceCollectionName()
+    {
+        return eventsCollectionName + SEQUENCE_COLLECTION_SUFFIX;
+    }
+
+
+    private Document tail(MongoCollection<Document> events, Bson filter, long maxAwaitMillis)
+    {
+        try (MongoCursor<Document> cursor = events.find(filter)
+                .cursorType(CursorType.TailableAwait)
+                .maxAwaitTime(maxAwaitMillis, TimeUnit.MILLISECONDS)
+                .iterator())
+        {
+            return cursor.tryNext();
+        }
+        catch (MongoException e)
+        {
+            log.debug("Tailable cursors are not available, events are polled: {}", e.getMessage());
+            tailable = false;
+            return null;
+        }
+    }
+}
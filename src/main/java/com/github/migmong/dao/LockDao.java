@@ -1,52 +1,116 @@
 package com.github.migmong.dao;
 
+import java.util.Date;
+import java.util.UUID;
+
 import org.bson.Document;
 
 import com.mongodb.ErrorCategory;
-import com.mongodb.MongoWriteException;
+import com.mongodb.MongoServerException;
 import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
 import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.ReturnDocument;
+import com.mongodb.client.model.Updates;
 
-import lombok.AllArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 
 /**
+ * Lease lock. The lock document stores its owner, expiration time of the lease and a fencing token which is
+ * incremented on every acquisition. The owner should renew the lease before it expires, an expired lease can be
+ * taken over by another process.
+ * <p>Expiration time is set and checked with the clock of the process, not of the server, so clock skew between
+ * processes shortens or extends leases by the skew. Leases should be much longer than the expected skew.</p>
+ *
  * @author colsson11
  * @since 13.01.15
  */
 @Slf4j
-@AllArgsConstructor
 public class LockDao
 {
+    public static final long DEFAULT_LEASE_MILLIS = 60000;
+
     private static final String KEY_PROP_NAME = "key";
+    private static final String STATUS_PROP_NAME = "status";
+    private static final String OWNER_PROP_NAME = "owner";
+    private static final String EXPIRES_AT_PROP_NAME = "expiresAt";
+    private static final String FENCING_TOKEN_PROP_NAME = "fencingToken";
     private static final int INDEX_SORT_ASC = 1;
     private static final String LOCK_ENTRY_KEY_VAL = "LOCK";
+    private static final String LOCK_HELD = "LOCK_HELD";
+    private static final String LOCK_RELEASED = "LOCK_RELEASED";
 
     private String lockCollectionName;
+    private String owner = UUID.randomUUID().toString();
+    private long leaseMillis = DEFAULT_LEASE_MILLIS;
+    private volatile long fencingToken;
 
 
-    public boolean acquireLock(MongoDatabase db)
+    public LockDao(String lockCollectionName)
     {
-        Document insertObj = new Document(KEY_PROP_NAME, LOCK_ENTRY_KEY_VAL).append("status", "LOCK_HELD");
+        this.lockCollectionName = lockCollectionName;
+    }
+
 
-        // acquire lock by attempting to insert the same value in the collection - if it already exists (i.e. lock held)
-        // there will be an exception
+    /**
+     * Acquires the lock if it is free, released or its lease has expired. The lock is not reentrant.
+     * @param db MongoDatabase object
+     * @return true if the lock is acquired
+     */
+    public boolean acquireLock(MongoDatabase db)
+    {
+        Date now = new Date();
+        Document lock;
         try
         {
-            db.getCollection(lockCollectionName).insertOne(insertObj);
+            // The lock document is inserted if there is none, otherwise it is updated only if it is released
+            // or expired.
+            // If it is held by another owner, the upsert fails on the unique key.
+            lock = db.getCollection(lockCollectionName).findOneAndUpdate(
+                    Filters.and(Filters.eq(KEY_PROP_NAME, LOCK_ENTRY_KEY_VAL), Filters.lt(EXPIRES_AT_PROP_NAME, now)),
+                    Updates.combine(
+                            Updates.set(STATUS_PROP_NAME, LOCK_HELD),
+                            Updates.set(OWNER_PROP_NAME, owner),
+                            Updates.set(EXPIRES_AT_PROP_NAME, new Date(now.getTime() + leaseMillis)),
+                            Updates.inc(FENCING_TOKEN_PROP_NAME, 1L)),
+                    new FindOneAndUpdateOptions().upsert(true).returnDocument(ReturnDocument.AFTER));
         }
-        catch (MongoWriteException ex)
+        catch (MongoServerException ex)
         {
-            if (ex.getError().getCategory() == ErrorCategory.DUPLICATE_KEY)
+            if (ErrorCategory.fromErrorCode(ex.getCode()) == ErrorCategory.DUPLICATE_KEY)
             {
                 log.warn("Duplicate key exception while acquireLock. Probably the lock has been already acquired.");
+                stampLegacyLock(db, now);
+                return false;
             }
-            return false;
+            throw ex;
         }
+
+        fencingToken = ((Number)lock.get(FENCING_TOKEN_PROP_NAME)).longValue();
+        log.debug("Lock acquired by {} with fencing token {}", owner, fencingToken);
         return true;
     }
 
 
+    /**
+     * Extends the lease of the lock held by this owner
+     * @param db MongoDatabase object
+     * @return false if the lock has been taken over by another process
+     */
+    public boolean renewLock(MongoDatabase db)
+    {
+        long matched = db.getCollection(lockCollectionName).updateOne(
+                Filters.and(
+                        Filters.eq(KEY_PROP_NAME, LOCK_ENTRY_KEY_VAL),
+                        Filters.eq(OWNER_PROP_NAME, owner),
+                        Filters.eq(FENCING_TOKEN_PROP_NAME, fencingToken)),
+                Updates.set(EXPIRES_AT_PROP_NAME, new Date(System.currentTimeMillis() + leaseMillis)))
+                .getMatchedCount();
+        return matched > 0;
+    }
+
+
     public void initializeLock(MongoDatabase db)
     {
         createCollectionAndUniqueIndexIfNotExists(db);
@@ -57,18 +121,65 @@ public class LockDao
      * Check if the lock is held. Could be used by external process for example.
      *
      * @param db MongoDatabase object
-     * @return true if the lock is currently held
+     * @return true if the lock is currently held and its lease has not expired
      */
     public boolean isLockHeld(MongoDatabase db)
     {
-        return db.getCollection(lockCollectionName).countDocuments() == 1;
+        return db.getCollection(lockCollectionName).countDocuments(Filters.and(
+                Filters.eq(KEY_PROP_NAME, LOCK_ENTRY_KEY_VAL),
+                Filters.eq(STATUS_PROP_NAME, LOCK_HELD),
+                Filters.gt(EXPIRES_AT_PROP_NAME, new Date()))) == 1;
+    }
+
+
+    /**
+     * Checks that the lock is still held by this owner with the fencing token of its last acquisition
+     * @param db MongoDatabase object
+     * @return true if the lock has not been taken over and its lease has not expired
+     */
+    public boolean isLockOwned(MongoDatabase db)
+    {
+        return db.getCollection(lockCollectionName).countDocuments(Filters.and(
+                Filters.eq(KEY_PROP_NAME, LOCK_ENTRY_KEY_VAL),
+                Filters.eq(OWNER_PROP_NAME, owner),
+                Filters.eq(FENCING_TOKEN_PROP_NAME, fencingToken),
+                Filters.gt(EXPIRES_AT_PROP_NAME, new Date()))) == 1;
     }
 
 
+    /**
+     * Releases the lock held by this owner. The lock document is kept, so fencing tokens keep growing.
+     * @param db MongoDatabase object
+     */
     public void releaseLock(MongoDatabase db)
     {
-        // release lock by deleting collection entry
-        db.getCollection(lockCollectionName).deleteMany(new Document(KEY_PROP_NAME, LOCK_ENTRY_KEY_VAL));
+        db.getCollection(lockCollectionName).updateMany(
+                Filters.and(Filters.eq(KEY_PROP_NAME, LOCK_ENTRY_KEY_VAL), Filters.eq(OWNER_PROP_NAME, owner)),
+                Updates.combine(
+                        Updates.set(STATUS_PROP_NAME, LOCK_RELEASED),
+                        Updates.set(EXPIRES_AT_PROP_NAME, new Date(0)),
+                        Updates.unset(OWNER_PROP_NAME)));
+    }
+
+
+    /**
+     * @return fencing token of the last acquisition by this owner
+     */
+    public long getFencingToken()
+    {
+        return fencingToken;
+    }
+
+
+    public String getOwner()
+    {
+        return owner;
+    }
+
+
+    public long getLeaseMillis()
+    {
+        return leaseMillis;
     }
 
 
@@ -78,6 +189,18 @@ public class LockDao
     }
 
 
+    public void setOwner(String owner)
+    {
+        this.owner = owner;
+    }
+
+
+    public void setLeaseMillis(long leaseMillis)
+    {
+        this.leaseMillis = leaseMillis;
+    }
+
+
     private void createCollectionAndUniqueIndexIfNotExists(MongoDatabase db)
     {
         Document indexKeys = new Document(KEY_PROP_NAME, INDEX_SORT_ASC);
@@ -85,4 +208,19 @@ public class LockDao
 
         db.getCollection(lockCollectionName).createIndex(indexKeys, indexOptions);
     }
+
+
+    /**
+     * A lock held by an older version of migmong has no lease, so it would never expire if its owner has crashed.
+     * Its lease starts when it is first seen, so a live owner is not robbed of the lock right away.
+     */
+    private void stampLegacyLock(MongoDatabase db, Date now)
+    {
+        long stamped = db.getCollection(lockCollectionName).updateOne(
+                Filters.and(Filters.eq(KEY_PROP_NAME, LOCK_ENTRY_KEY_VAL), Filters.exists(EXPIRES_AT_PROP_NAME, false)),
+                Updates.set(EXPIRES_AT_PROP_NAME, new Date(now.getTime() + leaseMillis)))
+                .getModifiedCount();
+        if (stamped > 0)
+            log.info("Lock of an older version has got a lease of {} ms", leaseMillis);
+    }
 }
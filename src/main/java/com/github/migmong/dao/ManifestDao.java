@@ -0,0 +1,60 @@
+package com.github.migmong.dao;
+
+import java.util.Date;
+
+import org.bson.Document;
+
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.ReplaceOptions;
+
+import lombok.AllArgsConstructor;
+
+/**
+ * Stores fingerprint of migration units which have been completely applied to a migration log,
+ * so a startup without new migrations can be finished with one read
+ */
+@AllArgsConstructor
+public class ManifestDao
+{
+    private static final String ID = "_id";
+    private static final String FINGERPRINT = "fingerprint";
+    private static final String UNITS = "units";
+    private static final String TIMESTAMP = "timestamp";
+
+    private String manifestCollectionName;
+
+
+    /**
+     * @param db MongoDatabase object
+     * @param migrationCollectionName migration log which the manifest is related to
+     * @param fingerprint fingerprint of all known migration units
+     * @return true if all the migration units with the fingerprint have been applied
+     */
+    public boolean isCurrent(MongoDatabase db, String migrationCollectionName, String fingerprint)
+    {
+        Document manifest = db.getCollection(manifestCollectionName)
+                .find(Filters.eq(ID, migrationCollectionName))
+                .first();
+
+        return manifest != null && fingerprint.equals(manifest.getString(FINGERPRINT));
+    }
+
+
+    public void save(MongoDatabase db, String migrationCollectionName, String fingerprint, int units)
+    {
+        Document manifest = new Document(ID, migrationCollectionName)
+                .append(FINGERPRINT, fingerprint)
+                .append(UNITS, units)
+                .append(TIMESTAMP, new Date());
+
+        db.getCollection(manifestCollectionName)
+                .replaceOne(Filters.eq(ID, migrationCollectionName), manifest, new ReplaceOptions().upsert(true));
+    }
+
+
+    public void setManifestCollectionName(String manifestCollectionName)
+    {
+        this.manifestCollectionName = manifestCollectionName;
+    }
+}
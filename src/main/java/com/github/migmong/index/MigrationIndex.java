@@ -0,0 +1,209 @@
+package com.github.migmong.index;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import com.github.migmong.migration.MigrationUnitInfo;
+import com.github.migmong.migration.Version;
+import com.github.migmong.migration.annotations.Migration;
+
+import lombok.Data;
+
+/**
+ * Build-time index of {@link Migration} classes, written by {@link MigrationIndexProcessor}.
+ * <p>The index is a text resource with a header line containing the migration name prefix and one line per
+ * migration sorted by version:</p>
+ * <pre>
+ * prefix=V_
+ * 0.9    com.foo.migrations.V_0_9__anotherMigrations    1:testMigration1,3:testMigration3:always    users,orders
+ * </pre>
+ * <p>Columns are separated by tabulation. Every unit is described as {@code id:methodName}, units with
+ * {@code runAlways} flag are marked with {@code :always} suffix, background units with {@code :background}.
+ * The last column contains collections declared by {@link Migration#collections()}.</p>
+ */
+public final class MigrationIndex
+{
+    /**
+     * Location of index resource within a jar or a classes directory
+     */
+    public static final String LOCATION = "META-INF/migmong/migrations.index";
+
+    /**
+     * Annotation processor option with prefix of migration names. Default is 'V'.
+     */
+    public static final String PREFIX_OPTION = "migmong.prefix";
+
+    public static final String DEFAULT_PREFIX = "V";
+
+    private static final String PREFIX_HEADER = "prefix=";
+    private static final String COMMENT = "#";
+    private static final String COLUMN_DELIMITER = "\t";
+    private static final String UNITS_DELIMITER = ",";
+    private static final String UNIT_DELIMITER = ":";
+    private static final String RUN_ALWAYS = "always";
+    private static final String BACKGROUND = "background";
+
+
+    private MigrationIndex()
+    {
+    }
+
+
+    /**
+     * Reads all indexes available for the class loader which were built with the given prefix
+     * @param classLoader class loader to look up index resources
+     * @param prefix prefix of migration names
+     * @return index entries or null if there is no index built with the prefix
+     * @throws IOException if an index can not be read
+     */
+    public static List<Entry> load(ClassLoader classLoader, String prefix) throws IOException
+    {
+        List<Entry> entries = null;
+        Enumeration<URL> resources = classLoader.getResources(LOCATION);
+        while (resources.hasMoreElements())
+        {
+            try (InputStream input = resources.nextElement().openStream())
+            {
+                List<Entry> resourceEntries = read(input, prefix);
+                if (resourceEntries == null)
+                    continue;
+
+                if (entries == null)
+                    entries = new ArrayList<>();
+                entries.addAll(resourceEntries);
+            }
+        }
+        return entries;
+    }
+
+
+    /**
+     * Reads a single index
+     * @param input index content
+     * @param prefix prefix of migration names
+     * @return index entries or null if the index was built with another prefix
+     * @throws IOException if the index can not be read
+     */
+    public static List<Entry> read(InputStream input, String prefix) throws IOException
+    {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+        List<Entry> entries = new ArrayList<>();
+        String line;
+        while ((line = reader.readLine()) != null)
+        {
+            if (line.isBlank() || line.startsWith(COMMENT))
+                continue;
+
+            if (line.startsWith(PREFIX_HEADER))
+            {
+                if (!line.substring(PREFIX_HEADER.length()).equals(prefix))
+                    return null;
+                continue;
+            }
+
+            String[] columns = line.split(COLUMN_DELIMITER, -1);
+            if (columns.length != 4)
+                throw new IOException(String.format("Wrong migration index line (%s)", line));
+
+            entries.add(new Entry(Version.from(columns[0], "."), columns[1], parseUnits(columns[2]),
+                    parseCollections(columns[3])));
+        }
+        return entries;
+    }
+
+
+    /**
+     * Writes index
+     * @param writer index destination
+     * @param prefix prefix of migration names
+     * @param entries index entries sorted by version
+     * @throws IOException if the index can not be written
+     */
+    public static void write(Writer writer, String prefix, Collection<Entry> entries) throws IOException
+    {
+        writer.write(COMMENT + " Generated by migmong, do not edit\n");
+        writer.write(PREFIX_HEADER + prefix + "\n");
+        for (Entry entry : entries)
+        {
+            writer.write(entry.getVersion() + COLUMN_DELIMITER + entry.getClassName() + COLUMN_DELIMITER +
+                    formatUnits(entry.getMigrationUnits()) + COLUMN_DELIMITER +
+                    String.join(UNITS_DELIMITER, entry.getCollections()) + "\n");
+        }
+    }
+
+
+    private static String formatUnits(List<MigrationUnitInfo> migrationUnits)
+    {
+        return migrationUnits.stream()
+                .map(unit -> unit.getId() + UNIT_DELIMITER + unit.getMethodName() +
+                        (unit.isRunAlways() ? UNIT_DELIMITER + RUN_ALWAYS : "") +
+                        (unit.isBackground() ? UNIT_DELIMITER + BACKGROUND : ""))
+                .collect(Collectors.joining(UNITS_DELIMITER));
+    }
+
+
+    private static Set<String> parseCollections(String collections)
+    {
+        return collections.isEmpty()
+                ? Collections.emptySet()
+                : new LinkedHashSet<>(Arrays.asList(collections.split(UNITS_DELIMITER)));
+    }
+
+
+    private static List<MigrationUnitInfo> parseUnits(String units) throws IOException
+    {
+        List<MigrationUnitInfo> migrationUnits = new ArrayList<>();
+        if (units.isEmpty())
+            return migrationUnits;
+
+        for (String unit : units.split(UNITS_DELIMITER))
+        {
+            String[] parts = unit.split(UNIT_DELIMITER);
+            if (parts.length < 2)
+                throw new IOException(String.format("Wrong migration unit in index (%s)", unit));
+
+            List<String> flags = Arrays.asList(parts).subList(2, parts.length);
+            boolean runAlways = flags.contains(RUN_ALWAYS);
+            boolean background = flags.contains(BACKGROUND);
+            if (flags.size() != (runAlways ? 1 : 0) + (background ? 1 : 0))
+                throw new IOException(String.format("Wrong migration unit in index (%s)", unit));
+
+            migrationUnits.add(new MigrationUnitInfo(Integer.parseInt(parts[0]), parts[1], runAlways, background));
+        }
+        return migrationUnits;
+    }
+
+
+    /**
+     * Indexed migration
+     */
+    @Data
+    public static class Entry
+    {
+        private final Version version;
+        private final String className;
+        private final List<MigrationUnitInfo> migrationUnits;
+        private final Set<String> collections;
+
+
+        public String getPackageName()
+        {
+            int lastDot = className.lastIndexOf('.');
+            return lastDot < 0 ? "" : className.substring(0, lastDot);
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package com.github.migmong.index;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.FilerException;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.annotation.processing.SupportedOptions;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.TypeElement;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+
+import com.github.migmong.migration.MigrationInfo;
+import com.github.migmong.migration.MigrationUnitInfo;
+import com.github.migmong.migration.Version;
+import com.github.migmong.migration.annotations.Migration;
+import com.github.migmong.migration.annotations.MigrationUnit;
+
+/**
+ * Annotation processor which writes {@link MigrationIndex} of {@link Migration} classes at build time and
+ * rejects duplicated {@link MigrationUnit} ids and wrong migration versions.
+ * <p>Prefix of migration names can be set with {@code -Amigmong.prefix=V_} compiler argument.</p>
+ */
+@SupportedAnnotationTypes("com.github.migmong.migration.annotations.Migration")
+@SupportedOptions(MigrationIndex.PREFIX_OPTION)
+public class MigrationIndexProcessor extends AbstractProcessor
+{
+    private final Map<String, MigrationIndex.Entry> entries = new TreeMap<>();
+    private final Map<String, TypeElement> originatingElements = new HashMap<>();
+    private boolean previousIndexMerged;
+
+
+    @Override
+    public SourceVersion getSupportedSourceVersion()
+    {
+        return SourceVersion.latestSupported();
+    }
+
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv)
+    {
+        if (!previousIndexMerged)
+        {
+            mergePreviousIndex();
+            previousIndexMerged = true;
+        }
+
+        for (Element element : roundEnv.getElementsAnnotatedWith(Migration.class))
+        {
+            if (element.getKind() == ElementKind.CLASS)
+                index((TypeElement)element);
+        }
+
+        if (roundEnv.processingOver() && !entries.isEmpty())
+            writeIndex();
+
+        return false;
+    }
+
+
+    private String getPrefix()
+    {
+        return processingEnv.getOptions().getOrDefault(MigrationIndex.PREFIX_OPTION, MigrationIndex.DEFAULT_PREFIX);
+    }
+
+
+    private void index(TypeElement migration)
+    {
+        String className = processingEnv.getElementUtils().getBinaryName(migration).toString();
+        String simpleName = migration.getSimpleName().toString();
+        if (!simpleName.startsWith(getPrefix()))
+        {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING,
+                    String.format("Migration %s has no prefix '%s' and will be ignored", simpleName, getPrefix()),
+                    migration);
+            entries.remove(className);
+            return;
+        }
+
+        Version version;
+        try
+        {
+            version = MigrationInfo.parseVersion(simpleName, getPrefix());
+        }
+        catch (IllegalArgumentException e)
+        {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, e.getMessage(), migration);
+            return;
+        }
+
+        Map<Integer, MigrationUnitInfo> units = new TreeMap<>();
+        for (Element member : migration.getEnclosedElements())
+        {
+            MigrationUnit migrationUnit = member.getAnnotation(MigrationUnit.class);
+            if (member.getKind() != ElementKind.METHOD || migrationUnit == null)
+                continue;
+
+            MigrationUnitInfo unit = new MigrationUnitInfo(migrationUnit.id(),
+                    ((ExecutableElement)member).getSimpleName().toString(), migrationUnit.runAlways(),
+                    migrationUnit.background());
+            if (units.put(migrationUnit.id(), unit) != null)
+            {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                        String.format("Duplicated MigrationUnit id found: '%s'", migrationUnit.id()), member);
+                return;
+            }
+        }
+
+        Set<String> collections = new LinkedHashSet<>(
+                Arrays.asList(migration.getAnnotation(Migration.class).collections()));
+        entries.put(className,
+                new MigrationIndex.Entry(version, className, new ArrayList<>(units.values()), collections));
+        originatingElements.put(className, migration);
+    }
+
+
+    /**
+     * Takes migrations from the index of previous compilation, so incremental builds which recompile only some
+     * of migrations do not lose the rest of them
+     */
+    private void mergePreviousIndex()
+    {
+        List<MigrationIndex.Entry> previousEntries;
+        try
+        {
+            FileObject previousIndex = processingEnv.getFiler()
+                    .getResource(StandardLocation.CLASS_OUTPUT, "", MigrationIndex.LOCATION);
+            try (InputStream input = previousIndex.openInputStream())
+            {
+                previousEntries = MigrationIndex.read(input, getPrefix());
+            }
+        }
+        catch (IOException | IllegalArgumentException e)
+        {
+            return;
+        }
+
+        if (previousEntries == null)
+            return;
+
+        for (MigrationIndex.Entry entry : previousEntries)
+        {
+            TypeElement migration = processingEnv.getElementUtils()
+                    .getTypeElement(entry.getClassName().replace('$', '.'));
+            if (migration != null && migration.getAnnotation(Migration.class) != null)
+                index(migration);
+        }
+    }
+
+
+    private void writeIndex()
+    {
+        List<MigrationIndex.Entry> sortedEntries = new ArrayList<>(entries.values());
+        sortedEntries.sort(Comparator.comparing(MigrationIndex.Entry::getVersion, Version::compareTo)
+                .thenComparing(MigrationIndex.Entry::getClassName));
+
+        List<TypeElement> elements = sortedEntries.stream()
+                .map(entry -> originatingElements.get(entry.getClassName()))
+                .collect(Collectors.toList());
+
+        try
+        {
+            FileObject index = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "",
+                    MigrationIndex.LOCATION, elements.toArray(new Element[0]));
+            try (Writer writer = index.openWriter())
+            {
+                MigrationIndex.write(writer, getPrefix(), sortedEntries);
+            }
+        }
+        catch (FilerException e)
+        {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING,
+                    "Migration index has been already written: " + e.getMessage());
+        }
+        catch (IOException e)
+        {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                    "Could not write migration index: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.github.migmong.listener;
+
+import java.util.List;
+
+import com.github.migmong.migration.MigrationEntry;
+import com.github.migmong.migration.MigrationInfo;
+import com.github.migmong.migration.data.BulkWriteSummary;
+
+/**
+ * Publishes timers, counters and gauges of migrations to {@link MetricsRegistry}
+ */
+public class MetricsMigrationListener implements MigrationListener
+{
+    public static final String SCAN_DURATION = "migmong.scan.duration";
+    public static final String MIGRATIONS = "migmong.migrations";
+    public static final String LOCK_WAIT = "migmong.lock.wait";
+    public static final String LOCK_HELD = "migmong.lock.held";
+    public static final String UNITS_PENDING = "migmong.units.pending";
+    public static final String UNIT_DURATION = "migmong.unit.duration";
+    public static final String UNIT_DOCUMENTS = "migmong.unit.documents";
+    public static final String UNIT_FAILURES = "migmong.unit.failures";
+
+    public static final String TAG_RESULT = "result";
+    public static final String TAG_MIGRATION = "migration";
+    public static final String TAG_UNIT = "unit";
+    public static final String TAG_OPERATION = "operation";
+    public static final String TAG_EXCEPTION = "exception";
+
+    private final MetricsRegistry registry;
+
+
+    public MetricsMigrationListener(MetricsRegistry registry)
+    {
+        this.registry = registry;
+    }
+
+
+    @Override
+    public void onScanFinished(List<MigrationInfo> migrations, long durationMillis)
+    {
+        registry.recordTime(SCAN_DURATION, durationMillis);
+        registry.setGauge(MIGRATIONS, migrations.size());
+    }
+
+
+    @Override
+    public void onLockAcquired(long waitMillis)
+    {
+        registry.recordTime(LOCK_WAIT, waitMillis, TAG_RESULT, "acquired");
+    }
+
+
+    @Override
+    public void onLockNotAcquired(long waitMillis)
+    {
+        registry.recordTime(LOCK_WAIT, waitMillis, TAG_RESULT, "not_acquired");
+    }
+
+
+    @Override
+    public void onLockReleased(long heldMillis)
+    {
+        registry.recordTime(LOCK_HELD, heldMillis);
+    }
+
+
+    @Override
+    public void onUnitsPending(int pendingUnits)
+    {
+        registry.setGauge(UNITS_PENDING, pendingUnits);
+    }
+
+
+    @Override
+    public void onUnitFinished(MigrationEntry migrationEntry, long durationMillis, BulkWriteSummary writeSummary)
+    {
+        registry.recordTime(UNIT_DURATION, durationMillis, unitTags(migrationEntry, TAG_RESULT, "applied"));
+        incrementDocuments(migrationEntry, "inserted", writeSummary.getInserted());
+        incrementDocuments(migrationEntry, "modified", writeSummary.getModified());
+        incrementDocuments(migrationEntry, "deleted", writeSummary.getDeleted());
+        incrementDocuments(migrationEntry, "upserted", writeSummary.getUpserted());
+    }
+
+
+    @Override
+    public void onUnitFailed(MigrationEntry migrationEntry, long durationMillis, Throwable cause)
+    {
+        registry.recordTime(UNIT_DURATION, durationMillis, unitTags(migrationEntry, TAG_RESULT, "failed"));
+        registry.incrementCounter(UNIT_FAILURES, 1,
+                unitTags(migrationEntry, TAG_EXCEPTION, cause.getClass().getSimpleName()));
+    }
+
+
+    private void incrementDocuments(MigrationEntry migrationEntry, String operation, int documents)
+    {
+        if (documents > 0)
+            registry.incrementCounter(UNIT_DOCUMENTS, documents, unitTags(migrationEntry, TAG_OPERATION, operation));
+    }
+
+
+    private String[] unitTags(MigrationEntry migrationEntry, String key, String value)
+    {
+        return new String[] { TAG_MIGRATION, migrationEntry.getMigrationClass(), TAG_UNIT,
+                migrationEntry.getMigrationUnit(), key, value };
+    }
+}
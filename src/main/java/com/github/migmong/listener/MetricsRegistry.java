@@ -0,0 +1,19 @@
+package com.github.migmong.listener;
+
+/**
+ * Destination of metrics published by {@link MetricsMigrationListener}, e.g. an adapter to Micrometer or Dropwizard.
+ * Tags are given as key-value pairs: {@code "migration", "V_1__init", "unit", "addUsers"}.
+ */
+public interface MetricsRegistry
+{
+    /**
+     * Records one sample of a timer. Registries usually keep timers as histograms.
+     */
+    void recordTime(String name, long durationMillis, String... tags);
+
+
+    void incrementCounter(String name, long amount, String... tags);
+
+
+    void setGauge(String name, double value, String... tags);
+}
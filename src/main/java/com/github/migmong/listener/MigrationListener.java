@@ -0,0 +1,99 @@
+package com.github.migmong.listener;
+
+import java.util.List;
+
+import com.github.migmong.MongoMigration;
+import com.github.migmong.migration.MigrationEntry;
+import com.github.migmong.migration.MigrationInfo;
+import com.github.migmong.migration.data.BulkWriteSummary;
+
+/**
+ * Callbacks of {@link MongoMigration} lifecycle. All methods do nothing by default.
+ * <p>Units of independent migrations may be executed concurrently, so implementations should be thread-safe.
+ * Exceptions thrown by listeners are logged and do not affect migrations.</p>
+ */
+public interface MigrationListener
+{
+    /**
+     * Called before migrations are looked up in the package
+     * @param migrationScanPackage package of migrations
+     */
+    default void onScanStarted(String migrationScanPackage)
+    {
+    }
+
+
+    /**
+     * @param migrations found migrations sorted by version
+     * @param durationMillis time spent to find migrations
+     */
+    default void onScanFinished(List<MigrationInfo> migrations, long durationMillis)
+    {
+    }
+
+
+    /**
+     * Called before the process lock is requested, the call may wait until the lock is released by another process
+     */
+    default void onLockWaitStarted()
+    {
+    }
+
+
+    /**
+     * @param waitMillis time spent to acquire the lock
+     */
+    default void onLockAcquired(long waitMillis)
+    {
+    }
+
+
+    /**
+     * @param waitMillis time spent waiting for the lock before giving up
+     */
+    default void onLockNotAcquired(long waitMillis)
+    {
+    }
+
+
+    /**
+     * @param heldMillis time the lock has been held
+     */
+    default void onLockReleased(long heldMillis)
+    {
+    }
+
+
+    /**
+     * Called when the migration log is read, before any unit is executed
+     * @param pendingUnits count of units to be executed, including always runnable ones
+     */
+    default void onUnitsPending(int pendingUnits)
+    {
+    }
+
+
+    default void onUnitStarted(MigrationEntry migrationEntry)
+    {
+    }
+
+
+    /**
+     * @param migrationEntry applied unit
+     * @param durationMillis execution time of the unit
+     * @param writeSummary documents written by bulk writers of the unit
+     */
+    default void onUnitFinished(MigrationEntry migrationEntry, long durationMillis, BulkWriteSummary writeSummary)
+    {
+    }
+
+
+    /**
+     * @param migrationEntry failed unit
+     * @param durationMillis time until the failure
+     * @param cause exception thrown by the unit
+     */
+    default void onUnitFailed(MigrationEntry migrationEntry, long durationMillis, Throwable cause)
+    {
+    }
+}
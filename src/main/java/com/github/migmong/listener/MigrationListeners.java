@@ -0,0 +1,119 @@
+package com.github.migmong.listener;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+import com.github.migmong.migration.MigrationEntry;
+import com.github.migmong.migration.MigrationInfo;
+import com.github.migmong.migration.data.BulkWriteSummary;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Notifies all registered listeners. An exception of one listener is logged and does not prevent others from
+ * being notified.
+ */
+@Slf4j
+public class MigrationListeners implements MigrationListener
+{
+    private final List<MigrationListener> listeners = new CopyOnWriteArrayList<>();
+
+
+    public void add(MigrationListener listener)
+    {
+        listeners.add(listener);
+    }
+
+
+    public void remove(MigrationListener listener)
+    {
+        listeners.remove(listener);
+    }
+
+
+    @Override
+    public void onScanStarted(String migrationScanPackage)
+    {
+        notifyListeners(listener -> listener.onScanStarted(migrationScanPackage));
+    }
+
+
+    @Override
+    public void onScanFinished(List<MigrationInfo> migrations, long durationMillis)
+    {
+        notifyListeners(listener -> listener.onScanFinished(migrations, durationMillis));
+    }
+
+
+    @Override
+    public void onLockWaitStarted()
+    {
+        notifyListeners(MigrationListener::onLockWaitStarted);
+    }
+
+
+    @Override
+    public void onLockAcquired(long waitMillis)
+    {
+        notifyListeners(listener -> listener.onLockAcquired(waitMillis));
+    }
+
+
+    @Override
+    public void onLockNotAcquired(long waitMillis)
+    {
+        notifyListeners(listener -> listener.onLockNotAcquired(waitMillis));
+    }
+
+
+    @Override
+    public void onLockReleased(long heldMillis)
+    {
+        notifyListeners(listener -> listener.onLockReleased(heldMillis));
+    }
+
+
+    @Override
+    public void onUnitsPending(int pendingUnits)
+    {
+        notifyListeners(listener -> listener.onUnitsPending(pendingUnits));
+    }
+
+
+    @Override
+    public void onUnitStarted(MigrationEntry migrationEntry)
+    {
+        notifyListeners(listener -> listener.onUnitStarted(migrationEntry));
+    }
+
+
+    @Override
+    public void onUnitFinished(MigrationEntry migrationEntry, long durationMillis, BulkWriteSummary writeSummary)
+    {
+        notifyListeners(listener -> listener.onUnitFinished(migrationEntry, durationMillis, writeSummary));
+    }
+
+
+    @Override
+    public void onUnitFailed(MigrationEntry migrationEntry, long durationMillis, Throwable cause)
+    {
+        notifyListeners(listener -> listener.onUnitFailed(migrationEntry, durationMillis, cause));
+    }
+
+
+    private void notifyListeners(Consumer<MigrationListener> notification)
+    {
+        for (MigrationListener listener : listeners)
+        {
+            try
+            {
+                notification.accept(listener);
+            }
+            catch (RuntimeException e)
+            {
+                log.warn("Migration listener {} failed", listener, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.github.migmong.migration;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-memory index of migration units already stored in the migration log. Thread-safe.
+ */
+public class AppliedMigrationUnits
+{
+    private final Map<String, Set<Integer>> changeIdsByMigrationClass = new ConcurrentHashMap<>();
+    private final AtomicInteger size = new AtomicInteger();
+
+
+    public void add(String migrationClass, int changeId)
+    {
+        Set<Integer> changeIds = changeIdsByMigrationClass
+                .computeIfAbsent(migrationClass, x -> ConcurrentHashMap.newKeySet());
+        if (changeIds.add(changeId))
+            size.incrementAndGet();
+    }
+
+
+    public void add(MigrationEntry migrationEntry)
+    {
+        add(migrationEntry.getMigrationClass(), migrationEntry.getChangeId());
+    }
+
+
+    public void addAll(AppliedMigrationUnits appliedMigrationUnits)
+    {
+        for (Map.Entry<String, Set<Integer>> migration : appliedMigrationUnits.changeIdsByMigrationClass.entrySet())
+        {
+            for (Integer changeId : migration.getValue())
+                add(migration.getKey(), changeId);
+        }
+    }
+
+
+    /**
+     * @param migrationClass simple name of migration class
+     * @param changeIds ids of migration units
+     * @return true if all the units are applied
+     */
+    public boolean containsAll(String migrationClass, Collection<Integer> changeIds)
+    {
+        Set<Integer> appliedIds = changeIdsByMigrationClass.get(migrationClass);
+        return appliedIds != null ? appliedIds.containsAll(changeIds) : changeIds.isEmpty();
+    }
+
+
+    /**
+     * @return simple names of migration classes with applied units
+     */
+    public Set<String> getMigrationClasses()
+    {
+        return Collections.unmodifiableSet(changeIdsByMigrationClass.keySet());
+    }
+
+
+    /**
+     * @param migrationClass simple name of migration class
+     * @return ids of applied units of the class
+     */
+    public Set<Integer> getChangeIds(String migrationClass)
+    {
+        return Collections.unmodifiableSet(changeIdsByMigrationClass.getOrDefault(migrationClass,
+                Collections.emptySet()));
+    }
+
+
+    public boolean contains(MigrationEntry migrationEntry)
+    {
+        Set<Integer> changeIds = changeIdsByMigrationClass.get(migrationEntry.getMigrationClass());
+        return changeIds != null && changeIds.contains(migrationEntry.getChangeId());
+    }
+
+
+    /**
+     * @return count of applied migration units
+     */
+    public int size()
+    {
+        return size.get();
+    }
+
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o)
+            return true;
+        if (!(o instanceof AppliedMigrationUnits))
+            return false;
+        return changeIdsByMigrationClass.equals(((AppliedMigrationUnits)o).changeIdsByMigrationClass);
+    }
+
+
+    @Override
+    public int hashCode()
+    {
+        return changeIdsByMigrationClass.hashCode();
+    }
+}
@@ -1,18 +1,40 @@
 package com.github.migmong.migration;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+import org.bson.Document;
+import org.bson.conversions.Bson;
 import org.springframework.context.ApplicationContext;
 import org.springframework.core.env.Environment;
 import org.springframework.data.mongodb.core.MongoTemplate;
 
+import com.github.migmong.exception.MigrationConnectionException;
+import com.github.migmong.exception.MigrationException;
+import com.github.migmong.migration.data.BulkLoadScope;
+import com.github.migmong.migration.data.BulkWriteSummary;
+import com.github.migmong.migration.data.BulkWriter;
+import com.github.migmong.migration.data.CheckpointStore;
+import com.github.migmong.migration.data.ChunkIterator;
+import com.github.migmong.migration.data.IndexPlan;
+import com.github.migmong.migration.data.PartitionedScan;
+import com.github.migmong.migration.data.ServerSideTransform;
+import com.github.migmong.migration.data.WriteThrottle;
+import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
 
+import lombok.AccessLevel;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.Setter;
+import lombok.ToString;
 
 /**
- * MigrationInfo context to be passed to every migration unit
+ * MigrationInfo context to be passed to every migration unit. Custom variables can be used by concurrently
+ * executed migrations.
  */
 @Data
 public class MigrationContext
@@ -21,12 +43,208 @@ public class MigrationContext
     private ApplicationContext applicationContext;
     private MongoTemplate mongoTemplate;
     private MongoDatabase mongoDatabase;
-    private Map<String, Object> customVariables = new HashMap<>();
+    private Map<String, Object> customVariables = new ConcurrentHashMap<>();
+    @ToString.Exclude
+    @EqualsAndHashCode.Exclude
+    private WriteThrottle writeThrottle;
+    @Setter(AccessLevel.NONE)
+    private MigrationEntry migrationEntry;
+    @Setter(AccessLevel.NONE)
+    @ToString.Exclude
+    @EqualsAndHashCode.Exclude
+    private CheckpointStore checkpointStore;
+    @Setter(AccessLevel.NONE)
+    @ToString.Exclude
+    @EqualsAndHashCode.Exclude
+    private List<BulkWriter> bulkWriters = Collections.synchronizedList(new ArrayList<>());
+    @Setter(AccessLevel.NONE)
+    @ToString.Exclude
+    @EqualsAndHashCode.Exclude
+    private List<BulkLoadScope> bulkLoadScopes = Collections.synchronizedList(new ArrayList<>());
+
+
+    /**
+     * Creates context of one migration unit. Custom variables are shared with this context.
+     * @param migrationEntry executed migration unit
+     * @param checkpointStore storage of checkpoints of chunked iterations or null if progress should not be saved
+     * @return context to be passed to the migration unit
+     */
+    public MigrationContext forMigrationUnit(MigrationEntry migrationEntry, CheckpointStore checkpointStore)
+    {
+        MigrationContext context = new MigrationContext();
+        context.setSpringEnvironment(springEnvironment);
+        context.setApplicationContext(applicationContext);
+        context.setMongoTemplate(mongoTemplate);
+        context.setMongoDatabase(mongoDatabase);
+        context.setCustomVariables(customVariables);
+        context.setWriteThrottle(writeThrottle);
+        context.migrationEntry = migrationEntry;
+        context.checkpointStore = checkpointStore;
+        return context;
+    }
+
+
+    /**
+     * Iterates over all documents of the collection in chunks sorted by {@code _id}. Progress is saved after each
+     * chunk, so an interrupted migration unit resumes after the last processed chunk.
+     * @param collectionName collection to iterate
+     * @param chunkSize count of documents in one chunk
+     * @return chunk iterator
+     */
+    public ChunkIterator iterateChunks(String collectionName, int chunkSize)
+    {
+        return iterateChunks(collectionName, null, ChunkIterator.ID, chunkSize);
+    }
+
+
+    /**
+     * Iterates over documents of the collection in chunks sorted by the key. Progress is saved after each chunk,
+     * so an interrupted migration unit resumes after the last processed chunk.
+     * @param collectionName collection to iterate
+     * @param filter filter of documents or null for all documents
+     * @param keyField indexed field which is present in every document
+     * @param chunkSize count of documents in one chunk
+     * @return chunk iterator
+     */
+    public ChunkIterator iterateChunks(String collectionName, Bson filter, String keyField, int chunkSize)
+    {
+        MongoCollection<Document> collection = mongoDatabase.getCollection(collectionName);
+        return new ChunkIterator(collection, filter, keyField, chunkSize, migrationEntry, checkpointStore)
+                .setBeforeCheckpoint(this::flushBulkWriters);
+    }
+
+
+    /**
+     * Creates a scan which splits the collection into key ranges and processes them concurrently. Progress of every
+     * partition is saved after each chunk, so an interrupted migration unit resumes every partition where it stopped.
+     * @param collectionName collection to process
+     * @param partitions maximum count of partitions
+     * @return partitioned scan
+     */
+    public PartitionedScan partitionedScan(String collectionName, int partitions)
+    {
+        return new PartitionedScan(mongoDatabase, collectionName, partitions, migrationEntry, checkpointStore)
+                .setWriteThrottle(writeThrottle);
+    }
+
+
+    /**
+     * Creates a transformation of the collection which is executed on the server with an aggregation pipeline or
+     * a pipeline-style update. Chunked transformations save progress after each range of keys.
+     * @param collectionName source collection
+     * @return transformation to be configured and executed
+     */
+    public ServerSideTransform serverSideTransform(String collectionName)
+    {
+        return new ServerSideTransform(mongoDatabase, collectionName, migrationEntry, checkpointStore)
+                .setWriteThrottle(writeThrottle);
+    }
+
+
+    /**
+     * Creates a writer which buffers write models and writes them to the collection with unordered bulk writes.
+     * Buffered writes are flushed before checkpoints of chunk iterators and when the migration unit is finished.
+     * @param collectionName collection to write
+     * @return bulk writer
+     */
+    public BulkWriter bulkWriter(String collectionName)
+    {
+        BulkWriter bulkWriter = new BulkWriter(mongoDatabase.getCollection(collectionName))
+                .setWriteThrottle(writeThrottle);
+        bulkWriters.add(bulkWriter);
+        return bulkWriter;
+    }
+
+
+    /**
+     * Drops non-unique secondary indexes of the collection until the returned scope is closed. Specs of the indexes
+     * are saved to the migration log, so they are rebuilt even if the process is killed. Scopes which are not
+     * closed by the unit are closed when it is finished.
+     * @param collectionName collection to load
+     * @return open bulk load scope
+     * @throws MigrationConnectionException if specs of indexes could not be saved
+     */
+    public BulkLoadScope bulkLoad(String collectionName) throws MigrationConnectionException
+    {
+        BulkLoadScope scope = new BulkLoadScope(mongoDatabase, collectionName, migrationEntry, checkpointStore)
+                .open();
+        bulkLoadScopes.add(scope);
+        return scope;
+    }
+
+
+    /**
+     * Rebuilds indexes of all bulk load scopes of this context which are still open
+     * @throws MigrationException if indexes of a collection could not be rebuilt
+     */
+    public void closeBulkLoadScopes() throws MigrationException
+    {
+        MigrationException failure = null;
+        synchronized (bulkLoadScopes)
+        {
+            for (BulkLoadScope scope : bulkLoadScopes)
+            {
+                try
+                {
+                    scope.close();
+                }
+                catch (MigrationException e)
+                {
+                    if (failure == null)
+                        failure = e;
+                }
+            }
+        }
+        if (failure != null)
+            throw failure;
+    }
+
+
+    /**
+     * Creates a declarative set of index changes, indexes of every collection are created with one command and
+     * collections are processed concurrently when the plan is applied
+     * @return empty index plan
+     */
+    public IndexPlan indexes()
+    {
+        return new IndexPlan(mongoDatabase);
+    }
+
+
+    /**
+     * Writes models buffered by all bulk writers of this context
+     */
+    public void flushBulkWriters()
+    {
+        synchronized (bulkWriters)
+        {
+            for (BulkWriter bulkWriter : bulkWriters)
+                bulkWriter.flush();
+        }
+    }
+
+
+    /**
+     * @return documents written by all bulk writers of this context
+     */
+    public BulkWriteSummary getWriteSummary()
+    {
+        BulkWriteSummary summary = new BulkWriteSummary();
+        synchronized (bulkWriters)
+        {
+            for (BulkWriter bulkWriter : bulkWriters)
+                summary.add(bulkWriter.getSummary());
+        }
+        return summary;
+    }
 
 
     public void setVariable(String name, Object variable)
     {
-        customVariables.put(name, variable);
+        if (variable == null)
+            customVariables.remove(name);
+        else
+            customVariables.put(name, variable);
     }
 
     public Object getVariable(String name)
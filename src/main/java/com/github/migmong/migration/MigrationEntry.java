@@ -5,6 +5,7 @@ import java.util.Date;
 import org.bson.Document;
 
 import lombok.Data;
+import lombok.EqualsAndHashCode;
 import lombok.RequiredArgsConstructor;
 
 /**
@@ -22,11 +23,43 @@ public class MigrationEntry
     public static final String TIMESTAMP = "timestamp";
     public static final String MIGRATION_CLASS = "migrationClass";
     public static final String MIGRATION_UNIT = "migrationUnit";
+    public static final String VERSION = "version";
+    public static final String STATE = "state";
+    public static final String CHECKPOINT = "checkpoint";
+    public static final String PARTITION_CHECKPOINTS = "partitionCheckpoints";
+    public static final String SPLIT_POINTS = "splitPoints";
+    public static final String DEFERRED_INDEXES = "deferredIndexes";
+    public static final String PROCESSED_DOCUMENTS = "processedDocuments";
+    public static final String DURATION_MILLIS = "durationMillis";
+    public static final String UNIT_HASH = "unitHash";
+    public static final String STATE_IN_PROGRESS = "IN_PROGRESS";
+    public static final String STATE_COMPACTED = "COMPACTED";
 
     private final int changeId;
     private final Date timestamp;
     private final String migrationClass;
     private final String migrationUnit;
+    /**
+     * Migration version encoded by {@link Version#encode()}
+     */
+    private String version;
+    /**
+     * Count of documents processed on the server by {@link com.github.migmong.migration.data.ServerSideTransform}.
+     * Execution statistics change while the entry is a key of report maps, so they are not a part of its identity.
+     */
+    @EqualsAndHashCode.Exclude
+    private Long processedDocuments;
+    /**
+     * Duration of the unit execution
+     */
+    @EqualsAndHashCode.Exclude
+    private Long durationMillis;
+
+
+    public synchronized void addProcessedDocuments(long documents)
+    {
+        processedDocuments = (processedDocuments != null ? processedDocuments : 0) + documents;
+    }
 
 
     public Document buildFullDBObject()
@@ -36,7 +69,14 @@ public class MigrationEntry
         entry.append(CHANGE_ID, this.changeId)
                 .append(TIMESTAMP, this.timestamp)
                 .append(MIGRATION_CLASS, this.migrationClass)
-                .append(MIGRATION_UNIT, this.migrationUnit);
+                .append(MIGRATION_UNIT, this.migrationUnit)
+                .append(UNIT_HASH, UnitsDigest.hash(this.migrationClass, this.changeId));
+        if (this.version != null)
+            entry.append(VERSION, this.version);
+        if (this.processedDocuments != null)
+            entry.append(PROCESSED_DOCUMENTS, this.processedDocuments);
+        if (this.durationMillis != null)
+            entry.append(DURATION_MILLIS, this.durationMillis);
 
         return entry;
     }
@@ -1,31 +1,77 @@
 package com.github.migmong.migration;
 
+import java.util.List;
+import java.util.Set;
 import java.util.regex.Pattern;
 
 import com.github.migmong.exception.MigrationException;
 
 import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.ToString;
 
+/**
+ * Migration metadata. Migration class is loaded only when it is requested, so migrations without pending units
+ * are neither loaded nor initialized.
+ */
 @Data
 public class MigrationInfo
 {
+    private final String className;
+    private final Version version;
+    private final List<MigrationUnitInfo> migrationUnits;
+    private final Set<String> collections;
+    @ToString.Exclude
+    @EqualsAndHashCode.Exclude
+    private final ClassLoader classLoader;
+    @ToString.Exclude
+    @EqualsAndHashCode.Exclude
     private Class<?> migrationClass;
-    private Version version;
 
 
-    public MigrationInfo(Class<?> migrationClass, String prefix) throws MigrationException
+    /**
+     * Get version of migration from its class name
+     * @param className simple name of migration class, e.g. 'V_1_2__doStuff'
+     * @param prefix prefix of migration name, e.g. 'V_'
+     * @return parsed {@link Version}
+     * @throws IllegalArgumentException if class name does not contain a correct version
+     */
+    public static Version parseVersion(String className, String prefix) throws IllegalArgumentException
     {
-        this.migrationClass = migrationClass;
-        this.version = parseVersion(migrationClass.getSimpleName(), prefix);
+        String version = className.replaceFirst(Pattern.quote(prefix), "");
+        version = version.replaceFirst("__\\w+\\Z", "");
+
+        return Version.from(version, "_");
     }
 
 
-    private Version parseVersion(String className, String prefix) throws MigrationException
+    /**
+     * @return migration class, it is loaded and initialized on the first call
+     * @throws MigrationException if the class can not be loaded
+     */
+    public Class<?> getMigrationClass() throws MigrationException
     {
-        String version = className.replaceFirst(Pattern.quote(prefix), "");
-        version = version.replaceFirst("__\\w+\\Z", "");
+        if (migrationClass == null)
+        {
+            try
+            {
+                migrationClass = Class.forName(className, true, classLoader);
+            }
+            catch (ClassNotFoundException | LinkageError e)
+            {
+                throw new MigrationException("Could not load migration class: " + className, e);
+            }
+        }
+        return migrationClass;
+    }
 
-        return Version.from(version, "_");
+
+    /**
+     * @return simple name of migration class
+     */
+    public String getSimpleName()
+    {
+        String simpleName = className.substring(className.lastIndexOf('.') + 1);
+        return simpleName.substring(simpleName.lastIndexOf('$') + 1);
     }
 }
-
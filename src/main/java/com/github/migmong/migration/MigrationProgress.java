@@ -0,0 +1,119 @@
+package com.github.migmong.migration;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.github.migmong.exception.MigrationException;
+import com.github.migmong.exception.MigrationLockException;
+
+/**
+ * Progress of one migration process. Futures of migrations are completed when all their units except background
+ * ones are done, so dependants can proceed while background units keep going.
+ */
+public class MigrationProgress
+{
+    private final CompletableFuture<List<MigrationInfo>> migrations = new CompletableFuture<>();
+    private final Map<String, CompletableFuture<Void>> readyMigrations = new ConcurrentHashMap<>();
+    private final CompletableFuture<MigrationReport> finished = new CompletableFuture<>();
+
+
+    /**
+     * @param version the highest version of migrations to wait for or null to wait for all migrations
+     * @return future which completes when migrations up to the version are ready, or completes exceptionally if
+     * one of them has failed
+     */
+    public CompletableFuture<Void> awaitVersion(Version version)
+    {
+        return migrations.thenCompose(list -> CompletableFuture.allOf(list.stream()
+                .filter(migration -> version == null || migration.getVersion().compareTo(version) <= 0)
+                .map(migration -> readyMigrations.get(migration.getClassName()))
+                .toArray(CompletableFuture[]::new)));
+    }
+
+
+    /**
+     * @return future which completes when all migrations are ready
+     */
+    public CompletableFuture<Void> awaitReady()
+    {
+        return awaitVersion(null);
+    }
+
+
+    /**
+     * @return future of the report which completes when the whole process including background units is finished
+     */
+    public CompletableFuture<MigrationReport> getFinished()
+    {
+        return finished;
+    }
+
+
+    public boolean isFinished()
+    {
+        return finished.isDone();
+    }
+
+
+    public void start(List<MigrationInfo> migrations)
+    {
+        for (MigrationInfo migration : migrations)
+            readyMigrations.put(migration.getClassName(), new CompletableFuture<>());
+        this.migrations.complete(migrations);
+    }
+
+
+    public void ready(MigrationInfo migration)
+    {
+        readyMigrations.get(migration.getClassName()).complete(null);
+    }
+
+
+    public void failed(MigrationInfo migration, Throwable cause)
+    {
+        readyMigrations.get(migration.getClassName()).completeExceptionally(cause);
+    }
+
+
+    /**
+     * Completes migrations which have not been executed. They are failed if the report has failures, since
+     * dependencies of those migrations have failed, and if the process lock has not been acquired, since another
+     * process may still be applying them.
+     */
+    public void finish(MigrationReport report)
+    {
+        migrations.complete(Collections.emptyList());
+        MigrationException notExecuted = null;
+        if (report.getStatus() == MigrationReport.Status.FAILED)
+        {
+            notExecuted = new MigrationException("Migration has not been executed because of failed migrations: " +
+                    report.getFailedUnits());
+        }
+        else if (report.getStatus() == MigrationReport.Status.LOCK_NOT_ACQUIRED)
+        {
+            notExecuted = new MigrationLockException("Migration has not been executed because process lock is " +
+                    "held by another process");
+        }
+
+        for (CompletableFuture<Void> readyMigration : readyMigrations.values())
+        {
+            if (notExecuted != null)
+                readyMigration.completeExceptionally(notExecuted);
+            else
+                readyMigration.complete(null);
+        }
+        finished.complete(report);
+    }
+
+
+    public void fail(Throwable cause)
+    {
+        migrations.completeExceptionally(cause);
+        for (CompletableFuture<Void> readyMigration : readyMigrations.values())
+            readyMigration.completeExceptionally(cause);
+        finished.completeExceptionally(cause);
+    }
+}
@@ -0,0 +1,75 @@
+package com.github.migmong.migration;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.github.migmong.trace.CommandSummary;
+
+import lombok.Data;
+
+/**
+ * Result of migration process. Units are listed in the order of migration versions and unit ids regardless of
+ * the order they were executed in.
+ */
+@Data
+public class MigrationReport
+{
+    public enum Status
+    {
+        /** Migration is disabled */
+        DISABLED,
+        /** All migration units have been already applied, nothing was executed */
+        UP_TO_DATE,
+        /** Process lock was not acquired, nothing was executed */
+        LOCK_NOT_ACQUIRED,
+        /** All pending migration units have been executed */
+        COMPLETED,
+        /** Some of pending migration units have failed */
+        FAILED
+    }
+
+    private Status status;
+    private final List<MigrationEntry> appliedUnits = new ArrayList<>();
+    private final List<MigrationUnitFailure> failedUnits = new ArrayList<>();
+    /**
+     * Commands sent by executed units, filled only if command tracing is enabled
+     */
+    private final Map<MigrationEntry, CommandSummary> commandSummaries = new LinkedHashMap<>();
+
+
+    public MigrationReport(Status status)
+    {
+        this.status = status;
+    }
+
+
+    public void addApplied(MigrationEntry migrationEntry)
+    {
+        appliedUnits.add(migrationEntry);
+    }
+
+
+    public void addFailed(MigrationEntry migrationEntry, Throwable cause)
+    {
+        failedUnits.add(new MigrationUnitFailure(migrationEntry, cause));
+        status = Status.FAILED;
+    }
+
+
+    public void addCommandSummary(MigrationEntry migrationEntry, CommandSummary commandSummary)
+    {
+        commandSummaries.put(migrationEntry, commandSummary);
+    }
+
+
+    public void addAll(MigrationReport report)
+    {
+        appliedUnits.addAll(report.getAppliedUnits());
+        failedUnits.addAll(report.getFailedUnits());
+        commandSummaries.putAll(report.getCommandSummaries());
+        if (report.getStatus() == Status.FAILED)
+            status = Status.FAILED;
+    }
+}
@@ -0,0 +1,95 @@
+package com.github.migmong.migration;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.WrongMethodTypeException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+import com.github.migmong.exception.MigrationUnitException;
+import com.github.migmong.migration.annotations.MigrationUnit;
+import com.github.migmong.migration.data.UpdateSpec;
+
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Immutable {@link MigrationUnit} of a loaded migration class. Annotation is read and the method is resolved to
+ * a {@link MethodHandle} once, so units are executed without reflective calls.
+ */
+@Getter
+@ToString(exclude = "invoker")
+public final class MigrationUnitDescriptor
+{
+    private static final MethodType INVOKER_TYPE = MethodType.methodType(Object.class, Object.class,
+            MigrationContext.class);
+
+    private final int id;
+    private final String methodName;
+    private final boolean runAlways;
+    /**
+     * The unit returns {@link UpdateSpec} which is applied by the runtime
+     */
+    private final boolean declarative;
+    private final MethodHandle invoker;
+
+
+    private MigrationUnitDescriptor(int id, String methodName, boolean runAlways, boolean declarative,
+            MethodHandle invoker)
+    {
+        this.id = id;
+        this.methodName = methodName;
+        this.runAlways = runAlways;
+        this.declarative = declarative;
+        this.invoker = invoker;
+    }
+
+
+    /**
+     * @param method method annotated with {@link MigrationUnit}
+     * @return descriptor of the migration unit
+     * @throws MigrationUnitException if the method is not accessible or does not take {@link MigrationContext}
+     */
+    public static MigrationUnitDescriptor of(Method method) throws MigrationUnitException
+    {
+        MigrationUnit migrationUnit = method.getAnnotation(MigrationUnit.class);
+        try
+        {
+            // The handle is adapted to (Object, MigrationContext)Object, void units return null
+            MethodHandle invoker = MethodHandles.lookup().unreflect(method).asType(INVOKER_TYPE);
+            return new MigrationUnitDescriptor(migrationUnit.id(), method.getName(), migrationUnit.runAlways(),
+                    UpdateSpec.class.isAssignableFrom(method.getReturnType()), invoker);
+        }
+        catch (IllegalAccessException e)
+        {
+            throw new MigrationUnitException(String.format("MigrationUnit '%s' of %s is not accessible: %s",
+                    method.getName(), method.getDeclaringClass().getName(), e.getMessage()));
+        }
+        catch (WrongMethodTypeException e)
+        {
+            throw new MigrationUnitException(String.format("MigrationUnit '%s' of %s should take only %s",
+                    method.getName(), method.getDeclaringClass().getName(), MigrationContext.class.getSimpleName()));
+        }
+    }
+
+
+    /**
+     * Executes the unit
+     * @param migration instance of migration class
+     * @param context migration context
+     * @return value returned by the unit, null for void units
+     * @throws InvocationTargetException wraps anything thrown by the unit, like {@link Method#invoke} does
+     */
+    public Object invoke(Object migration, MigrationContext context) throws InvocationTargetException
+    {
+        try
+        {
+            return (Object)invoker.invokeExact(migration, context);
+        }
+        catch (Throwable e)
+        {
+            throw new InvocationTargetException(e);
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package com.github.migmong.migration;
+
+import lombok.Data;
+
+/**
+ * Migration unit which has not been applied because of an error
+ */
+@Data
+public class MigrationUnitFailure
+{
+    private final MigrationEntry migrationEntry;
+    private final Throwable cause;
+
+
+    @Override
+    public String toString()
+    {
+        return migrationEntry + " failed: " + cause;
+    }
+}
@@ -0,0 +1,32 @@
+package com.github.migmong.migration;
+
+import com.github.migmong.migration.annotations.MigrationUnit;
+
+import lombok.Data;
+
+/**
+ * Metadata of {@link MigrationUnit} which is known without loading of migration class
+ */
+@Data
+public class MigrationUnitInfo
+{
+    private final int id;
+    private final String methodName;
+    private final boolean runAlways;
+    private final boolean background;
+
+
+    public MigrationUnitInfo(int id, String methodName, boolean runAlways)
+    {
+        this(id, methodName, runAlways, false);
+    }
+
+
+    public MigrationUnitInfo(int id, String methodName, boolean runAlways, boolean background)
+    {
+        this.id = id;
+        this.methodName = methodName;
+        this.runAlways = runAlways;
+        this.background = background;
+    }
+}
@@ -0,0 +1,59 @@
+package com.github.migmong.migration;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import lombok.Data;
+
+/**
+ * Result of migration process executed for many tenant databases. A tenant has either a report or, if its
+ * migration process has thrown an exception, a failure.
+ */
+@Data
+public class MultiTenantMigrationReport
+{
+    /**
+     * Reports by database name in the order databases were listed
+     */
+    private final Map<String, MigrationReport> reports = new LinkedHashMap<>();
+    /**
+     * Exceptions thrown by migration processes by database name
+     */
+    private final Map<String, Throwable> failures = new LinkedHashMap<>();
+
+
+    public void addReport(String dbName, MigrationReport report)
+    {
+        reports.put(dbName, report);
+    }
+
+
+    public void addFailure(String dbName, Throwable cause)
+    {
+        failures.put(dbName, cause);
+    }
+
+
+    /**
+     * @return names of databases which migration process has thrown an exception or has failed units
+     */
+    public List<String> getFailedTenants()
+    {
+        return Stream.concat(failures.keySet().stream(), reports.entrySet().stream()
+                .filter(report -> report.getValue().getStatus() == MigrationReport.Status.FAILED)
+                .map(Map.Entry::getKey))
+                .collect(Collectors.toList());
+    }
+
+
+    /**
+     * @return true if migrations of all tenants have been executed without failures
+     */
+    public boolean isSuccessful()
+    {
+        return getFailedTenants().isEmpty();
+    }
+}
@@ -0,0 +1,41 @@
+package com.github.migmong.migration;
+
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Order independent digest of a set of migration units: their count and the sum of hashes of their migration classes
+ * and change ids. Every migration log entry keeps its hash, so the server computes digests of applied units and
+ * only the digests are compared with declared units.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class UnitsDigest
+{
+    private long count;
+    private long sum;
+
+
+    public UnitsDigest add(String migrationClass, int changeId)
+    {
+        count++;
+        sum += hash(migrationClass, changeId);
+        return this;
+    }
+
+
+    /**
+     * @return non-negative 32-bit hash, so sums of any realistic count of units do not overflow
+     */
+    public static long hash(String migrationClass, int changeId)
+    {
+        CRC32 crc = new CRC32();
+        crc.update((migrationClass + ":" + changeId).getBytes(StandardCharsets.UTF_8));
+        return crc.getValue();
+    }
+}
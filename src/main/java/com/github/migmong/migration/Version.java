@@ -73,6 +73,23 @@ public class Version
         return 0;
     }
 
+    /**
+     * Encodes the version to a string which sorts like versions, e.g. '1.2' is '0000000001.0000000002'.
+     * Trailing zeros are dropped, so equal versions have equal encodings.
+     * @return sortable encoding of the version
+     */
+    public String encode()
+    {
+        int size = versionNumbers.size();
+        while (size > 1 && versionNumbers.get(size - 1) == 0)
+            size--;
+
+        return versionNumbers.subList(0, size).stream()
+                .map(number -> String.format("%010d", number))
+                .collect(Collectors.joining("."));
+    }
+
+
     @Override
     public String toString()
     {
@@ -0,0 +1,26 @@
+package com.github.migmong.migration.annotations;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+import com.github.migmong.spring.DependsOnMigrationBeanPostProcessor;
+
+/**
+ * Marks a Spring bean which is initialized only after migrations up to the version are done. Other beans are
+ * initialized while migrations are executed asynchronously. Background units of the migrations are not waited for.
+ * @see DependsOnMigrationBeanPostProcessor
+ */
+@Documented
+@Target(ElementType.TYPE)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface DependsOnMigration
+{
+    /**
+     * Version of migration, e.g. '1.2'. Empty version means all migrations.
+     * @return the highest version the bean depends on
+     */
+    String value() default "";
+}
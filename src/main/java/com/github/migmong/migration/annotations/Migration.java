@@ -12,5 +12,12 @@ import java.lang.annotation.Target;
 @Retention(RetentionPolicy.RUNTIME)
 public @interface Migration
 {
-
+    /**
+     * Collections which are changed or read by the migration. Migrations with disjoint collections can be executed
+     * concurrently, otherwise they are executed in version order. Migration without collections is executed after
+     * all previous migrations and before all next ones.
+     * Optional (default is empty)
+     * @return names of collections
+     */
+    String[] collections() default {};
 }
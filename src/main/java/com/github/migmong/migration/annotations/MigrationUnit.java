@@ -8,6 +8,9 @@ import java.lang.annotation.Target;
 /**
  * Method with changes to be added to the database. Many instances of {@link MigrationUnit} are included in one
  * {@link Migration}.
+ * <p>A unit may return {@link java.util.concurrent.CompletionStage}, {@link java.util.concurrent.Flow.Publisher} or
+ * Reactive Streams publisher, e.g. of the reactive MongoDB driver. The unit is applied when the result is completed,
+ * publishers are drained with backpressure.</p>
  */
 @Target(ElementType.METHOD)
 @Retention(RetentionPolicy.RUNTIME)
@@ -27,4 +30,14 @@ public @interface MigrationUnit
      * @return should run always or not
      */
     boolean runAlways() default false;
+
+
+    /**
+     * Marks a long-running unit which does not block readiness of the application when migrations are executed
+     * asynchronously: beans depending on the migration wait only for its other units. Background units are still
+     * executed in the order of ids.
+     * Optional (default is false)
+     * @return is the unit executed in background
+     */
+    boolean background() default false;
 }
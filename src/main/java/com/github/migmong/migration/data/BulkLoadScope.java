@@ -0,0 +1,170 @@
+package com.github.migmong.migration.data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bson.Document;
+
+import com.github.migmong.exception.MigrationConnectionException;
+import com.github.migmong.exception.MigrationException;
+import com.github.migmong.migration.MigrationEntry;
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Bulk load of a collection without maintenance of its secondary indexes. Non-unique secondary indexes are dropped
+ * when the scope is opened and rebuilt with one {@code createIndexes} command when it is closed.
+ * <pre>
+ * try (BulkLoadScope scope = context.bulkLoad("users"))
+ * {
+ *     ...
+ * }
+ * </pre>
+ * <p>Specs of dropped indexes are saved to the migration log before they are dropped. A restarted unit takes them
+ * from the log, and indexes left by a unit which is not restarted are rebuilt at the end of the migration process.
+ * Unique indexes and {@code _id} are kept, since they enforce constraints of the loaded data.</p>
+ */
+@Slf4j
+public class BulkLoadScope implements AutoCloseable
+{
+    private static final String ID_INDEX = "_id_";
+    private static final String TEXT_INDEX = "text";
+
+    private final MongoDatabase mongoDatabase;
+    private final String collectionName;
+    private final MigrationEntry migrationEntry;
+    private final CheckpointStore checkpointStore;
+    private List<Document> deferredIndexes;
+
+
+    /**
+     * @param mongoDatabase database of the collection
+     * @param collectionName loaded collection
+     * @param migrationEntry migration unit which loads the collection
+     * @param checkpointStore storage of deferred indexes or null if they should be kept only in memory
+     */
+    public BulkLoadScope(MongoDatabase mongoDatabase, String collectionName, MigrationEntry migrationEntry,
+            CheckpointStore checkpointStore)
+    {
+        this.mongoDatabase = mongoDatabase;
+        this.collectionName = collectionName;
+        this.migrationEntry = migrationEntry;
+        this.checkpointStore = checkpointStore;
+    }
+
+
+    /**
+     * Saves specs of non-unique secondary indexes and drops them. Indexes saved by an interrupted execution of
+     * the unit are taken instead of the current ones.
+     * @return this scope
+     * @throws MigrationConnectionException if specs could not be saved
+     */
+    public BulkLoadScope open() throws MigrationConnectionException
+    {
+        if (deferredIndexes != null)
+            throw new IllegalStateException("Bulk load of " + collectionName + " is already open");
+
+        MongoCollection<Document> collection = mongoDatabase.getCollection(collectionName);
+        List<Document> savedIndexes = checkpointStore != null
+                ? checkpointStore.loadDeferredIndexes(migrationEntry, collectionName)
+                : null;
+        if (savedIndexes != null)
+        {
+            deferredIndexes = savedIndexes;
+        }
+        else
+        {
+            deferredIndexes = new ArrayList<>();
+            for (Document index : collection.listIndexes())
+            {
+                if (!ID_INDEX.equals(index.getString("name")) && !Boolean.TRUE.equals(index.get("unique")))
+                {
+                    index.remove("ns");
+                    index.remove("v");
+                    deferredIndexes.add(index);
+                }
+            }
+            if (checkpointStore != null && !deferredIndexes.isEmpty())
+                checkpointStore.saveDeferredIndexes(migrationEntry, collectionName, deferredIndexes);
+        }
+
+        // Indexes rebuilt partially before a restart are dropped again
+        List<String> deferredNames = new ArrayList<>();
+        for (Document index : deferredIndexes)
+            deferredNames.add(index.getString("name"));
+        for (Document index : collection.listIndexes())
+        {
+            if (deferredNames.contains(index.getString("name")))
+                dropIndex(collection, index);
+        }
+        log.info("{} dropped indexes of {} for bulk load: {}", migrationEntry, collectionName, deferredNames);
+        return this;
+    }
+
+
+    /**
+     * @return specs of dropped indexes
+     */
+    public List<Document> getDeferredIndexes()
+    {
+        return deferredIndexes;
+    }
+
+
+    /**
+     * Rebuilds dropped indexes and removes their specs from the migration log
+     * @throws MigrationException if indexes could not be rebuilt, their specs are kept in the log then
+     */
+    @Override
+    public void close() throws MigrationException
+    {
+        if (deferredIndexes == null)
+            return;
+
+        try
+        {
+            rebuildIndexes(mongoDatabase, collectionName, deferredIndexes);
+        }
+        catch (MongoException e)
+        {
+            throw new MigrationException("Indexes of " + collectionName + " could not be rebuilt: " + e.getMessage(),
+                    e);
+        }
+        if (checkpointStore != null)
+            checkpointStore.saveDeferredIndexes(migrationEntry, collectionName, null);
+
+        log.info("{} rebuilt indexes of {}", migrationEntry, collectionName);
+        deferredIndexes = null;
+    }
+
+
+    /**
+     * Creates indexes with one {@code createIndexes} command, existing indexes with the same specs are kept
+     * @param mongoDatabase database of the collection
+     * @param collectionName collection of the indexes
+     * @param indexes index specs as returned by {@code listIndexes}
+     */
+    public static void rebuildIndexes(MongoDatabase mongoDatabase, String collectionName, List<Document> indexes)
+    {
+        if (indexes.isEmpty())
+            return;
+
+        mongoDatabase.runCommand(new Document("createIndexes", collectionName).append("indexes", indexes));
+    }
+
+
+    /**
+     * Indexes are dropped by keys, only text indexes which can not be found by keys are dropped by name
+     */
+    private void dropIndex(MongoCollection<Document> collection, Document index)
+    {
+        Document keys = (Document)index.get("key");
+        if (keys.containsValue(TEXT_INDEX) || keys.containsKey("_fts"))
+            collection.dropIndex(index.getString("name"));
+        else
+            collection.dropIndex(keys);
+    }
+}
@@ -0,0 +1,56 @@
+package com.github.migmong.migration.data;
+
+import com.mongodb.bulk.BulkWriteResult;
+
+import lombok.Data;
+
+/**
+ * Aggregate result of all batches written by {@link BulkWriter}
+ */
+@Data
+public class BulkWriteSummary
+{
+    private int batches;
+    private int inserted;
+    private int matched;
+    private int modified;
+    private int deleted;
+    private int upserted;
+
+
+    void add(BulkWriteResult result)
+    {
+        batches++;
+        if (!result.wasAcknowledged())
+            return;
+
+        inserted += result.getInsertedCount();
+        matched += result.getMatchedCount();
+        modified += result.getModifiedCount();
+        deleted += result.getDeletedCount();
+        upserted += result.getUpserts().size();
+    }
+
+
+    public void add(BulkWriteSummary summary)
+    {
+        batches += summary.batches;
+        inserted += summary.inserted;
+        matched += summary.matched;
+        modified += summary.modified;
+        deleted += summary.deleted;
+        upserted += summary.upserted;
+    }
+
+
+    @Override
+    public String toString()
+    {
+        return "[batches=" + batches +
+                ", inserted=" + inserted +
+                ", matched=" + matched +
+                ", modified=" + modified +
+                ", deleted=" + deleted +
+                ", upserted=" + upserted + "]";
+    }
+}
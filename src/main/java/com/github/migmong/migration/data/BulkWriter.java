@@ -0,0 +1,304 @@
+package com.github.migmong.migration.data;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.BsonDocumentCodec;
+import org.bson.codecs.Codec;
+import org.bson.conversions.Bson;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.DeleteManyModel;
+import com.mongodb.client.model.DeleteOneModel;
+import com.mongodb.client.model.InsertOneModel;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.UpdateManyModel;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.WriteModel;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Buffers insert, update, replace and delete models and writes them to a collection with unordered bulk writes.
+ * A batch is written when it reaches the batch size or the byte size limit. The batch size adapts so that one
+ * bulk write takes about the target latency.
+ * <p>Models are not encoded twice on the hot path: only every {@link #SIZE_SAMPLE_INTERVAL}-th model is encoded to
+ * measure it and others are taken as large as the average sample. The byte size limit is therefore approximate,
+ * the driver still splits bulk writes which exceed the message size of the server.</p>
+ * <p>Writes of one batch are unordered, so models which depend on each other should not be added to one batch.
+ * The writer is not thread-safe.</p>
+ */
+@Slf4j
+public class BulkWriter
+{
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+    public static final int DEFAULT_MAX_BATCH_SIZE = 10000;
+    public static final int DEFAULT_MAX_BATCH_BYTES = 16 * 1024 * 1024;
+    public static final long DEFAULT_TARGET_LATENCY_MILLIS = 200;
+    public static final int SIZE_SAMPLE_INTERVAL = 64;
+
+    private static final int MIN_BATCH_SIZE = 10;
+    private static final int MODEL_OVERHEAD_BYTES = 16;
+    private static final Codec<BsonDocument> BSON_DOCUMENT_CODEC = new BsonDocumentCodec();
+
+    private final MongoCollection<Document> collection;
+    private final List<WriteModel<Document>> batch = new ArrayList<>();
+    private final BulkWriteSummary summary = new BulkWriteSummary();
+
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private int maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+    private int maxBatchBytes = DEFAULT_MAX_BATCH_BYTES;
+    private long targetLatencyMillis = DEFAULT_TARGET_LATENCY_MILLIS;
+    private int batchBytes;
+    private long sampledBytes;
+    private int sampledModels;
+    private int modelsSinceSample;
+    private WriteThrottle writeThrottle;
+
+
+    public BulkWriter(MongoCollection<Document> collection)
+    {
+        this.collection = collection;
+    }
+
+
+    /**
+     * Adds a write model to the current batch, the batch is written if it is full
+     * @param model insert, update, replace or delete model
+     * @return this writer
+     */
+    public BulkWriter add(WriteModel<Document> model)
+    {
+        int modelBytes = estimateSize(model);
+        if (!batch.isEmpty() && batchBytes + modelBytes > maxBatchBytes)
+            flush();
+
+        batch.add(model);
+        batchBytes += modelBytes;
+
+        if (batch.size() >= batchSize)
+            flush();
+        return this;
+    }
+
+
+    public BulkWriter insert(Document document)
+    {
+        return add(new InsertOneModel<>(document));
+    }
+
+
+    public BulkWriter update(Bson filter, Bson update)
+    {
+        return add(new UpdateOneModel<>(filter, update));
+    }
+
+
+    public BulkWriter replace(Bson filter, Document replacement)
+    {
+        return add(new ReplaceOneModel<>(filter, replacement));
+    }
+
+
+    public BulkWriter delete(Bson filter)
+    {
+        return add(new DeleteOneModel<>(filter));
+    }
+
+
+    /**
+     * Writes the current batch with one unordered bulk write
+     * @throws MongoBulkWriteException if some of writes failed, writes which succeeded are added to the summary
+     */
+    public void flush()
+    {
+        if (batch.isEmpty())
+            return;
+
+        if (writeThrottle != null)
+            writeThrottle.acquire(batch.size());
+
+        long start = System.nanoTime();
+        try
+        {
+            summary.add(collection.bulkWrite(batch, new BulkWriteOptions().ordered(false)));
+        }
+        catch (MongoBulkWriteException e)
+        {
+            summary.add(e.getWriteResult());
+            throw e;
+        }
+        finally
+        {
+            batch.clear();
+            batchBytes = 0;
+        }
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        if (writeThrottle != null)
+            writeThrottle.recordLatency(elapsedMillis);
+        adaptBatchSize(elapsedMillis);
+    }
+
+
+    /**
+     * @return aggregate result of written batches
+     */
+    public BulkWriteSummary getSummary()
+    {
+        return summary;
+    }
+
+
+    /**
+     * @return name of the collection
+     */
+    public String getCollectionName()
+    {
+        return collection.getNamespace().getCollectionName();
+    }
+
+
+    /**
+     * @return current count of models in one batch
+     */
+    public int getBatchSize()
+    {
+        return batchSize;
+    }
+
+
+    /**
+     * Sets initial count of models in one batch. Default is {@link #DEFAULT_BATCH_SIZE}.
+     * @param batchSize count of models
+     */
+    public BulkWriter setBatchSize(int batchSize)
+    {
+        this.batchSize = Math.max(1, Math.min(batchSize, maxBatchSize));
+        return this;
+    }
+
+
+    /**
+     * Sets maximum count of models in one batch. Default is {@link #DEFAULT_MAX_BATCH_SIZE}.
+     * @param maxBatchSize count of models
+     */
+    public BulkWriter setMaxBatchSize(int maxBatchSize)
+    {
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.batchSize = Math.min(batchSize, this.maxBatchSize);
+        return this;
+    }
+
+
+    /**
+     * Sets maximum size of encoded models in one batch. Default is {@link #DEFAULT_MAX_BATCH_BYTES}.
+     * @param maxBatchBytes size in bytes
+     */
+    public BulkWriter setMaxBatchBytes(int maxBatchBytes)
+    {
+        this.maxBatchBytes = maxBatchBytes;
+        return this;
+    }
+
+
+    /**
+     * Sets throttle which limits the rate of writes. By default writes are not throttled.
+     * @param writeThrottle throttle shared by migration writers
+     */
+    public BulkWriter setWriteThrottle(WriteThrottle writeThrottle)
+    {
+        this.writeThrottle = writeThrottle;
+        return this;
+    }
+
+
+    /**
+     * Sets desired duration of one bulk write. Default is {@link #DEFAULT_TARGET_LATENCY_MILLIS}. If it is zero,
+     * the batch size does not change.
+     * @param targetLatencyMillis duration in milliseconds
+     */
+    public BulkWriter setTargetLatency(long targetLatencyMillis)
+    {
+        this.targetLatencyMillis = targetLatencyMillis;
+        return this;
+    }
+
+
+    /**
+     * Doubles the batch size while writes are much faster than the target and shrinks it proportionally when
+     * they are slower
+     */
+    private void adaptBatchSize(long elapsedMillis)
+    {
+        if (targetLatencyMillis <= 0)
+            return;
+
+        int previousBatchSize = batchSize;
+        if (elapsedMillis > targetLatencyMillis)
+            batchSize = (int)Math.max(MIN_BATCH_SIZE, batchSize * targetLatencyMillis / elapsedMillis);
+        else if (elapsedMillis < targetLatencyMillis / 2)
+            batchSize = Math.min(maxBatchSize, batchSize * 2);
+
+        batchSize = Math.min(batchSize, maxBatchSize);
+        if (batchSize != previousBatchSize)
+            log.debug("Batch size of {} changed to {} ({} ms)", getCollectionName(), batchSize, elapsedMillis);
+    }
+
+
+    private int estimateSize(WriteModel<Document> model)
+    {
+        if (sampledModels > 0 && ++modelsSinceSample < SIZE_SAMPLE_INTERVAL)
+            return (int)(sampledBytes / sampledModels);
+
+        modelsSinceSample = 0;
+        int modelBytes = measureSize(model);
+        sampledBytes += modelBytes;
+        sampledModels++;
+        return modelBytes;
+    }
+
+
+    private int measureSize(WriteModel<Document> model)
+    {
+        if (model instanceof InsertOneModel)
+            return encodedSize(((InsertOneModel<Document>)model).getDocument());
+        if (model instanceof ReplaceOneModel)
+        {
+            ReplaceOneModel<Document> replace = (ReplaceOneModel<Document>)model;
+            return encodedSize(replace.getFilter()) + encodedSize(replace.getReplacement());
+        }
+        if (model instanceof UpdateOneModel)
+        {
+            UpdateOneModel<Document> update = (UpdateOneModel<Document>)model;
+            return encodedSize(update.getFilter()) + encodedSize(update.getUpdate());
+        }
+        if (model instanceof UpdateManyModel)
+        {
+            UpdateManyModel<Document> update = (UpdateManyModel<Document>)model;
+            return encodedSize(update.getFilter()) + encodedSize(update.getUpdate());
+        }
+        if (model instanceof DeleteOneModel)
+            return encodedSize(((DeleteOneModel<Document>)model).getFilter());
+        if (model instanceof DeleteManyModel)
+            return encodedSize(((DeleteManyModel<Document>)model).getFilter());
+        return MODEL_OVERHEAD_BYTES;
+    }
+
+
+    private int encodedSize(Bson bson)
+    {
+        if (bson == null)
+            return MODEL_OVERHEAD_BYTES;
+        if (bson instanceof RawBsonDocument)
+            return ((RawBsonDocument)bson).getByteBuffer().remaining() + MODEL_OVERHEAD_BYTES;
+
+        BsonDocument document = bson.toBsonDocument(Document.class, collection.getCodecRegistry());
+        return new RawBsonDocument(document, BSON_DOCUMENT_CODEC).getByteBuffer().remaining() + MODEL_OVERHEAD_BYTES;
+    }
+}
@@ -0,0 +1,95 @@
+package com.github.migmong.migration.data;
+
+import java.util.List;
+
+import org.bson.Document;
+
+import com.github.migmong.exception.MigrationConnectionException;
+import com.github.migmong.migration.MigrationEntry;
+
+/**
+ * Storage of checkpoints of migration units which are not applied yet
+ */
+public interface CheckpointStore
+{
+    /**
+     * @param migrationEntry migration unit in progress
+     * @return the last saved checkpoint or null if the unit has not been started
+     * @throws MigrationConnectionException exception
+     */
+    default MigrationCheckpoint loadCheckpoint(MigrationEntry migrationEntry) throws MigrationConnectionException
+    {
+        return loadCheckpoint(migrationEntry, null);
+    }
+
+
+    /**
+     * @param migrationEntry migration unit in progress
+     * @param partition partition of a collection processed by the unit or null if the unit has one checkpoint
+     * @return the last saved checkpoint or null if the partition has not been started
+     * @throws MigrationConnectionException exception
+     */
+    MigrationCheckpoint loadCheckpoint(MigrationEntry migrationEntry, String partition)
+            throws MigrationConnectionException;
+
+
+    /**
+     * @param migrationEntry migration unit in progress
+     * @param checkpoint progress of the unit
+     * @throws MigrationConnectionException exception
+     */
+    default void saveCheckpoint(MigrationEntry migrationEntry, MigrationCheckpoint checkpoint)
+            throws MigrationConnectionException
+    {
+        saveCheckpoint(migrationEntry, null, checkpoint);
+    }
+
+
+    /**
+     * @param migrationEntry migration unit in progress
+     * @param partition partition of a collection processed by the unit or null if the unit has one checkpoint
+     * @param checkpoint progress of the partition
+     * @throws MigrationConnectionException exception
+     */
+    void saveCheckpoint(MigrationEntry migrationEntry, String partition, MigrationCheckpoint checkpoint)
+            throws MigrationConnectionException;
+
+
+    /**
+     * @param migrationEntry migration unit in progress
+     * @return boundaries of partitions of a collection processed by the unit or null if they are not saved
+     * @throws MigrationConnectionException exception
+     */
+    List<Object> loadSplitPoints(MigrationEntry migrationEntry) throws MigrationConnectionException;
+
+
+    /**
+     * Saves boundaries of partitions, so a restarted unit processes the same partitions
+     * @param migrationEntry migration unit in progress
+     * @param splitPoints boundaries of partitions of a collection processed by the unit
+     * @throws MigrationConnectionException exception
+     */
+    void saveSplitPoints(MigrationEntry migrationEntry, List<Object> splitPoints)
+            throws MigrationConnectionException;
+
+
+    /**
+     * @param migrationEntry migration unit in progress
+     * @param collectionName collection loaded by the unit
+     * @return specs of indexes dropped by {@link BulkLoadScope} or null if indexes of the collection are not dropped
+     * @throws MigrationConnectionException exception
+     */
+    List<Document> loadDeferredIndexes(MigrationEntry migrationEntry, String collectionName)
+            throws MigrationConnectionException;
+
+
+    /**
+     * Saves specs of indexes before they are dropped by {@link BulkLoadScope}, so they are rebuilt after a restart
+     * @param migrationEntry migration unit in progress
+     * @param collectionName collection loaded by the unit
+     * @param indexes index specs or null when the indexes are rebuilt
+     * @throws MigrationConnectionException exception
+     */
+    void saveDeferredIndexes(MigrationEntry migrationEntry, String collectionName, List<Document> indexes)
+            throws MigrationConnectionException;
+}
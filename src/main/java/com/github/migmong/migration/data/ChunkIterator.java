@@ -0,0 +1,202 @@
+package com.github.migmong.migration.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import com.github.migmong.exception.MigrationConnectionException;
+import com.github.migmong.migration.MigrationEntry;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Sorts;
+
+/**
+ * Iterates over documents of a collection in chunks sorted by a key. When the next chunk is requested, the previous
+ * one is considered processed and a {@link MigrationCheckpoint} is saved, so an interrupted migration unit resumes
+ * after the last processed chunk.
+ * <p>The key should be indexed. If it is not {@code _id}, documents are sorted by the key and then by {@code _id},
+ * so the key may be not unique but must be present in every document.</p>
+ * <pre>
+ * ChunkIterator chunks = context.iterateChunks("users", 1000);
+ * while (chunks.hasNext())
+ * {
+ *     for (Document user : chunks.next())
+ *         ...
+ * }
+ * </pre>
+ */
+public class ChunkIterator
+{
+    public static final String ID = "_id";
+
+    private final MongoCollection<Document> collection;
+    private final Bson filter;
+    private final String keyField;
+    private final int chunkSize;
+    private final MigrationEntry migrationEntry;
+    private final CheckpointStore checkpointStore;
+
+    private String partition;
+    private Runnable beforeCheckpoint;
+    private MigrationCheckpoint checkpoint;
+    private boolean checkpointLoaded;
+    private List<Document> nextChunk;
+    private List<Document> currentChunk;
+
+
+    /**
+     * @param collection collection to iterate
+     * @param filter filter of documents or null for all documents
+     * @param keyField indexed field to sort documents
+     * @param chunkSize count of documents in one chunk
+     * @param migrationEntry migration unit which processes documents
+     * @param checkpointStore storage of checkpoints or null if the progress should not be saved
+     */
+    public ChunkIterator(MongoCollection<Document> collection, Bson filter, String keyField, int chunkSize,
+            MigrationEntry migrationEntry, CheckpointStore checkpointStore)
+    {
+        if (chunkSize <= 0)
+            throw new IllegalArgumentException("Chunk size should be positive: " + chunkSize);
+
+        this.collection = collection;
+        this.filter = filter;
+        this.keyField = keyField;
+        this.chunkSize = chunkSize;
+        this.migrationEntry = migrationEntry;
+        this.checkpointStore = checkpointStore;
+    }
+
+
+    /**
+     * Saves checkpoint of the previous chunk and checks whether there are more documents
+     * @return true if there is a next chunk
+     * @throws MigrationConnectionException if the checkpoint can not be saved or loaded
+     */
+    public boolean hasNext() throws MigrationConnectionException
+    {
+        saveCheckpoint();
+        if (nextChunk == null)
+            nextChunk = fetchChunk();
+        return !nextChunk.isEmpty();
+    }
+
+
+    /**
+     * Saves checkpoint of the previous chunk and returns the next one
+     * @return documents of the next chunk
+     * @throws MigrationConnectionException if the checkpoint can not be saved or loaded
+     * @throws NoSuchElementException if there are no more documents
+     */
+    public List<Document> next() throws MigrationConnectionException
+    {
+        if (!hasNext())
+            throw new NoSuchElementException();
+
+        currentChunk = nextChunk;
+        nextChunk = null;
+        return currentChunk;
+    }
+
+
+    /**
+     * Sets name of the partition of the collection, so the checkpoint is saved separately from checkpoints
+     * of other partitions iterated by the same migration unit
+     * @param partition name of the partition
+     */
+    public ChunkIterator setPartition(String partition)
+    {
+        this.partition = partition;
+        return this;
+    }
+
+
+    /**
+     * Sets an action which is executed before a checkpoint is saved, e.g. flushing buffered writes of the chunk
+     * @param beforeCheckpoint action
+     */
+    public ChunkIterator setBeforeCheckpoint(Runnable beforeCheckpoint)
+    {
+        this.beforeCheckpoint = beforeCheckpoint;
+        return this;
+    }
+
+
+    /**
+     * @return count of documents in the processed chunks including the ones processed before the restart
+     * @throws MigrationConnectionException if the checkpoint can not be loaded
+     */
+    public long getProcessed() throws MigrationConnectionException
+    {
+        loadCheckpoint();
+        return checkpoint != null ? checkpoint.getProcessed() : 0;
+    }
+
+
+    private List<Document> fetchChunk() throws MigrationConnectionException
+    {
+        loadCheckpoint();
+
+        List<Bson> conditions = new ArrayList<>();
+        if (filter != null)
+            conditions.add(filter);
+        if (checkpoint != null)
+            conditions.add(buildResumeFilter());
+
+        Bson query = conditions.isEmpty() ? new Document() : Filters.and(conditions);
+        Bson sort = ID.equals(keyField) ? Sorts.ascending(ID) : Sorts.ascending(keyField, ID);
+        return collection.find(query).sort(sort).limit(chunkSize).into(new ArrayList<>());
+    }
+
+
+    private Bson buildResumeFilter()
+    {
+        if (ID.equals(keyField))
+            return Filters.gt(ID, checkpoint.getLastKey());
+
+        return Filters.or(
+                Filters.gt(keyField, checkpoint.getLastKey()),
+                Filters.and(Filters.eq(keyField, checkpoint.getLastKey()), Filters.gt(ID, checkpoint.getLastId())));
+    }
+
+
+    /**
+     * @return value of the key field, a dotted key field is a path to a field of an embedded document
+     */
+    static Object getKey(Document document, String keyField)
+    {
+        return document.getEmbedded(Arrays.asList(keyField.split("\\.")), Object.class);
+    }
+
+
+    private void loadCheckpoint() throws MigrationConnectionException
+    {
+        if (checkpointLoaded)
+            return;
+
+        if (checkpointStore != null)
+            checkpoint = checkpointStore.loadCheckpoint(migrationEntry, partition);
+        checkpointLoaded = true;
+    }
+
+
+    private void saveCheckpoint() throws MigrationConnectionException
+    {
+        if (currentChunk == null)
+            return;
+
+        if (beforeCheckpoint != null)
+            beforeCheckpoint.run();
+
+        Document last = currentChunk.get(currentChunk.size() - 1);
+        long processed = (checkpoint != null ? checkpoint.getProcessed() : 0) + currentChunk.size();
+        checkpoint = new MigrationCheckpoint(getKey(last, keyField), last.get(ID), processed);
+        currentChunk = null;
+
+        if (checkpointStore != null)
+            checkpointStore.saveCheckpoint(migrationEntry, partition, checkpoint);
+    }
+}
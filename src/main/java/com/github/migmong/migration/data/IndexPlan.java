@@ -0,0 +1,303 @@
+package com.github.migmong.migration.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.conversions.Bson;
+
+import com.github.migmong.exception.MigrationException;
+import com.github.migmong.utils.MigrationExecutors;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.IndexModel;
+import com.mongodb.client.model.IndexOptions;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Declarative set of index changes. All indexes of one collection are created with a single {@code createIndexes}
+ * command, different collections are processed concurrently.
+ * <pre>
+ * context.indexes()
+ *         .createIndex("users", Indexes.ascending("email"), new IndexOptions().unique(true))
+ *         .createIndex("users", Indexes.ascending("lastName", "firstName"))
+ *         .dropIndex("orders", "status_1")
+ *         .apply();
+ * </pre>
+ * <p>Indexes which already exist with the same name, keys and options are skipped. Only unique, sparse, TTL and
+ * partial filter options are compared, indexes with any other option on either side are always sent to the server,
+ * which ignores an identical index. An existing index with the same name but other keys or options is not replaced,
+ * the server rejects it, so it should be dropped first.</p>
+ */
+@Slf4j
+public class IndexPlan
+{
+    public static final int DEFAULT_CONCURRENCY = 4;
+
+    /**
+     * Options of listed indexes which are compared or do not change the index
+     */
+    private static final Set<String> COMPARED_OPTIONS = new HashSet<>(Arrays.asList("v", "key", "name", "ns",
+            "background", "unique", "sparse", "expireAfterSeconds", "partialFilterExpression"));
+
+    private final MongoDatabase mongoDatabase;
+    private final Map<String, List<IndexModel>> createdIndexes = new LinkedHashMap<>();
+    private final Map<String, List<String>> droppedIndexes = new LinkedHashMap<>();
+    private int concurrency = DEFAULT_CONCURRENCY;
+
+
+    public IndexPlan(MongoDatabase mongoDatabase)
+    {
+        this.mongoDatabase = mongoDatabase;
+    }
+
+
+    /**
+     * @param concurrency maximum count of collections processed at once, default is {@link #DEFAULT_CONCURRENCY}
+     */
+    public IndexPlan setConcurrency(int concurrency)
+    {
+        if (concurrency <= 0)
+            throw new IllegalArgumentException("Concurrency should be positive: " + concurrency);
+
+        this.concurrency = concurrency;
+        return this;
+    }
+
+
+    public IndexPlan createIndex(String collectionName, Bson keys)
+    {
+        return createIndex(collectionName, keys, new IndexOptions());
+    }
+
+
+    public IndexPlan createIndex(String collectionName, Bson keys, IndexOptions options)
+    {
+        createdIndexes.computeIfAbsent(collectionName, name -> new ArrayList<>()).add(new IndexModel(keys, options));
+        return this;
+    }
+
+
+    /**
+     * Drops the index before indexes of the collection are created. Missing indexes are ignored.
+     */
+    public IndexPlan dropIndex(String collectionName, String indexName)
+    {
+        droppedIndexes.computeIfAbsent(collectionName, name -> new ArrayList<>()).add(indexName);
+        return this;
+    }
+
+
+    /**
+     * Applies changes of all collections. If a collection fails, the rest of collections are still processed and
+     * the exception is thrown when all of them are finished.
+     * @return changed and skipped indexes
+     * @throws MigrationException if indexes of a collection could not be changed
+     */
+    public IndexPlanResult apply() throws MigrationException
+    {
+        Set<String> collectionNames = new LinkedHashSet<>(droppedIndexes.keySet());
+        collectionNames.addAll(createdIndexes.keySet());
+        IndexPlanResult result = new IndexPlanResult();
+        if (collectionNames.isEmpty())
+            return result;
+
+        ExecutorService executor = MigrationExecutors.newBoundedExecutor(
+                Math.min(concurrency, collectionNames.size()), "migmong-index");
+        Map<String, Future<IndexPlanResult>> results = new LinkedHashMap<>();
+        try
+        {
+            for (String collectionName : collectionNames)
+                results.put(collectionName, executor.submit(() -> applyToCollection(collectionName)));
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+
+        Throwable failure = null;
+        String failedCollection = null;
+        for (Map.Entry<String, Future<IndexPlanResult>> collectionResult : results.entrySet())
+        {
+            try
+            {
+                result.add(collectionResult.getValue().get());
+            }
+            catch (ExecutionException e)
+            {
+                if (failure == null)
+                {
+                    failure = e.getCause();
+                    failedCollection = collectionResult.getKey();
+                }
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                if (failure == null)
+                {
+                    failure = e;
+                    failedCollection = collectionResult.getKey();
+                }
+            }
+        }
+
+        if (failure != null)
+            throw new MigrationException("Indexes of " + failedCollection + " could not be changed: " + failure,
+                    failure);
+
+        log.info("Indexes created: {}, skipped: {}, dropped: {}", result.getCreated(), result.getSkipped(),
+                result.getDropped());
+        return result;
+    }
+
+
+    private IndexPlanResult applyToCollection(String collectionName)
+    {
+        MongoCollection<Document> collection = mongoDatabase.getCollection(collectionName);
+        CodecRegistry codecRegistry = collection.getCodecRegistry();
+        IndexPlanResult result = new IndexPlanResult();
+
+        Map<String, Document> existingIndexes = new HashMap<>();
+        for (Document index : collection.listIndexes())
+            existingIndexes.put(index.getString("name"), index);
+
+        for (String indexName : droppedIndexes.getOrDefault(collectionName, new ArrayList<>()))
+        {
+            if (existingIndexes.remove(indexName) == null)
+                continue;
+
+            collection.dropIndex(indexName);
+            result.getDropped().add(collectionName + "." + indexName);
+        }
+
+        List<IndexModel> models = new ArrayList<>();
+        for (IndexModel model : createdIndexes.getOrDefault(collectionName, new ArrayList<>()))
+        {
+            BsonDocument keys = model.getKeys().toBsonDocument(BsonDocument.class, codecRegistry);
+            String indexName = model.getOptions().getName() != null
+                    ? model.getOptions().getName()
+                    : generateIndexName(keys);
+            Document existingIndex = existingIndexes.get(indexName);
+            if (existingIndex != null && isSameIndex(existingIndex, keys, model.getOptions(), codecRegistry))
+            {
+                result.getSkipped().add(collectionName + "." + indexName);
+            }
+            else
+            {
+                models.add(model);
+                result.getCreated().add(collectionName + "." + indexName);
+            }
+        }
+
+        if (!models.isEmpty())
+            collection.createIndexes(models);
+        return result;
+    }
+
+
+    /**
+     * Generates the same name as the driver and the server do, e.g. {@code lastName_1_firstName_1}
+     */
+    static String generateIndexName(BsonDocument keys)
+    {
+        StringBuilder indexName = new StringBuilder();
+        for (Map.Entry<String, BsonValue> key : keys.entrySet())
+        {
+            if (indexName.length() > 0)
+                indexName.append('_');
+            indexName.append(key.getKey()).append('_');
+
+            BsonValue value = key.getValue();
+            if (value.isNumber())
+                indexName.append(value.asNumber().intValue());
+            else if (value.isString())
+                indexName.append(value.asString().getValue().replace(' ', '_'));
+        }
+        return indexName.toString();
+    }
+
+
+    static boolean isSameIndex(Document index, BsonDocument keys, IndexOptions options, CodecRegistry codecRegistry)
+    {
+        BsonDocument indexKeys = ((Document)index.get("key")).toBsonDocument(Document.class, codecRegistry);
+        if (!isSameKeys(indexKeys, keys) || !COMPARED_OPTIONS.containsAll(index.keySet()) ||
+                hasUncomparedOptions(options))
+            return false;
+
+        Object expireAfterSeconds = index.get("expireAfterSeconds");
+        Object partialFilter = index.get("partialFilterExpression");
+        return isTrue(index.get("unique")) == options.isUnique() &&
+                isTrue(index.get("sparse")) == options.isSparse() &&
+                Objects.equals(expireAfterSeconds instanceof Number ? ((Number)expireAfterSeconds).longValue() : null,
+                        options.getExpireAfter(TimeUnit.SECONDS)) &&
+                Objects.equals(partialFilter instanceof Document
+                                ? ((Document)partialFilter).toBsonDocument(Document.class, codecRegistry)
+                                : null,
+                        options.getPartialFilterExpression() != null
+                                ? options.getPartialFilterExpression()
+                                        .toBsonDocument(BsonDocument.class, codecRegistry)
+                                : null);
+    }
+
+
+    private static boolean hasUncomparedOptions(IndexOptions options)
+    {
+        return options.getVersion() != null || options.getWeights() != null ||
+                options.getDefaultLanguage() != null || options.getLanguageOverride() != null ||
+                options.getTextVersion() != null || options.getSphereVersion() != null || options.getBits() != null ||
+                options.getMin() != null || options.getMax() != null || options.getBucketSize() != null ||
+                options.getStorageEngine() != null || options.getCollation() != null ||
+                options.getWildcardProjection() != null;
+    }
+
+
+    /**
+     * Order of keys matters, numeric directions are compared by value since the server may return them as doubles
+     */
+    private static boolean isSameKeys(BsonDocument left, BsonDocument right)
+    {
+        if (left.size() != right.size())
+            return false;
+
+        Iterator<Map.Entry<String, BsonValue>> rightKeys = right.entrySet().iterator();
+        for (Map.Entry<String, BsonValue> leftKey : left.entrySet())
+        {
+            Map.Entry<String, BsonValue> rightKey = rightKeys.next();
+            if (!leftKey.getKey().equals(rightKey.getKey()))
+                return false;
+
+            BsonValue leftValue = leftKey.getValue();
+            BsonValue rightValue = rightKey.getValue();
+            boolean same = leftValue.isNumber() && rightValue.isNumber()
+                    ? leftValue.asNumber().doubleValue() == rightValue.asNumber().doubleValue()
+                    : leftValue.equals(rightValue);
+            if (!same)
+                return false;
+        }
+        return true;
+    }
+
+
+    private static boolean isTrue(Object value)
+    {
+        return value instanceof Boolean && (Boolean)value;
+    }
+}
@@ -0,0 +1,25 @@
+package com.github.migmong.migration.data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import lombok.Data;
+
+/**
+ * Indexes changed by {@link IndexPlan}, every index is named as {@code collection.index}
+ */
+@Data
+public class IndexPlanResult
+{
+    private final List<String> created = new ArrayList<>();
+    private final List<String> skipped = new ArrayList<>();
+    private final List<String> dropped = new ArrayList<>();
+
+
+    void add(IndexPlanResult result)
+    {
+        created.addAll(result.created);
+        skipped.addAll(result.skipped);
+        dropped.addAll(result.dropped);
+    }
+}
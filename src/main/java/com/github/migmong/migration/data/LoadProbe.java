@@ -0,0 +1,19 @@
+package com.github.migmong.migration.data;
+
+/**
+ * Source of the cluster load used by {@link WriteThrottle}
+ */
+@FunctionalInterface
+public interface LoadProbe
+{
+    /**
+     * Probe of a standalone server which has no replication lag, only write latency is throttled
+     */
+    LoadProbe STANDALONE = () -> 0;
+
+
+    /**
+     * @return current replication lag of the most lagging secondary in milliseconds
+     */
+    long getReplicationLagMillis();
+}
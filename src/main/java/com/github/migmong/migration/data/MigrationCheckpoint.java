@@ -0,0 +1,37 @@
+package com.github.migmong.migration.data;
+
+import org.bson.Document;
+
+import lombok.Data;
+
+/**
+ * Progress of a chunked migration unit: the key of the last processed document and count of processed documents
+ */
+@Data
+public class MigrationCheckpoint
+{
+    public static final String LAST_KEY = "lastKey";
+    public static final String LAST_ID = "lastId";
+    public static final String PROCESSED = "processed";
+
+    private final Object lastKey;
+    private final Object lastId;
+    private final long processed;
+
+
+    public Document buildFullDBObject()
+    {
+        return new Document()
+                .append(LAST_KEY, lastKey)
+                .append(LAST_ID, lastId)
+                .append(PROCESSED, processed);
+    }
+
+
+    public static MigrationCheckpoint from(Document checkpoint)
+    {
+        Number processed = (Number)checkpoint.get(PROCESSED);
+        return new MigrationCheckpoint(checkpoint.get(LAST_KEY), checkpoint.get(LAST_ID),
+                processed != null ? processed.longValue() : 0);
+    }
+}
@@ -0,0 +1,15 @@
+package com.github.migmong.migration.data;
+
+import java.util.List;
+
+import org.bson.Document;
+
+/**
+ * Processes chunks of one partition of {@link PartitionedScan}. Chunks of different partitions are processed
+ * concurrently.
+ */
+@FunctionalInterface
+public interface PartitionConsumer
+{
+    void accept(ScanPartition partition, List<Document> chunk) throws Exception;
+}
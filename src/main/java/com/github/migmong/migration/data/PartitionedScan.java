@@ -0,0 +1,393 @@
+package com.github.migmong.migration.data;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+
+import com.github.migmong.exception.MigrationException;
+import com.github.migmong.migration.MigrationEntry;
+import com.github.migmong.utils.MigrationExecutors;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Sorts;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Splits a collection into key ranges and processes them concurrently, every range with its own cursor and thread.
+ * Every partition is iterated in chunks by {@link ChunkIterator} and saves its own checkpoint, boundaries of
+ * partitions are saved too, so a restarted migration unit resumes every partition where it stopped.
+ * <pre>
+ * PartitionedScanResult result = context.partitionedScan("users", 8)
+ *         .forEachChunk((partition, chunk) -&gt; ...);
+ * </pre>
+ * <p>Boundaries are taken from split points set by the user or computed by {@link SplitStrategy}.</p>
+ */
+@Slf4j
+public class PartitionedScan
+{
+    public static final int DEFAULT_CHUNK_SIZE = 1000;
+
+    private static final int SAMPLES_PER_PARTITION = 20;
+
+    /**
+     * How boundaries of partitions are computed
+     */
+    public enum SplitStrategy
+    {
+        /**
+         * Splits the range between minimum and maximum keys evenly. Works for numbers, dates and object ids,
+         * other keys are sampled.
+         */
+        MIN_MAX,
+        /**
+         * Takes quantiles of randomly sampled keys, which suits unevenly distributed keys
+         */
+        SAMPLE
+    }
+
+    private final MongoDatabase mongoDatabase;
+    private final String collectionName;
+    private final int partitions;
+    private final MigrationEntry migrationEntry;
+    private final CheckpointStore checkpointStore;
+    private final List<ScanPartition> scanPartitions = new CopyOnWriteArrayList<>();
+
+    private Bson filter;
+    private String keyField = ChunkIterator.ID;
+    private int chunkSize = DEFAULT_CHUNK_SIZE;
+    private SplitStrategy splitStrategy = SplitStrategy.SAMPLE;
+    private List<Object> splitPoints;
+    private WriteThrottle writeThrottle;
+
+
+    /**
+     * @param mongoDatabase database of the collection
+     * @param collectionName collection to process
+     * @param partitions maximum count of partitions which are processed concurrently
+     * @param migrationEntry migration unit which processes the collection
+     * @param checkpointStore storage of checkpoints or null if the progress should not be saved
+     */
+    public PartitionedScan(MongoDatabase mongoDatabase, String collectionName, int partitions,
+            MigrationEntry migrationEntry, CheckpointStore checkpointStore)
+    {
+        if (partitions <= 0)
+            throw new IllegalArgumentException("Count of partitions should be positive: " + partitions);
+
+        this.mongoDatabase = mongoDatabase;
+        this.collectionName = collectionName;
+        this.partitions = partitions;
+        this.migrationEntry = migrationEntry;
+        this.checkpointStore = checkpointStore;
+    }
+
+
+    /**
+     * @param filter filter of documents, default is all documents
+     */
+    public PartitionedScan setFilter(Bson filter)
+    {
+        this.filter = filter;
+        return this;
+    }
+
+
+    /**
+     * @param keyField indexed field which is present in every document, default is {@code _id}
+     */
+    public PartitionedScan setKeyField(String keyField)
+    {
+        this.keyField = keyField;
+        return this;
+    }
+
+
+    /**
+     * @param chunkSize count of documents in one chunk, default is {@link #DEFAULT_CHUNK_SIZE}
+     */
+    public PartitionedScan setChunkSize(int chunkSize)
+    {
+        this.chunkSize = chunkSize;
+        return this;
+    }
+
+
+    /**
+     * @param splitStrategy how boundaries of partitions are computed, default is {@link SplitStrategy#SAMPLE}
+     */
+    public PartitionedScan setSplitStrategy(SplitStrategy splitStrategy)
+    {
+        this.splitStrategy = splitStrategy;
+        return this;
+    }
+
+
+    /**
+     * Sets boundaries of partitions explicitly instead of computing them
+     * @param splitPoints sorted keys, every key is the lower boundary of the next partition
+     */
+    public PartitionedScan setSplitPoints(List<Object> splitPoints)
+    {
+        this.splitPoints = splitPoints;
+        return this;
+    }
+
+
+    /**
+     * @param writeThrottle throttle of writes of partition bulk writers, default is no throttling
+     */
+    public PartitionedScan setWriteThrottle(WriteThrottle writeThrottle)
+    {
+        this.writeThrottle = writeThrottle;
+        return this;
+    }
+
+
+    /**
+     * @return partitions of the current scan with their progress
+     */
+    public List<ScanPartition> getPartitions()
+    {
+        return Collections.unmodifiableList(scanPartitions);
+    }
+
+
+    /**
+     * Processes all chunks of all partitions. If processing of a chunk fails, other partitions stop after their
+     * current chunks and the exception is thrown when all of them are stopped.
+     * @param consumer processor of chunks, it is called concurrently for different partitions
+     * @return combined result of all partitions
+     * @throws MigrationException if a chunk could not be processed
+     */
+    public PartitionedScanResult forEachChunk(PartitionConsumer consumer) throws MigrationException
+    {
+        MongoCollection<Document> collection = mongoDatabase.getCollection(collectionName);
+        List<Object> bounds = resolveSplitPoints(collection);
+
+        scanPartitions.clear();
+        for (int i = 0; i <= bounds.size(); i++)
+        {
+            scanPartitions.add(new ScanPartition(i, i > 0 ? bounds.get(i - 1) : null,
+                    i < bounds.size() ? bounds.get(i) : null, mongoDatabase, writeThrottle));
+        }
+        log.debug("Scanning {} in {} partitions", collectionName, scanPartitions.size());
+
+        AtomicBoolean failed = new AtomicBoolean();
+        ExecutorService executor = MigrationExecutors.newBoundedExecutor(scanPartitions.size(), "migmong-scan");
+        List<Future<?>> results = new ArrayList<>();
+        try
+        {
+            for (ScanPartition partition : scanPartitions)
+            {
+                results.add(executor.submit(() -> {
+                    scanPartition(collection, partition, consumer, failed);
+                    return null;
+                }));
+            }
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+
+        Throwable failure = null;
+        for (Future<?> result : results)
+        {
+            try
+            {
+                result.get();
+            }
+            catch (ExecutionException e)
+            {
+                if (failure == null)
+                    failure = e.getCause();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                failed.set(true);
+                if (failure == null)
+                    failure = e;
+            }
+        }
+
+        if (failure != null)
+            throw new MigrationException("Partitioned scan of " + collectionName + " failed: " + failure, failure);
+
+        return new PartitionedScanResult(new ArrayList<>(scanPartitions));
+    }
+
+
+    private void scanPartition(MongoCollection<Document> collection, ScanPartition partition,
+            PartitionConsumer consumer, AtomicBoolean failed) throws Exception
+    {
+        ChunkIterator chunks = new ChunkIterator(collection, buildRangeFilter(partition), keyField, chunkSize,
+                migrationEntry, checkpointStore)
+                .setPartition(String.valueOf(partition.getIndex()))
+                .setBeforeCheckpoint(partition::flushBulkWriters);
+        try
+        {
+            while (chunks.hasNext() && !failed.get())
+            {
+                partition.setProcessed(chunks.getProcessed());
+                consumer.accept(partition, chunks.next());
+            }
+            partition.setProcessed(chunks.getProcessed());
+            log.debug("Partition {} of {} is finished", partition, collectionName);
+        }
+        catch (Exception e)
+        {
+            failed.set(true);
+            throw e;
+        }
+    }
+
+
+    private Bson buildRangeFilter(ScanPartition partition)
+    {
+        List<Bson> conditions = new ArrayList<>();
+        if (filter != null)
+            conditions.add(filter);
+        if (partition.getLowerBound() != null)
+            conditions.add(Filters.gte(keyField, partition.getLowerBound()));
+        if (partition.getUpperBound() != null)
+            conditions.add(Filters.lt(keyField, partition.getUpperBound()));
+        return conditions.isEmpty() ? null : Filters.and(conditions);
+    }
+
+
+    /**
+     * Takes split points set by the user, then the ones saved by the interrupted run, and only then computes them
+     */
+    private List<Object> resolveSplitPoints(MongoCollection<Document> collection) throws MigrationException
+    {
+        if (splitPoints != null)
+            return splitPoints;
+
+        if (checkpointStore != null)
+        {
+            List<Object> savedSplitPoints = checkpointStore.loadSplitPoints(migrationEntry);
+            if (savedSplitPoints != null)
+                return savedSplitPoints;
+        }
+
+        List<Object> computedSplitPoints = partitions > 1 ? computeSplitPoints(collection) : new ArrayList<>();
+        if (checkpointStore != null)
+            checkpointStore.saveSplitPoints(migrationEntry, computedSplitPoints);
+        return computedSplitPoints;
+    }
+
+
+    private List<Object> computeSplitPoints(MongoCollection<Document> collection)
+    {
+        if (splitStrategy == SplitStrategy.MIN_MAX)
+        {
+            Object min = findBoundaryKey(collection, 1);
+            Object max = findBoundaryKey(collection, -1);
+            List<Object> interpolated = interpolate(min, max);
+            if (interpolated != null)
+                return interpolated;
+
+            log.debug("Keys of {} can not be interpolated, sampling them", collectionName);
+        }
+        return sample(collection);
+    }
+
+
+    private Object findBoundaryKey(MongoCollection<Document> collection, int direction)
+    {
+        Document document = collection.find(filter != null ? filter : new Document())
+                .sort(direction > 0 ? Sorts.ascending(keyField) : Sorts.descending(keyField))
+                .projection(Projections.include(keyField))
+                .first();
+        return document != null ? ChunkIterator.getKey(document, keyField) : null;
+    }
+
+
+    private List<Object> interpolate(Object min, Object max)
+    {
+        List<Object> points = new ArrayList<>();
+        if (min instanceof Number && max instanceof Number)
+        {
+            boolean integral = !(min instanceof Double || max instanceof Double || min instanceof Float ||
+                    max instanceof Float);
+            double from = ((Number)min).doubleValue();
+            double to = ((Number)max).doubleValue();
+            for (int i = 1; i < partitions; i++)
+            {
+                double point = from + (to - from) * i / partitions;
+                points.add(integral ? (Object)(long)Math.ceil(point) : (Object)point);
+            }
+        }
+        else if (min instanceof Date && max instanceof Date)
+        {
+            long from = ((Date)min).getTime();
+            long to = ((Date)max).getTime();
+            for (int i = 1; i < partitions; i++)
+                points.add(new Date(from + (to - from) * i / partitions));
+        }
+        else if (min instanceof ObjectId && max instanceof ObjectId)
+        {
+            long from = ((ObjectId)min).getTimestamp();
+            long to = ((ObjectId)max).getTimestamp();
+            for (int i = 1; i < partitions; i++)
+                points.add(new ObjectId(String.format("%08x%016x", from + (to - from) * i / partitions, 0)));
+        }
+        else
+        {
+            return null;
+        }
+        return distinct(points);
+    }
+
+
+    private List<Object> sample(MongoCollection<Document> collection)
+    {
+        List<Bson> pipeline = new ArrayList<>();
+        if (filter != null)
+            pipeline.add(Aggregates.match(filter));
+        pipeline.add(Aggregates.sample(partitions * SAMPLES_PER_PARTITION));
+        pipeline.add(Aggregates.project(Projections.include(keyField)));
+        pipeline.add(Aggregates.sort(Sorts.ascending(keyField)));
+
+        List<Object> keys = new ArrayList<>();
+        for (Document document : collection.aggregate(pipeline))
+            keys.add(ChunkIterator.getKey(document, keyField));
+
+        List<Object> points = new ArrayList<>();
+        if (keys.size() < partitions)
+            return points;
+
+        for (int i = 1; i < partitions; i++)
+            points.add(keys.get(i * keys.size() / partitions));
+        return distinct(points);
+    }
+
+
+    /**
+     * Equal split points would produce empty partitions
+     */
+    private List<Object> distinct(List<Object> points)
+    {
+        List<Object> distinctPoints = new ArrayList<>();
+        for (Object point : points)
+        {
+            if (distinctPoints.isEmpty() || !distinctPoints.get(distinctPoints.size() - 1).equals(point))
+                distinctPoints.add(point);
+        }
+        return distinctPoints;
+    }
+}
@@ -0,0 +1,26 @@
+package com.github.migmong.migration.data;
+
+import java.util.List;
+
+import lombok.Data;
+
+/**
+ * Combined result of all partitions of {@link PartitionedScan}
+ */
+@Data
+public class PartitionedScanResult
+{
+    private final List<ScanPartition> partitions;
+    private final long processed;
+    private final BulkWriteSummary writeSummary;
+
+
+    PartitionedScanResult(List<ScanPartition> partitions)
+    {
+        this.partitions = partitions;
+        this.processed = partitions.stream().mapToLong(ScanPartition::getProcessed).sum();
+        this.writeSummary = new BulkWriteSummary();
+        for (ScanPartition partition : partitions)
+            writeSummary.add(partition.getWriteSummary());
+    }
+}
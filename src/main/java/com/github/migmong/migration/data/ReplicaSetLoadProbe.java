@@ -0,0 +1,88 @@
+package com.github.migmong.migration.data;
+
+import java.util.Date;
+import java.util.List;
+
+import org.bson.Document;
+
+import com.mongodb.MongoCommandException;
+import com.mongodb.client.MongoDatabase;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Takes replication lag from {@code replSetGetStatus} command. If the server is not a member of a replica set
+ * or the command is not permitted, the probe switches to {@link LoadProbe#STANDALONE} mode.
+ */
+@Slf4j
+public class ReplicaSetLoadProbe implements LoadProbe
+{
+    private static final int PRIMARY = 1;
+    private static final int SECONDARY = 2;
+
+    private final MongoDatabase adminDatabase;
+    private volatile boolean standalone;
+
+
+    /**
+     * @param adminDatabase 'admin' database of the cluster
+     */
+    public ReplicaSetLoadProbe(MongoDatabase adminDatabase)
+    {
+        this.adminDatabase = adminDatabase;
+    }
+
+
+    @Override
+    public long getReplicationLagMillis()
+    {
+        if (standalone)
+            return 0;
+
+        Document status;
+        try
+        {
+            status = adminDatabase.runCommand(new Document("replSetGetStatus", 1));
+        }
+        catch (MongoCommandException e)
+        {
+            log.info("Replication lag is not available, only write latency is throttled: {}", e.getErrorMessage());
+            standalone = true;
+            return 0;
+        }
+        return computeLag(status.getList("members", Document.class));
+    }
+
+
+    /**
+     * @return whether the probe has switched to standalone mode
+     */
+    public boolean isStandalone()
+    {
+        return standalone;
+    }
+
+
+    static long computeLag(List<Document> members)
+    {
+        Date primaryOptime = null;
+        Date oldestSecondaryOptime = null;
+        for (Document member : members)
+        {
+            Date optime = member.getDate("optimeDate");
+            Number state = (Number)member.get("state");
+            if (optime == null || state == null)
+                continue;
+
+            if (state.intValue() == PRIMARY)
+                primaryOptime = optime;
+            else if (state.intValue() == SECONDARY &&
+                    (oldestSecondaryOptime == null || optime.before(oldestSecondaryOptime)))
+                oldestSecondaryOptime = optime;
+        }
+
+        if (primaryOptime == null || oldestSecondaryOptime == null)
+            return 0;
+        return Math.max(0, primaryOptime.getTime() - oldestSecondaryOptime.getTime());
+    }
+}
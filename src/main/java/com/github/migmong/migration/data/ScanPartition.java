@@ -0,0 +1,90 @@
+package com.github.migmong.migration.data;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.mongodb.client.MongoDatabase;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+
+/**
+ * Key range of a collection processed by {@link PartitionedScan} on its own thread and cursor
+ */
+@Getter
+public class ScanPartition
+{
+    private final int index;
+    /**
+     * Inclusive lower boundary of keys or null for the first partition
+     */
+    private final Object lowerBound;
+    /**
+     * Exclusive upper boundary of keys or null for the last partition
+     */
+    private final Object upperBound;
+    @Getter(AccessLevel.NONE)
+    private final MongoDatabase mongoDatabase;
+    @Getter(AccessLevel.NONE)
+    private final WriteThrottle writeThrottle;
+    @Getter(AccessLevel.NONE)
+    private final Map<String, BulkWriter> bulkWriters = new LinkedHashMap<>();
+    private volatile long processed;
+
+
+    ScanPartition(int index, Object lowerBound, Object upperBound, MongoDatabase mongoDatabase,
+            WriteThrottle writeThrottle)
+    {
+        this.index = index;
+        this.lowerBound = lowerBound;
+        this.upperBound = upperBound;
+        this.mongoDatabase = mongoDatabase;
+        this.writeThrottle = writeThrottle;
+    }
+
+
+    /**
+     * Returns bulk writer of this partition for the collection. Buffered writes are flushed before every
+     * checkpoint of the partition.
+     * @param collectionName collection to write
+     * @return bulk writer
+     */
+    public BulkWriter bulkWriter(String collectionName)
+    {
+        return bulkWriters.computeIfAbsent(collectionName,
+                name -> new BulkWriter(mongoDatabase.getCollection(name)).setWriteThrottle(writeThrottle));
+    }
+
+
+    /**
+     * @return aggregate result of bulk writes of this partition
+     */
+    public BulkWriteSummary getWriteSummary()
+    {
+        BulkWriteSummary summary = new BulkWriteSummary();
+        for (BulkWriter bulkWriter : new ArrayList<>(bulkWriters.values()))
+            summary.add(bulkWriter.getSummary());
+        return summary;
+    }
+
+
+    void flushBulkWriters()
+    {
+        for (BulkWriter bulkWriter : bulkWriters.values())
+            bulkWriter.flush();
+    }
+
+
+    void setProcessed(long processed)
+    {
+        this.processed = processed;
+    }
+
+
+    @Override
+    public String toString()
+    {
+        return "[partition=" + index + ", from=" + lowerBound + ", to=" + upperBound + ", processed=" + processed + "]";
+    }
+}
@@ -0,0 +1,300 @@
+package com.github.migmong.migration.data;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import com.github.migmong.exception.MigrationConnectionException;
+import com.github.migmong.migration.MigrationEntry;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.MergeOptions;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.result.UpdateResult;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Transformation of a collection executed on the server, documents are not transferred to the client. Documents
+ * are transformed by an aggregation pipeline and written with {@code $merge} or {@code $out}, or updated in place
+ * with a pipeline-style {@code updateMany}.
+ * <pre>
+ * context.serverSideTransform("users")
+ *         .setPipeline(Collections.singletonList(Aggregates.set(new Field&lt;&gt;("fullName", "$name"))))
+ *         .mergeInto("users", new MergeOptions().whenMatched(MergeOptions.WhenMatched.MERGE))
+ *         .setChunkSize(50000)
+ *         .execute();
+ * </pre>
+ * <p>With a chunk size the collection is processed in ranges of a unique indexed key, every range is a separate
+ * command followed by a {@link MigrationCheckpoint}, so an interrupted unit resumes after the last range and writes
+ * are throttled by {@link WriteThrottle}. Boundaries of ranges are found by reading keys only.</p>
+ * <p>{@code $merge} and {@code $out} return no documents, so processed documents of a range are counted with an
+ * extra query. Without chunks it would be one more pass over the collection, so documents are counted only if
+ * {@link #setCountProcessed(boolean)} is set.</p>
+ */
+@Slf4j
+public class ServerSideTransform
+{
+    private enum Mode
+    {
+        MERGE, OUT, UPDATE
+    }
+
+    private final MongoDatabase mongoDatabase;
+    private final String collectionName;
+    private final MigrationEntry migrationEntry;
+    private final CheckpointStore checkpointStore;
+
+    private Bson filter;
+    private List<Bson> pipeline = Collections.emptyList();
+    private Mode mode;
+    private String targetCollectionName;
+    private MergeOptions mergeOptions;
+    private List<Bson> update;
+    private String keyField = ChunkIterator.ID;
+    private int chunkSize;
+    private WriteThrottle writeThrottle;
+    private boolean countProcessed;
+
+
+    /**
+     * @param mongoDatabase database of the collection
+     * @param collectionName source collection
+     * @param migrationEntry migration unit which executes the transformation
+     * @param checkpointStore storage of checkpoints or null if the progress should not be saved
+     */
+    public ServerSideTransform(MongoDatabase mongoDatabase, String collectionName, MigrationEntry migrationEntry,
+            CheckpointStore checkpointStore)
+    {
+        this.mongoDatabase = mongoDatabase;
+        this.collectionName = collectionName;
+        this.migrationEntry = migrationEntry;
+        this.checkpointStore = checkpointStore;
+    }
+
+
+    /**
+     * @param filter filter of source documents, default is all documents
+     */
+    public ServerSideTransform setFilter(Bson filter)
+    {
+        this.filter = filter;
+        return this;
+    }
+
+
+    /**
+     * @param pipeline aggregation stages applied to source documents before {@code $merge} or {@code $out}
+     */
+    public ServerSideTransform setPipeline(List<Bson> pipeline)
+    {
+        this.pipeline = pipeline;
+        return this;
+    }
+
+
+    /**
+     * Writes results of the pipeline with {@code $merge}
+     * @param targetCollectionName target collection, it may be the source collection
+     * @param mergeOptions options of {@code $merge}
+     */
+    public ServerSideTransform mergeInto(String targetCollectionName, MergeOptions mergeOptions)
+    {
+        this.mode = Mode.MERGE;
+        this.targetCollectionName = targetCollectionName;
+        this.mergeOptions = mergeOptions;
+        return this;
+    }
+
+
+    /**
+     * Replaces the target collection with results of the pipeline with {@code $out}, it can not be chunked
+     * @param targetCollectionName target collection
+     */
+    public ServerSideTransform outInto(String targetCollectionName)
+    {
+        this.mode = Mode.OUT;
+        this.targetCollectionName = targetCollectionName;
+        return this;
+    }
+
+
+    /**
+     * Updates source documents in place with {@code updateMany}, the pipeline set by {@link #setPipeline} is ignored
+     * @param update pipeline-style update, e.g. {@code $set} and {@code $unset} stages
+     */
+    public ServerSideTransform updateWith(List<Bson> update)
+    {
+        this.mode = Mode.UPDATE;
+        this.update = update;
+        return this;
+    }
+
+
+    /**
+     * @param keyField unique indexed field which splits the collection into ranges, default is {@code _id}
+     */
+    public ServerSideTransform setKeyField(String keyField)
+    {
+        this.keyField = keyField;
+        return this;
+    }
+
+
+    /**
+     * @param chunkSize count of documents in one range, default is 0 which means one command for the collection
+     */
+    public ServerSideTransform setChunkSize(int chunkSize)
+    {
+        if (chunkSize < 0)
+            throw new IllegalArgumentException("Chunk size should not be negative: " + chunkSize);
+
+        this.chunkSize = chunkSize;
+        return this;
+    }
+
+
+    /**
+     * @param writeThrottle throttle of chunks, default is no throttling
+     */
+    public ServerSideTransform setWriteThrottle(WriteThrottle writeThrottle)
+    {
+        this.writeThrottle = writeThrottle;
+        return this;
+    }
+
+
+    /**
+     * @param countProcessed count documents transformed with {@code $merge} or {@code $out} without chunks, it is
+     * an extra pass over the source collection. Default is false, chunks are always counted.
+     */
+    public ServerSideTransform setCountProcessed(boolean countProcessed)
+    {
+        this.countProcessed = countProcessed;
+        return this;
+    }
+
+
+    /**
+     * Executes the transformation. Count of processed documents is added to the migration entry.
+     * @return counts and duration
+     * @throws MigrationConnectionException if the checkpoint could not be saved or loaded
+     */
+    public ServerSideTransformResult execute() throws MigrationConnectionException
+    {
+        if (mode == null)
+            throw new IllegalStateException("Target of transformation of " + collectionName + " is not set");
+        if (mode == Mode.OUT && chunkSize > 0)
+            throw new IllegalStateException("$out replaces the whole collection and can not be chunked");
+
+        long started = System.nanoTime();
+        MongoCollection<Document> collection = mongoDatabase.getCollection(collectionName);
+        MigrationCheckpoint checkpoint = chunkSize > 0 && checkpointStore != null
+                ? checkpointStore.loadCheckpoint(migrationEntry)
+                : null;
+        long processedBefore = checkpoint != null ? checkpoint.getProcessed() : 0;
+
+        ServerSideTransformResult result = new ServerSideTransformResult();
+        result.setProcessed(processedBefore);
+        // The log entry of a resumed unit counts chunks processed before the restart too
+        if (migrationEntry != null && processedBefore > 0)
+            migrationEntry.addProcessedDocuments(processedBefore);
+        Object lowerKey = checkpoint != null ? checkpoint.getLastKey() : null;
+        boolean lastChunk = false;
+        while (!lastChunk)
+        {
+            Object upperKey = chunkSize > 0 ? findUpperKey(collection, lowerKey) : null;
+            lastChunk = upperKey == null;
+            Bson range = buildRangeFilter(lowerKey, upperKey);
+
+            if (writeThrottle != null)
+                writeThrottle.acquire(chunkSize > 0 ? chunkSize : 1);
+            long chunkStarted = System.nanoTime();
+            long processed = transform(collection, range, result);
+            if (writeThrottle != null)
+                writeThrottle.recordLatency(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - chunkStarted));
+
+            result.setProcessed(result.getProcessed() + processed);
+            result.setChunks(result.getChunks() + 1);
+            if (migrationEntry != null)
+                migrationEntry.addProcessedDocuments(processed);
+            if (!lastChunk && checkpointStore != null)
+            {
+                checkpointStore.saveCheckpoint(migrationEntry,
+                        new MigrationCheckpoint(upperKey, upperKey, result.getProcessed()));
+            }
+            lowerKey = upperKey;
+        }
+
+        result.setElapsedMillis(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+        log.info("{} transformed {} documents of {} in {} chunks, {} ms", migrationEntry,
+                result.getProcessed() - processedBefore, collectionName, result.getChunks(),
+                result.getElapsedMillis());
+        return result;
+    }
+
+
+    /**
+     * @return key of the last document of the range starting after the lower key or null if the range is the last
+     */
+    private Object findUpperKey(MongoCollection<Document> collection, Object lowerKey)
+    {
+        Document upper = collection.find(buildRangeFilter(lowerKey, null))
+                .sort(Sorts.ascending(keyField))
+                .projection(Projections.include(keyField))
+                .skip(chunkSize - 1)
+                .limit(1)
+                .first();
+        if (upper == null)
+            return null;
+
+        // The range which ends with the last document is the last one
+        Document next = collection.find(buildRangeFilter(upper.get(keyField), null))
+                .projection(Projections.include(keyField))
+                .limit(1)
+                .first();
+        return next != null ? upper.get(keyField) : null;
+    }
+
+
+    private long transform(MongoCollection<Document> collection, Bson range, ServerSideTransformResult result)
+    {
+        if (mode == Mode.UPDATE)
+        {
+            UpdateResult updateResult = collection.updateMany(range, update);
+            result.setModified(result.getModified() + updateResult.getModifiedCount());
+            return updateResult.getMatchedCount();
+        }
+
+        // Aggregations with $merge and $out return no documents, processed documents are counted on the server
+        long processed = chunkSize > 0 || countProcessed ? collection.countDocuments(range) : 0;
+        List<Bson> stages = new ArrayList<>();
+        stages.add(Aggregates.match(range));
+        stages.addAll(pipeline);
+        stages.add(mode == Mode.MERGE
+                ? Aggregates.merge(targetCollectionName, mergeOptions)
+                : Aggregates.out(targetCollectionName));
+        collection.aggregate(stages).toCollection();
+        return processed;
+    }
+
+
+    private Bson buildRangeFilter(Object lowerKey, Object upperKey)
+    {
+        List<Bson> conditions = new ArrayList<>();
+        if (filter != null)
+            conditions.add(filter);
+        if (lowerKey != null)
+            conditions.add(Filters.gt(keyField, lowerKey));
+        if (upperKey != null)
+            conditions.add(Filters.lte(keyField, upperKey));
+        return conditions.isEmpty() ? new Document() : Filters.and(conditions);
+    }
+}
@@ -0,0 +1,16 @@
+package com.github.migmong.migration.data;
+
+import lombok.Data;
+
+/**
+ * Result of {@link ServerSideTransform}. Counts include chunks processed before a restart. Documents transformed
+ * with {@code $merge} or {@code $out} without chunks are counted only if it is requested.
+ */
+@Data
+public class ServerSideTransformResult
+{
+    private long processed;
+    private long modified;
+    private int chunks;
+    private long elapsedMillis;
+}
@@ -0,0 +1,25 @@
+package com.github.migmong.migration.data;
+
+import org.bson.conversions.Bson;
+
+import lombok.Data;
+
+/**
+ * Declared {@code updateMany} of a collection. A migration unit which returns {@link UpdateSpec} does not execute
+ * the update itself, so consecutive declared updates of one collection are fused by {@link UpdateSpecBatch} into
+ * fewer passes over the collection.
+ * <pre>
+ * &#64;MigrationUnit(id = 3)
+ * public UpdateSpec renameName(MigrationContext context)
+ * {
+ *     return new UpdateSpec("users", Filters.exists("name"), Updates.rename("name", "fullName"));
+ * }
+ * </pre>
+ */
+@Data
+public class UpdateSpec
+{
+    private final String collectionName;
+    private final Bson filter;
+    private final Bson update;
+}
@@ -0,0 +1,256 @@
+package com.github.migmong.migration.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.conversions.Bson;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.UpdateManyModel;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.model.WriteModel;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Consecutive {@link UpdateSpec} of migration units, applied together. Adjacent specs of one collection with the
+ * same filter are fused into one {@code updateMany} if they update different fields and do not update fields of
+ * the filter, so they give the same result as separate updates. Specs with {@code $expr}, {@code $where} or
+ * {@code $function} in the filter are never fused, since fields read by expressions are not known. All updates of
+ * a collection are sent with one ordered bulk write.
+ */
+@Slf4j
+public class UpdateSpecBatch
+{
+    private static final String RENAME = "$rename";
+    private static final Set<String> EXPRESSION_OPERATORS = new HashSet<>(
+            Arrays.asList("$expr", "$where", "$function"));
+
+    private final MongoDatabase mongoDatabase;
+    private final List<UpdateSpec> specs = new ArrayList<>();
+    private int applied;
+    private int passes;
+
+
+    public UpdateSpecBatch(MongoDatabase mongoDatabase)
+    {
+        this.mongoDatabase = mongoDatabase;
+    }
+
+
+    public void add(UpdateSpec spec)
+    {
+        specs.add(spec);
+    }
+
+
+    public boolean isEmpty()
+    {
+        return specs.isEmpty();
+    }
+
+
+    /**
+     * @return count of specs applied by the last {@link #apply()}, specs are applied in order
+     */
+    public int getApplied()
+    {
+        return applied;
+    }
+
+
+    /**
+     * @return count of updates sent by the last {@link #apply()}
+     */
+    public int getPasses()
+    {
+        return passes;
+    }
+
+
+    /**
+     * Applies all specs and clears the batch. If an update fails, {@link #getApplied()} tells how many specs have
+     * been applied before it.
+     */
+    public void apply()
+    {
+        applied = 0;
+        passes = 0;
+        try
+        {
+            int start = 0;
+            while (start < specs.size())
+            {
+                int end = start;
+                String collectionName = specs.get(start).getCollectionName();
+                while (end < specs.size() && specs.get(end).getCollectionName().equals(collectionName))
+                    end++;
+
+                applyToCollection(specs.subList(start, end));
+                start = end;
+            }
+        }
+        finally
+        {
+            specs.clear();
+        }
+    }
+
+
+    private void applyToCollection(List<UpdateSpec> collectionSpecs)
+    {
+        MongoCollection<Document> collection = mongoDatabase.getCollection(collectionSpecs.get(0).getCollectionName());
+        List<List<UpdateSpec>> groups = fuse(collectionSpecs, collection.getCodecRegistry());
+
+        List<WriteModel<Document>> updates = new ArrayList<>();
+        for (List<UpdateSpec> group : groups)
+        {
+            List<Bson> groupUpdates = new ArrayList<>();
+            for (UpdateSpec spec : group)
+                groupUpdates.add(spec.getUpdate());
+            updates.add(new UpdateManyModel<>(group.get(0).getFilter(),
+                    groupUpdates.size() == 1 ? groupUpdates.get(0) : Updates.combine(groupUpdates)));
+        }
+
+        try
+        {
+            collection.bulkWrite(updates, new BulkWriteOptions().ordered(true));
+        }
+        catch (MongoBulkWriteException e)
+        {
+            // Updates before the first failed one have been applied by the ordered bulk write
+            int failedGroup = e.getWriteErrors().isEmpty() ? 0 : e.getWriteErrors().get(0).getIndex();
+            for (int i = 0; i < failedGroup; i++)
+                applied += groups.get(i).size();
+            passes += failedGroup;
+            throw e;
+        }
+        applied += collectionSpecs.size();
+        passes += groups.size();
+        log.debug("{} updates of {} are applied with {} passes", collectionSpecs.size(),
+                collection.getNamespace().getCollectionName(), groups.size());
+    }
+
+
+    /**
+     * Splits specs of one collection into groups which are applied with one {@code updateMany}
+     */
+    static List<List<UpdateSpec>> fuse(List<UpdateSpec> collectionSpecs, CodecRegistry codecRegistry)
+    {
+        List<List<UpdateSpec>> groups = new ArrayList<>();
+        List<UpdateSpec> group = null;
+        BsonDocument groupFilter = null;
+        Set<String> groupFields = null;
+        Set<String> filterFields = null;
+        for (UpdateSpec spec : collectionSpecs)
+        {
+            BsonDocument filter = spec.getFilter().toBsonDocument(BsonDocument.class, codecRegistry);
+            Set<String> fields = collectUpdatedFields(spec.getUpdate().toBsonDocument(BsonDocument.class,
+                    codecRegistry));
+
+            if (group != null && filter.equals(groupFilter) && !hasExpression(filter) &&
+                    !overlap(groupFields, fields) &&
+                    !overlap(filterFields, fields) && !overlap(filterFields, groupFields))
+            {
+                group.add(spec);
+                groupFields.addAll(fields);
+                continue;
+            }
+
+            group = new ArrayList<>();
+            group.add(spec);
+            groups.add(group);
+            groupFilter = filter;
+            groupFields = fields;
+            filterFields = new HashSet<>();
+            collectFilterFields(filter, filterFields);
+        }
+        return groups;
+    }
+
+
+    static Set<String> collectUpdatedFields(BsonDocument update)
+    {
+        Set<String> fields = new HashSet<>();
+        for (Map.Entry<String, BsonValue> operator : update.entrySet())
+        {
+            if (!operator.getValue().isDocument())
+                continue;
+
+            for (Map.Entry<String, BsonValue> field : operator.getValue().asDocument().entrySet())
+            {
+                fields.add(field.getKey());
+                if (RENAME.equals(operator.getKey()) && field.getValue().isString())
+                    fields.add(field.getValue().asString().getValue());
+            }
+        }
+        return fields;
+    }
+
+
+    private static void collectFilterFields(BsonValue filter, Set<String> fields)
+    {
+        if (filter.isArray())
+        {
+            for (BsonValue condition : (BsonArray)filter)
+                collectFilterFields(condition, fields);
+        }
+        else if (filter.isDocument())
+        {
+            for (Map.Entry<String, BsonValue> condition : filter.asDocument().entrySet())
+            {
+                if (condition.getKey().startsWith("$"))
+                    collectFilterFields(condition.getValue(), fields);
+                else
+                    fields.add(condition.getKey());
+            }
+        }
+    }
+
+
+    private static boolean hasExpression(BsonValue filter)
+    {
+        if (filter.isArray())
+            return ((BsonArray)filter).stream().anyMatch(UpdateSpecBatch::hasExpression);
+        if (!filter.isDocument())
+            return false;
+
+        for (Map.Entry<String, BsonValue> condition : filter.asDocument().entrySet())
+        {
+            if (EXPRESSION_OPERATORS.contains(condition.getKey()) || hasExpression(condition.getValue()))
+                return true;
+        }
+        return false;
+    }
+
+
+    /**
+     * Fields overlap if they are equal or one of them is a part of another, e.g. {@code address} and
+     * {@code address.city}
+     */
+    private static boolean overlap(Set<String> left, Set<String> right)
+    {
+        for (String leftField : left)
+        {
+            for (String rightField : right)
+            {
+                if (leftField.equals(rightField) || leftField.startsWith(rightField + ".") ||
+                        rightField.startsWith(leftField + "."))
+                    return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,244 @@
+package com.github.migmong.migration.data;
+
+import java.util.concurrent.TimeUnit;
+
+import com.mongodb.MongoInterruptedException;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Limits the rate of migration writes with a token bucket, so that migrations do not overload a cluster which
+ * serves traffic. The rate is adapted to the replication lag reported by {@link LoadProbe} and to the observed
+ * write latency: it is halved when one of them approaches its ceiling, grows slowly while both are low, and writes
+ * are paused while the replication lag exceeds its ceiling.
+ * <p>The throttle is thread-safe and is shared by all migration units.</p>
+ */
+@Slf4j
+public class WriteThrottle
+{
+    public static final long DEFAULT_MAX_REPLICATION_LAG_MILLIS = 10000;
+    public static final long DEFAULT_MAX_WRITE_LATENCY_MILLIS = 500;
+    public static final long DEFAULT_SAMPLE_INTERVAL_MILLIS = 1000;
+
+    private static final double MIN_WRITES_PER_SECOND = 10;
+    private static final double RATE_GROWTH = 1.25;
+    private static final double LATENCY_SMOOTHING = 0.3;
+
+    private final Object sampleMonitor = new Object();
+
+    private LoadProbe loadProbe;
+    private double maxWritesPerSecond;
+    private long maxReplicationLagMillis = DEFAULT_MAX_REPLICATION_LAG_MILLIS;
+    private long maxWriteLatencyMillis = DEFAULT_MAX_WRITE_LATENCY_MILLIS;
+    private long sampleIntervalMillis = DEFAULT_SAMPLE_INTERVAL_MILLIS;
+
+    private double writesPerSecond = Double.POSITIVE_INFINITY;
+    private double tokens;
+    private long lastRefillNanos = System.nanoTime();
+    private long lastSampleNanos = System.nanoTime();
+    private long writesSinceSample;
+    private double writeLatencyMillis;
+
+
+    /**
+     * Waits until the writes are permitted by the current rate and the cluster load
+     * @param writes count of writes, e.g. size of a bulk write
+     * @throws MongoInterruptedException if the thread is interrupted while waiting
+     */
+    public void acquire(int writes)
+    {
+        sampleLoadIfDue();
+
+        long waitNanos;
+        synchronized (this)
+        {
+            refill();
+            tokens -= writes;
+            writesSinceSample += writes;
+            waitNanos = tokens < 0 ? (long)(-tokens / writesPerSecond * TimeUnit.SECONDS.toNanos(1)) : 0;
+        }
+        sleep(waitNanos);
+    }
+
+
+    /**
+     * Records duration of a write, the throttle slows down if the average latency exceeds its ceiling
+     * @param latencyMillis duration of the write in milliseconds
+     */
+    public synchronized void recordLatency(long latencyMillis)
+    {
+        writeLatencyMillis = writeLatencyMillis == 0
+                ? latencyMillis
+                : LATENCY_SMOOTHING * latencyMillis + (1 - LATENCY_SMOOTHING) * writeLatencyMillis;
+    }
+
+
+    /**
+     * @return current limit of writes per second, infinity if writes are not limited
+     */
+    public synchronized double getWritesPerSecond()
+    {
+        return writesPerSecond;
+    }
+
+
+    /**
+     * @return smoothed write latency in milliseconds
+     */
+    public synchronized double getWriteLatencyMillis()
+    {
+        return writeLatencyMillis;
+    }
+
+
+    public LoadProbe getLoadProbe()
+    {
+        return loadProbe;
+    }
+
+
+    /**
+     * Sets source of replication lag. If it is not set, {@link ReplicaSetLoadProbe} of the migrated cluster is used.
+     * {@link LoadProbe#STANDALONE} throttles only write latency.
+     * @param loadProbe source of replication lag
+     */
+    public WriteThrottle setLoadProbe(LoadProbe loadProbe)
+    {
+        this.loadProbe = loadProbe;
+        return this;
+    }
+
+
+    /**
+     * Sets ceiling of the write rate. Default is 0, the rate is limited only by the load.
+     * @param maxWritesPerSecond maximum count of writes per second
+     */
+    public synchronized WriteThrottle setMaxWritesPerSecond(double maxWritesPerSecond)
+    {
+        this.maxWritesPerSecond = maxWritesPerSecond;
+        if (maxWritesPerSecond > 0)
+            writesPerSecond = Math.min(writesPerSecond, maxWritesPerSecond);
+        return this;
+    }
+
+
+    /**
+     * Sets replication lag at which writes are paused. Default is {@link #DEFAULT_MAX_REPLICATION_LAG_MILLIS}.
+     * @param maxReplicationLagMillis lag in milliseconds
+     */
+    public WriteThrottle setMaxReplicationLag(long maxReplicationLagMillis)
+    {
+        this.maxReplicationLagMillis = maxReplicationLagMillis;
+        return this;
+    }
+
+
+    /**
+     * Sets write latency at which the rate is reduced. Default is {@link #DEFAULT_MAX_WRITE_LATENCY_MILLIS}.
+     * @param maxWriteLatencyMillis latency in milliseconds
+     */
+    public WriteThrottle setMaxWriteLatency(long maxWriteLatencyMillis)
+    {
+        this.maxWriteLatencyMillis = maxWriteLatencyMillis;
+        return this;
+    }
+
+
+    /**
+     * Sets how often the load is sampled. Default is {@link #DEFAULT_SAMPLE_INTERVAL_MILLIS}.
+     * @param sampleIntervalMillis interval in milliseconds
+     */
+    public WriteThrottle setSampleInterval(long sampleIntervalMillis)
+    {
+        this.sampleIntervalMillis = sampleIntervalMillis;
+        return this;
+    }
+
+
+    /**
+     * Samples the load once per interval. Writers which come during sampling or a pause wait for it.
+     */
+    private void sampleLoadIfDue()
+    {
+        synchronized (sampleMonitor)
+        {
+            long now = System.nanoTime();
+            if (now - lastSampleNanos < TimeUnit.MILLISECONDS.toNanos(sampleIntervalMillis))
+                return;
+
+            long replicationLag = getReplicationLag();
+            while (replicationLag > maxReplicationLagMillis)
+            {
+                log.info("Replication lag is {} ms, migration writes are paused", replicationLag);
+                sleep(TimeUnit.MILLISECONDS.toNanos(sampleIntervalMillis));
+                replicationLag = getReplicationLag();
+            }
+            adaptRate(replicationLag, (System.nanoTime() - lastSampleNanos) / 1e9);
+            lastSampleNanos = System.nanoTime();
+        }
+    }
+
+
+    private synchronized void adaptRate(long replicationLag, double elapsedSeconds)
+    {
+        double previousRate = writesPerSecond;
+        double observedRate = writesSinceSample / Math.max(elapsedSeconds, 0.001);
+        writesSinceSample = 0;
+
+        if (replicationLag > maxReplicationLagMillis / 2 || writeLatencyMillis > maxWriteLatencyMillis)
+        {
+            writesPerSecond = Math.max(MIN_WRITES_PER_SECOND, Math.min(writesPerSecond, observedRate) / 2);
+        }
+        else if (replicationLag < maxReplicationLagMillis / 4 && writeLatencyMillis < maxWriteLatencyMillis / 2)
+        {
+            writesPerSecond = writesPerSecond * RATE_GROWTH;
+            if (maxWritesPerSecond > 0)
+                writesPerSecond = Math.min(writesPerSecond, maxWritesPerSecond);
+        }
+
+        if (writesPerSecond != previousRate)
+        {
+            log.debug("Migration write rate changed to {}/s (replication lag {} ms, write latency {} ms)",
+                    Math.round(writesPerSecond), replicationLag, Math.round(writeLatencyMillis));
+        }
+    }
+
+
+    private long getReplicationLag()
+    {
+        return loadProbe != null ? loadProbe.getReplicationLagMillis() : 0;
+    }
+
+
+    private void refill()
+    {
+        long now = System.nanoTime();
+        if (Double.isInfinite(writesPerSecond))
+        {
+            tokens = 0;
+        }
+        else
+        {
+            // At most one second of writes can be accumulated
+            tokens = Math.min(writesPerSecond, tokens + (now - lastRefillNanos) / 1e9 * writesPerSecond);
+        }
+        lastRefillNanos = now;
+    }
+
+
+    private void sleep(long nanos)
+    {
+        if (nanos <= 0)
+            return;
+
+        try
+        {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new MongoInterruptedException("Interrupted while waiting for migration write throttle", e);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.github.migmong.spring;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.BeanInitializationException;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.core.annotation.AnnotationUtils;
+import org.springframework.util.StringUtils;
+
+import com.github.migmong.MongoMigration;
+import com.github.migmong.migration.Version;
+import com.github.migmong.migration.annotations.DependsOnMigration;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Holds initialization of beans marked with {@link DependsOnMigration} until the migrations they depend on are
+ * ready. Should be used with {@link MongoMigration#setAsync(boolean)}, so that other beans are initialized while
+ * migrations are executed.
+ * <pre>
+ * &#64;Bean
+ * public static DependsOnMigrationBeanPostProcessor dependsOnMigration(MongoMigration migration)
+ * {
+ *     return new DependsOnMigrationBeanPostProcessor(migration);
+ * }
+ * </pre>
+ */
+@Slf4j
+public class DependsOnMigrationBeanPostProcessor implements BeanPostProcessor
+{
+    private final MongoMigration migration;
+    private long timeout;
+
+
+    public DependsOnMigrationBeanPostProcessor(MongoMigration migration)
+    {
+        this.migration = migration;
+    }
+
+
+    /**
+     * @param timeout milliseconds to wait for migrations, 0 means no limit (default)
+     */
+    public DependsOnMigrationBeanPostProcessor setTimeout(long timeout)
+    {
+        this.timeout = timeout;
+        return this;
+    }
+
+
+    @Override
+    public Object postProcessBeforeInitialization(Object bean, String beanName) throws BeansException
+    {
+        DependsOnMigration dependsOnMigration = AnnotationUtils.findAnnotation(bean.getClass(),
+                DependsOnMigration.class);
+        if (dependsOnMigration == null)
+            return bean;
+
+        Version version = StringUtils.hasText(dependsOnMigration.value())
+                ? Version.from(dependsOnMigration.value(), ".")
+                : null;
+        CompletableFuture<Void> ready = migration.getProgress().awaitVersion(version);
+        if (!ready.isDone())
+            log.info("Bean '{}' is waiting for migrations up to version {}", beanName,
+                    version != null ? version : "latest");
+
+        try
+        {
+            if (timeout > 0)
+                ready.get(timeout, TimeUnit.MILLISECONDS);
+            else
+                ready.get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new BeanInitializationException("Waiting for migrations of bean '" + beanName +
+                    "' has been interrupted", e);
+        }
+        catch (ExecutionException e)
+        {
+            throw new BeanInitializationException("Migrations required by bean '" + beanName + "' have failed",
+                    e.getCause());
+        }
+        catch (TimeoutException e)
+        {
+            throw new BeanInitializationException("Migrations required by bean '" + beanName +
+                    "' are not done in " + timeout + " ms", e);
+        }
+        return bean;
+    }
+}
@@ -0,0 +1,49 @@
+package com.github.migmong.spring;
+
+import java.util.concurrent.CompletableFuture;
+
+import org.springframework.boot.availability.AvailabilityChangeEvent;
+import org.springframework.boot.availability.ReadinessState;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationListener;
+
+import com.github.migmong.MongoMigration;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Keeps Spring Boot application in {@link ReadinessState#REFUSING_TRAFFIC} state after startup until migrations
+ * executed with {@link MongoMigration#setAsync(boolean)} are ready. Background units do not delay readiness.
+ * If migrations fail or another process holds the process lock, the application stays not ready.
+ */
+@Slf4j
+public class MigrationReadinessListener implements ApplicationListener<ApplicationReadyEvent>
+{
+    private final MongoMigration migration;
+
+
+    public MigrationReadinessListener(MongoMigration migration)
+    {
+        this.migration = migration;
+    }
+
+
+    @Override
+    public void onApplicationEvent(ApplicationReadyEvent event)
+    {
+        CompletableFuture<Void> ready = migration.getProgress().awaitReady();
+        if (ready.isDone() && !ready.isCompletedExceptionally())
+            return;
+
+        log.info("Application is not ready until migrations are done");
+        AvailabilityChangeEvent.publish(event.getApplicationContext(), ReadinessState.REFUSING_TRAFFIC);
+        ready.whenComplete((x, e) -> {
+            if (e != null)
+            {
+                log.error("Application stays not ready because migrations have not been applied by this process", e);
+                return;
+            }
+            AvailabilityChangeEvent.publish(event.getApplicationContext(), ReadinessState.ACCEPTING_TRAFFIC);
+        });
+    }
+}
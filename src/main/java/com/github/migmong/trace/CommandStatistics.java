@@ -0,0 +1,138 @@
+package com.github.migmong.trace;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import lombok.Getter;
+
+/**
+ * Statistics of one command type sent to one collection. Thread-safe.
+ */
+public class CommandStatistics
+{
+    /**
+     * Upper bounds of latency histogram buckets in milliseconds, the last bucket is unbounded
+     */
+    public static final long[] LATENCY_BUCKETS = { 1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000 };
+
+    @Getter
+    private final String commandName;
+    @Getter
+    private final String collection;
+    private final LongAdder count = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder bytesSent = new LongAdder();
+    private final LongAdder bytesReceived = new LongAdder();
+    private final LongAdder latencyNanos = new LongAdder();
+    private final AtomicLongArray latencyHistogram = new AtomicLongArray(LATENCY_BUCKETS.length + 1);
+
+
+    public CommandStatistics(String commandName, String collection)
+    {
+        this.commandName = commandName;
+        this.collection = collection;
+    }
+
+
+    void addSent(int bytes)
+    {
+        count.increment();
+        bytesSent.add(bytes);
+    }
+
+
+    void addCompleted(long elapsedNanos, int receivedBytes, boolean failed)
+    {
+        if (failed)
+            failures.increment();
+        bytesReceived.add(receivedBytes);
+        latencyNanos.add(elapsedNanos);
+
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+        int bucket = 0;
+        while (bucket < LATENCY_BUCKETS.length && elapsedMillis >= LATENCY_BUCKETS[bucket])
+            bucket++;
+        latencyHistogram.incrementAndGet(bucket);
+    }
+
+
+    public long getCount()
+    {
+        return count.sum();
+    }
+
+
+    public long getFailures()
+    {
+        return failures.sum();
+    }
+
+
+    public long getBytesSent()
+    {
+        return bytesSent.sum();
+    }
+
+
+    public long getBytesReceived()
+    {
+        return bytesReceived.sum();
+    }
+
+
+    public long getTotalLatencyMillis()
+    {
+        return TimeUnit.NANOSECONDS.toMillis(latencyNanos.sum());
+    }
+
+
+    /**
+     * @return counts of commands by latency buckets, see {@link #LATENCY_BUCKETS}
+     */
+    public long[] getLatencyHistogram()
+    {
+        long[] histogram = new long[latencyHistogram.length()];
+        for (int i = 0; i < histogram.length; i++)
+            histogram[i] = latencyHistogram.get(i);
+        return histogram;
+    }
+
+
+    /**
+     * @param percentile percentile from 0 to 100
+     * @return upper bound of the histogram bucket of the percentile in milliseconds or -1 if it is above the last
+     * bound
+     */
+    public long getLatencyPercentile(double percentile)
+    {
+        long[] histogram = getLatencyHistogram();
+        long total = 0;
+        for (long bucketCount : histogram)
+            total += bucketCount;
+
+        long rank = (long)Math.ceil(total * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < LATENCY_BUCKETS.length; i++)
+        {
+            seen += histogram[i];
+            if (seen >= rank)
+                return LATENCY_BUCKETS[i];
+        }
+        return -1;
+    }
+
+
+    @Override
+    public String toString()
+    {
+        long p99 = getLatencyPercentile(99);
+        return commandName + (collection.isEmpty() ? "" : " " + collection) +
+                ": count=" + getCount() +
+                ", failures=" + getFailures() +
+                ", sent=" + getBytesSent() + "B" +
+                ", received=" + getBytesReceived() + "B" +
+                ", time=" + getTotalLatencyMillis() + "ms" +
+                ", p99" + (p99 < 0 ? ">" + LATENCY_BUCKETS[LATENCY_BUCKETS.length - 1] : "<" + p99) + "ms";
+    }
+}
@@ -0,0 +1,56 @@
+package com.github.migmong.trace;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Commands sent to MongoDB by one migration unit, grouped by command name and collection. Thread-safe.
+ */
+public class CommandSummary
+{
+    private final Map<String, CommandStatistics> statistics = new ConcurrentHashMap<>();
+
+
+    CommandStatistics getStatistics(String commandName, String collection)
+    {
+        return statistics.computeIfAbsent(commandName + " " + collection,
+                x -> new CommandStatistics(commandName, collection));
+    }
+
+
+    /**
+     * @return statistics of commands, the most frequent ones first
+     */
+    public List<CommandStatistics> getCommands()
+    {
+        List<CommandStatistics> commands = new ArrayList<>(statistics.values());
+        commands.sort(Comparator.comparingLong(CommandStatistics::getCount).reversed());
+        return commands;
+    }
+
+
+    /**
+     * @return count of all commands
+     */
+    public long getCount()
+    {
+        return statistics.values().stream().mapToLong(CommandStatistics::getCount).sum();
+    }
+
+
+    public boolean isEmpty()
+    {
+        return statistics.isEmpty();
+    }
+
+
+    @Override
+    public String toString()
+    {
+        return getCommands().stream().map(CommandStatistics::toString).collect(Collectors.joining("; ", "[", "]"));
+    }
+}
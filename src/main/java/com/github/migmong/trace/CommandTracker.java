@@ -0,0 +1,114 @@
+package com.github.migmong.trace;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.BsonBinaryWriter;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.BsonDocumentCodec;
+import org.bson.codecs.EncoderContext;
+import org.bson.io.BasicOutputBuffer;
+
+import com.github.migmong.migration.annotations.MigrationUnit;
+import com.mongodb.event.CommandFailedEvent;
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandStartedEvent;
+import com.mongodb.event.CommandSucceededEvent;
+
+/**
+ * Driver command listener which attributes commands to the {@link MigrationUnit} running on the current thread.
+ * Threads started by the unit, like partitions of parallel scans, are attributed to the unit too. Commands of
+ * threads without tracked unit are ignored.
+ * <p>The listener has to be added to options of the client, e.g.
+ * {@code MongoClientOptions.builder().addCommandListener(tracker)}.</p>
+ */
+public class CommandTracker implements CommandListener
+{
+    private static final BsonDocumentCodec CODEC = new BsonDocumentCodec();
+
+    private final ThreadLocal<CommandSummary> currentSummary = new InheritableThreadLocal<>();
+    private final Map<Integer, CommandStatistics> startedCommands = new ConcurrentHashMap<>();
+
+
+    /**
+     * Starts attributing commands of the current thread to a new summary
+     * @return summary of commands which is filled until {@link #stopTracking()}
+     */
+    public CommandSummary startTracking()
+    {
+        CommandSummary summary = new CommandSummary();
+        currentSummary.set(summary);
+        return summary;
+    }
+
+
+    public void stopTracking()
+    {
+        currentSummary.remove();
+    }
+
+
+    @Override
+    public void commandStarted(CommandStartedEvent event)
+    {
+        CommandSummary summary = currentSummary.get();
+        if (summary == null)
+            return;
+
+        CommandStatistics statistics = summary.getStatistics(event.getCommandName(),
+                getCollection(event.getCommand()));
+        statistics.addSent(sizeOf(event.getCommand()));
+        startedCommands.put(event.getRequestId(), statistics);
+    }
+
+
+    @Override
+    public void commandSucceeded(CommandSucceededEvent event)
+    {
+        CommandStatistics statistics = startedCommands.remove(event.getRequestId());
+        if (statistics != null)
+            statistics.addCompleted(event.getElapsedTime(TimeUnit.NANOSECONDS), sizeOf(event.getResponse()), false);
+    }
+
+
+    @Override
+    public void commandFailed(CommandFailedEvent event)
+    {
+        CommandStatistics statistics = startedCommands.remove(event.getRequestId());
+        if (statistics != null)
+            statistics.addCompleted(event.getElapsedTime(TimeUnit.NANOSECONDS), 0, true);
+    }
+
+
+    /**
+     * Takes the collection from the first field of a command like {@code {insert: "users", ...}}
+     */
+    static String getCollection(BsonDocument command)
+    {
+        if (command.isEmpty())
+            return "";
+
+        BsonValue value = command.get(command.getFirstKey());
+        if (value.isString())
+            return value.asString().getValue();
+
+        BsonValue collection = command.get("collection");
+        return collection != null && collection.isString() ? collection.asString().getValue() : "";
+    }
+
+
+    static int sizeOf(BsonDocument document)
+    {
+        if (document == null)
+            return 0;
+        if (document instanceof RawBsonDocument)
+            return ((RawBsonDocument)document).getByteBuffer().remaining();
+
+        BasicOutputBuffer buffer = new BasicOutputBuffer();
+        CODEC.encode(new BsonBinaryWriter(buffer), document, EncoderContext.builder().build());
+        return buffer.getPosition();
+    }
+}
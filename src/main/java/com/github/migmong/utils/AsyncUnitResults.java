@@ -0,0 +1,256 @@
+package com.github.migmong.utils;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+
+import com.github.migmong.migration.annotations.MigrationUnit;
+
+/**
+ * Completion of asynchronous results of {@link MigrationUnit} methods. A unit may return {@link CompletionStage},
+ * {@link Flow.Publisher} or Reactive Streams {@code org.reactivestreams.Publisher}, e.g. a publisher of the
+ * reactive MongoDB driver. Publishers are drained with backpressure, Reactive Streams is used through reflection,
+ * so it is not a dependency of migmong.
+ */
+public final class AsyncUnitResults
+{
+    /**
+     * Count of elements requested from a publisher at once
+     */
+    public static final int REQUEST_SIZE = 256;
+
+    private static final String REACTIVE_PUBLISHER = "org.reactivestreams.Publisher";
+    private static final String REACTIVE_SUBSCRIBER = "org.reactivestreams.Subscriber";
+    private static final String REACTIVE_SUBSCRIPTION = "org.reactivestreams.Subscription";
+
+
+    private AsyncUnitResults()
+    {
+    }
+
+
+    /**
+     * @param result value returned by a migration unit
+     * @return true if the unit is finished only when the result is completed
+     */
+    public static boolean isAsync(Object result)
+    {
+        return result instanceof CompletionStage || result instanceof Flow.Publisher ||
+                (result != null && findReactivePublisher(result.getClass()) != null);
+    }
+
+
+    /**
+     * Subscribes to the result of a migration unit
+     * @param result asynchronous result, see {@link #isAsync(Object)}
+     * @return future of count of published elements, it is 0 for {@link CompletionStage}. Cancelling the future
+     * cancels the subscription or the completion stage.
+     */
+    @SuppressWarnings("unchecked")
+    public static CompletableFuture<Long> subscribe(Object result)
+    {
+        if (result instanceof CompletionStage)
+        {
+            CompletableFuture<?> stage = ((CompletionStage<?>)result).toCompletableFuture();
+            CompletableFuture<Long> completion = stage.thenApply(x -> 0L);
+            completion.whenComplete((count, failure) -> {
+                if (completion.isCancelled())
+                    stage.cancel(true);
+            });
+            return completion;
+        }
+
+        CountingSubscriber subscriber = new CountingSubscriber();
+        if (result instanceof Flow.Publisher)
+        {
+            ((Flow.Publisher<Object>)result).subscribe(subscriber);
+            return subscriber.completion;
+        }
+
+        Class<?> publisherType = findReactivePublisher(result.getClass());
+        if (publisherType == null)
+            throw new IllegalArgumentException("Result of migration unit is not asynchronous: " + result);
+
+        try
+        {
+            ClassLoader classLoader = publisherType.getClassLoader();
+            Class<?> subscriberType = Class.forName(REACTIVE_SUBSCRIBER, false, classLoader);
+            Class<?> subscriptionType = Class.forName(REACTIVE_SUBSCRIPTION, false, classLoader);
+            Object reactiveSubscriber = Proxy.newProxyInstance(classLoader, new Class<?>[] { subscriberType },
+                    new ReactiveSubscriberHandler(subscriber, subscriptionType.getMethod("request", long.class),
+                            subscriptionType.getMethod("cancel")));
+            publisherType.getMethod("subscribe", subscriberType).invoke(result, reactiveSubscriber);
+        }
+        catch (ReflectiveOperationException e)
+        {
+            subscriber.completion.completeExceptionally(e instanceof InvocationTargetException ? e.getCause() : e);
+        }
+        return subscriber.completion;
+    }
+
+
+    private static Class<?> findReactivePublisher(Class<?> type)
+    {
+        for (Class<?> current = type; current != null; current = current.getSuperclass())
+        {
+            for (Class<?> implemented : current.getInterfaces())
+            {
+                if (implemented.getName().equals(REACTIVE_PUBLISHER))
+                    return implemented;
+
+                Class<?> inherited = findReactivePublisher(implemented);
+                if (inherited != null)
+                    return inherited;
+            }
+        }
+        return null;
+    }
+
+
+    /**
+     * Requests {@link #REQUEST_SIZE} elements each time all previously requested elements are received
+     */
+    private static class CountingSubscriber implements Flow.Subscriber<Object>
+    {
+        private final CompletableFuture<Long> completion = new CompletableFuture<>();
+        private volatile Flow.Subscription subscription;
+        private long received;
+        private long outstanding;
+
+
+        CountingSubscriber()
+        {
+            // A unit which is not waited for anymore should not go on writing
+            completion.whenComplete((count, failure) -> {
+                Flow.Subscription current = subscription;
+                if (completion.isCancelled() && current != null)
+                    current.cancel();
+            });
+        }
+
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription)
+        {
+            this.subscription = subscription;
+            if (completion.isCancelled())
+            {
+                subscription.cancel();
+                return;
+            }
+            outstanding = REQUEST_SIZE;
+            subscription.request(REQUEST_SIZE);
+        }
+
+
+        @Override
+        public void onNext(Object item)
+        {
+            received++;
+            if (--outstanding == 0)
+            {
+                outstanding = REQUEST_SIZE;
+                subscription.request(REQUEST_SIZE);
+            }
+        }
+
+
+        @Override
+        public void onError(Throwable throwable)
+        {
+            completion.completeExceptionally(throwable);
+        }
+
+
+        @Override
+        public void onComplete()
+        {
+            completion.complete(received);
+        }
+    }
+
+
+    /**
+     * Implements {@code org.reactivestreams.Subscriber} by delegating to {@link CountingSubscriber}
+     */
+    private static class ReactiveSubscriberHandler implements InvocationHandler
+    {
+        private final CountingSubscriber subscriber;
+        private final Method request;
+        private final Method cancel;
+
+
+        ReactiveSubscriberHandler(CountingSubscriber subscriber, Method request, Method cancel)
+        {
+            this.subscriber = subscriber;
+            this.request = request;
+            this.cancel = cancel;
+        }
+
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args)
+        {
+            switch (method.getName())
+            {
+                case "onSubscribe":
+                    subscriber.onSubscribe(wrap(args[0]));
+                    return null;
+                case "onNext":
+                    subscriber.onNext(args[0]);
+                    return null;
+                case "onError":
+                    subscriber.onError((Throwable)args[0]);
+                    return null;
+                case "onComplete":
+                    subscriber.onComplete();
+                    return null;
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                case "toString":
+                    return "migmong subscriber " + subscriber.received;
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+            }
+        }
+
+
+        private Flow.Subscription wrap(Object subscription)
+        {
+            return new Flow.Subscription()
+            {
+                @Override
+                public void request(long n)
+                {
+                    call(request, subscription, n);
+                }
+
+
+                @Override
+                public void cancel()
+                {
+                    call(cancel, subscription);
+                }
+            };
+        }
+
+
+        private void call(Method method, Object target, Object... args)
+        {
+            try
+            {
+                method.invoke(target, args);
+            }
+            catch (IllegalAccessException | InvocationTargetException e)
+            {
+                subscriber.onError(e instanceof InvocationTargetException ? e.getCause() : e);
+            }
+        }
+    }
+}
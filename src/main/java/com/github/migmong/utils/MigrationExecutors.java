@@ -0,0 +1,55 @@
+package com.github.migmong.utils;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Executors for concurrent migrations
+ */
+@Slf4j
+public final class MigrationExecutors
+{
+    private MigrationExecutors()
+    {
+    }
+
+
+    /**
+     * Creates executor with a bounded count of threads. Virtual threads are used if the runtime supports them.
+     * @param threads maximum count of concurrently executed tasks
+     * @param name prefix of thread names
+     * @return executor
+     */
+    public static ExecutorService newBoundedExecutor(int threads, String name)
+    {
+        return Executors.newFixedThreadPool(threads, createThreadFactory(name));
+    }
+
+
+    private static ThreadFactory createThreadFactory(String name)
+    {
+        try
+        {
+            // Thread.ofVirtual().name(name, 0).factory() is available since Java 21
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, name + "-", 0L);
+            return (ThreadFactory)builderClass.getMethod("factory").invoke(builder);
+        }
+        catch (ReflectiveOperationException e)
+        {
+            log.debug("Virtual threads are not available, platform threads are used");
+        }
+
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + counter.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -0,0 +1,76 @@
+package com.github.migmong.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import com.github.migmong.migration.MigrationInfo;
+import com.github.migmong.migration.annotations.Migration;
+
+/**
+ * Dependencies between migrations sorted by version. A migration depends on previous ones which declare the same
+ * collections in {@link Migration#collections()}. Migration without collections depends on all previous
+ * migrations and all next migrations depend on it.
+ */
+public class MigrationGraph
+{
+    private final List<Set<Integer>> dependencies = new ArrayList<>();
+
+
+    /**
+     * @param migrations migrations sorted by version
+     */
+    public MigrationGraph(List<MigrationInfo> migrations)
+    {
+        int lastBarrier = -1;
+        List<Integer> sinceLastBarrier = new ArrayList<>();
+        Map<String, Integer> lastByCollection = new HashMap<>();
+
+        for (int i = 0; i < migrations.size(); i++)
+        {
+            Set<Integer> migrationDependencies = new TreeSet<>();
+            if (lastBarrier >= 0)
+                migrationDependencies.add(lastBarrier);
+
+            Set<String> collections = migrations.get(i).getCollections();
+            if (collections.isEmpty())
+            {
+                migrationDependencies.addAll(sinceLastBarrier);
+                lastBarrier = i;
+                sinceLastBarrier.clear();
+                lastByCollection.clear();
+            }
+            else
+            {
+                for (String collection : collections)
+                {
+                    Integer previous = lastByCollection.put(collection, i);
+                    if (previous != null)
+                        migrationDependencies.add(previous);
+                }
+                sinceLastBarrier.add(i);
+            }
+            dependencies.add(migrationDependencies);
+        }
+    }
+
+
+    /**
+     * @param migration index of migration in the sorted list
+     * @return indexes of migrations which must be executed before the given one
+     */
+    public Set<Integer> getDependencies(int migration)
+    {
+        return Collections.unmodifiableSet(dependencies.get(migration));
+    }
+
+
+    public int size()
+    {
+        return dependencies.size();
+    }
+}
@@ -2,24 +2,42 @@ package com.github.migmong.utils;
 
 import static java.util.Arrays.asList;
 
+import java.io.IOException;
 import java.lang.reflect.Method;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
-import org.reflections.Reflections;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.core.io.support.ResourcePatternResolver;
+import org.springframework.core.type.AnnotationMetadata;
+import org.springframework.core.type.MethodMetadata;
+import org.springframework.core.type.classreading.MetadataReader;
+import org.springframework.core.type.classreading.MetadataReaderFactory;
+import org.springframework.core.type.classreading.SimpleMetadataReaderFactory;
+import org.springframework.util.ClassUtils;
 
 import com.github.migmong.exception.MigrationUnitException;
+import com.github.migmong.index.MigrationIndex;
 import com.github.migmong.migration.MigrationInfo;
+import com.github.migmong.migration.MigrationUnitDescriptor;
+import com.github.migmong.migration.MigrationUnitInfo;
 import com.github.migmong.migration.annotations.Migration;
 import com.github.migmong.migration.annotations.MigrationUnit;
 import com.github.migmong.exception.MigrationException;
 import com.github.migmong.migration.MigrationEntry;
 
-import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
 
 /**
  * Utilities to deal with reflections and annotations
@@ -27,10 +45,44 @@ import lombok.RequiredArgsConstructor;
  * @author lstolowski
  * @since 27/07/2014
  */
-@RequiredArgsConstructor
+@Slf4j
 public class MigrationService
 {
+    /**
+     * Descriptors are resolved once per migration class, so repeated executions do not read annotations again
+     */
+    private static final ClassValue<List<MigrationUnitDescriptor>> MIGRATION_UNIT_DESCRIPTORS =
+            new ClassValue<List<MigrationUnitDescriptor>>()
+            {
+                @Override
+                protected List<MigrationUnitDescriptor> computeValue(Class<?> type)
+                {
+                    try
+                    {
+                        return createMigrationUnitDescriptors(type);
+                    }
+                    catch (MigrationUnitException e)
+                    {
+                        throw new IllegalArgumentException(e.getMessage(), e);
+                    }
+                }
+            };
+
     private final String migrationsBasePackage;
+    private final ClassLoader classLoader;
+
+
+    public MigrationService(String migrationsBasePackage)
+    {
+        this(migrationsBasePackage, ClassUtils.getDefaultClassLoader());
+    }
+
+
+    public MigrationService(String migrationsBasePackage, ClassLoader classLoader)
+    {
+        this.migrationsBasePackage = migrationsBasePackage;
+        this.classLoader = classLoader;
+    }
 
 
     public MigrationEntry createMigrationEntry(Method migrationUnit)
@@ -50,29 +102,63 @@ public class MigrationService
     }
 
 
+    public MigrationEntry createMigrationEntry(MigrationInfo migration, MigrationUnitInfo migrationUnit)
+    {
+        MigrationEntry migrationEntry = new MigrationEntry(migrationUnit.getId(), new Date(),
+                migration.getSimpleName(), migrationUnit.getMethodName());
+        migrationEntry.setVersion(migration.getVersion().encode());
+        return migrationEntry;
+    }
+
+
+    /**
+     * Fetches migrations sorted by version. Migrations are taken from {@link MigrationIndex} built at compile time,
+     * the package is scanned only if there is no index for it. Migration classes are not loaded here.
+     * @param prefix prefix of migration names
+     * @return sorted migrations
+     */
     public List<MigrationInfo> fetchMigrations(String prefix) throws MigrationException
     {
-        Reflections reflections = new Reflections(migrationsBasePackage);
-        List<MigrationInfo> migrations = new ArrayList<>();
-        List<Class<?>> migrationClasses = new ArrayList<>(reflections.getTypesAnnotatedWith(Migration.class));
-        for (Class<?> migrationClass : migrationClasses)
+        List<MigrationInfo> migrations = fetchIndexedMigrations(prefix);
+        if (migrations == null)
         {
-            // When we search for migrations in a package, reflection returns not only classes from it,
-            // but also from similar ones. E.g. if we set package name as 'x.y.migrations', reflection will have also
-            // found classes from 'x.y.migrationsFromAnotherPackage'
-            boolean hasRightPackage = migrationClass.getPackageName().contentEquals(migrationsBasePackage);
-            boolean hasRightPrefix = migrationClass.getSimpleName().startsWith(prefix);
-            if (!hasRightPrefix || !hasRightPackage)
-                continue;
-
-            MigrationInfo migrationInfo = new MigrationInfo(migrationClass, prefix);
-            migrations.add(migrationInfo);
+            log.debug("There is no migration index for package {}, scanning it", migrationsBasePackage);
+            migrations = scanMigrations(prefix);
         }
         migrations.sort(new MigrationComparator());
         return migrations;
     }
 
 
+    /**
+     * Computes fingerprint of the ordered set of migration units
+     * @param migrations sorted migrations
+     * @return hex encoded SHA-256 digest
+     */
+    public String computeFingerprint(List<MigrationInfo> migrations)
+    {
+        MessageDigest digest;
+        try
+        {
+            digest = MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new IllegalStateException(e);
+        }
+
+        for (MigrationInfo migration : migrations)
+        {
+            for (MigrationUnitInfo migrationUnit : migration.getMigrationUnits())
+            {
+                String unit = migration.getSimpleName() + ":" + migrationUnit.getId() + "\n";
+                digest.update(unit.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        return String.format("%064x", new BigInteger(1, digest.digest()));
+    }
+
+
     public List<Method> fetchMigrationUnits(final Class<?> type) throws MigrationUnitException
     {
         final List<Method> migrationUnits = filterMigrationUnitAnnotation(asList(type.getDeclaredMethods()));
@@ -81,6 +167,26 @@ public class MigrationService
     }
 
 
+    /**
+     * @param type loaded migration class
+     * @return immutable descriptors of migration units sorted by id
+     * @throws MigrationUnitException if there are duplicated ids or a unit can not be invoked
+     */
+    public List<MigrationUnitDescriptor> fetchMigrationUnitDescriptors(Class<?> type) throws MigrationUnitException
+    {
+        try
+        {
+            return MIGRATION_UNIT_DESCRIPTORS.get(type);
+        }
+        catch (IllegalArgumentException e)
+        {
+            if (e.getCause() instanceof MigrationUnitException)
+                throw (MigrationUnitException)e.getCause();
+            throw e;
+        }
+    }
+
+
     public boolean isAlwaysRunnableMigration(Method migrationUnitMethod)
     {
         if (!migrationUnitMethod.isAnnotationPresent(MigrationUnit.class))
@@ -91,7 +197,105 @@ public class MigrationService
     }
 
 
-    private List<Method> filterMigrationUnitAnnotation(List<Method> allMethods) throws MigrationUnitException
+    private List<MigrationInfo> fetchIndexedMigrations(String prefix) throws MigrationException
+    {
+        List<MigrationIndex.Entry> entries;
+        try
+        {
+            entries = MigrationIndex.load(classLoader, prefix);
+        }
+        catch (IOException | IllegalArgumentException e)
+        {
+            throw new MigrationException("Could not read migration index: " + e.getMessage(), e);
+        }
+
+        if (entries == null)
+            return null;
+
+        List<MigrationInfo> migrations = new ArrayList<>();
+        for (MigrationIndex.Entry entry : entries)
+        {
+            if (entry.getPackageName().contentEquals(migrationsBasePackage))
+            {
+                migrations.add(new MigrationInfo(entry.getClassName(), entry.getVersion(), entry.getMigrationUnits(),
+                        entry.getCollections(), classLoader));
+            }
+        }
+        return migrations.isEmpty() ? null : migrations;
+    }
+
+
+    /**
+     * Reads annotations from bytecode of classes in the package, so classes are not loaded
+     */
+    private List<MigrationInfo> scanMigrations(String prefix) throws MigrationException
+    {
+        ResourcePatternResolver resolver = new PathMatchingResourcePatternResolver(classLoader);
+        MetadataReaderFactory metadataReaderFactory = new SimpleMetadataReaderFactory(resolver);
+        String pattern = ResourcePatternResolver.CLASSPATH_ALL_URL_PREFIX +
+                ClassUtils.convertClassNameToResourcePath(migrationsBasePackage) + "/*.class";
+
+        List<MigrationInfo> migrations = new ArrayList<>();
+        try
+        {
+            for (Resource resource : resolver.getResources(pattern))
+            {
+                MetadataReader metadataReader = metadataReaderFactory.getMetadataReader(resource);
+                AnnotationMetadata metadata = metadataReader.getAnnotationMetadata();
+                if (!metadata.hasAnnotation(Migration.class.getName()))
+                    continue;
+
+                String className = metadata.getClassName();
+                String simpleName = className.substring(className.lastIndexOf('.') + 1);
+                if (!simpleName.startsWith(prefix))
+                    continue;
+
+                String[] collections = (String[])metadata.getAnnotationAttributes(Migration.class.getName())
+                        .get("collections");
+                migrations.add(new MigrationInfo(className, MigrationInfo.parseVersion(simpleName, prefix),
+                        readMigrationUnits(metadata), new LinkedHashSet<>(asList(collections)), classLoader));
+            }
+        }
+        catch (IOException e)
+        {
+            throw new MigrationException("Could not scan package for migrations: " + migrationsBasePackage, e);
+        }
+        return migrations;
+    }
+
+
+    private List<MigrationUnitInfo> readMigrationUnits(AnnotationMetadata metadata) throws MigrationUnitException
+    {
+        final Set<Integer> migrationUnitIds = new HashSet<>();
+        final List<MigrationUnitInfo> migrationUnits = new ArrayList<>();
+        for (MethodMetadata method : metadata.getAnnotatedMethods(MigrationUnit.class.getName()))
+        {
+            Map<String, Object> attributes = method.getAnnotationAttributes(MigrationUnit.class.getName());
+            int id = (Integer)attributes.get("id");
+            if (!migrationUnitIds.add(id))
+                throw new MigrationUnitException(String.format("Duplicated MigrationUnit id found: '%s'", id));
+
+            migrationUnits.add(new MigrationUnitInfo(id, method.getMethodName(), (Boolean)attributes.get("runAlways"),
+                    (Boolean)attributes.get("background")));
+        }
+        migrationUnits.sort((left, right) -> Integer.compare(left.getId(), right.getId()));
+        return migrationUnits;
+    }
+
+
+    private static List<MigrationUnitDescriptor> createMigrationUnitDescriptors(Class<?> type)
+            throws MigrationUnitException
+    {
+        List<MigrationUnitDescriptor> descriptors = new ArrayList<>();
+        for (Method method : filterMigrationUnitAnnotation(asList(type.getDeclaredMethods())))
+            descriptors.add(MigrationUnitDescriptor.of(method));
+
+        descriptors.sort((left, right) -> Integer.compare(left.getId(), right.getId()));
+        return Collections.unmodifiableList(descriptors);
+    }
+
+
+    private static List<Method> filterMigrationUnitAnnotation(List<Method> allMethods) throws MigrationUnitException
     {
         final Set<Integer> migrationUnitIds = new HashSet<>();
         final List<Method> migrationUnitMethods = new ArrayList<>();
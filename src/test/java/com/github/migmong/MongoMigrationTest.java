@@ -4,15 +4,30 @@ import static com.github.migmong.common.Constants.TEST_DB_NAME;
 import static com.github.migmong.common.Constants.TEST_MIGRATION_COLLECTION;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyList;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyMapOf;
 import static org.mockito.Matchers.anyString;
-import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.doCallRealMethod;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
 import org.bson.Document;
 import org.junit.After;
 import org.junit.Before;
@@ -23,11 +38,25 @@ import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
 
 import com.github.migmong.migrations.V_1__migrations;
+import com.github.migmong.migrationsAsync.V_1__asyncResults;
+import com.github.migmong.migrationsDeclarative.V_1__declaredUpdates;
+import com.github.migmong.migrationsParallel.V_1__users;
+import com.github.migmong.migrationsWithoutRunAlways.V_2__plainMigrations;
 import com.github.migmong.dao.ChangeEntryDao;
 import com.github.migmong.dao.ChangeEntryIndexDao;
 import com.github.migmong.exception.MigrationConfigurationException;
 import com.github.migmong.exception.MigrationException;
+import com.github.migmong.exception.MigrationLockException;
+import com.github.migmong.exception.MigrationUnitException;
+import com.github.migmong.listener.MigrationListener;
+import com.github.migmong.migration.AppliedMigrationUnits;
 import com.github.migmong.migration.MigrationEntry;
+import com.github.migmong.migration.MigrationInfo;
+import com.github.migmong.migration.MigrationReport;
+import com.github.migmong.migration.MigrationUnitInfo;
+import com.github.migmong.migration.UnitsDigest;
+import com.github.migmong.migration.Version;
+import com.github.migmong.migration.data.BulkWriteSummary;
 import com.mongodb.MongoClientURI;
 import com.mongodb.client.MongoDatabase;
 
@@ -59,6 +88,9 @@ public class MongoMigrationTest extends AbstractMigrationTest
         fakeMongoDatabase = prepareFakeDatabase();
         when(dao.connectMongoDb(any(MongoClientURI.class), anyString())).thenReturn(fakeMongoDatabase);
         when(dao.getMongoDatabase()).thenReturn(fakeMongoDatabase);
+        when(dao.fetchAppliedMigrationUnits()).thenReturn(new AppliedMigrationUnits());
+        when(dao.fetchCompactedMigrationUnits()).thenReturn(new AppliedMigrationUnits());
+        when(dao.isProcessLockOwned()).thenReturn(true);
         doCallRealMethod().when(dao).save(any(MigrationEntry.class));
         doCallRealMethod().when(dao).setMigrationCollectionName(anyString());
         doCallRealMethod().when(dao).setIndexDao(any(ChangeEntryIndexDao.class));
@@ -76,7 +108,6 @@ public class MongoMigrationTest extends AbstractMigrationTest
     public void shouldExecuteAllMigrationUnits() throws Exception
     {
         when(dao.acquireProcessLock()).thenReturn(true);
-        when(dao.isNewMigrationUnit(any(MigrationEntry.class))).thenReturn(true);
 
         migration.execute();
 
@@ -119,7 +150,7 @@ public class MongoMigrationTest extends AbstractMigrationTest
 
         migration.execute();
 
-        verify(dao, atLeastOnce()).isNewMigrationUnit(any(MigrationEntry.class));
+        verify(dao).fetchAppliedMigrationUnits();
     }
 
 
@@ -130,14 +161,17 @@ public class MongoMigrationTest extends AbstractMigrationTest
 
         migration.execute();
 
-        verify(dao, never()).isNewMigrationUnit(any(MigrationEntry.class));
+        verify(dao, never()).fetchAppliedMigrationUnits();
     }
 
 
     @Test
     public void shouldPassOverMigrationUnits() throws Exception
     {
-        when(dao.isNewMigrationUnit(any(MigrationEntry.class))).thenReturn(false);
+        AppliedMigrationUnits appliedMigrationUnits = mock(AppliedMigrationUnits.class);
+        when(appliedMigrationUnits.contains(any(MigrationEntry.class))).thenReturn(true);
+        when(dao.acquireProcessLock()).thenReturn(true);
+        when(dao.fetchAppliedMigrationUnits()).thenReturn(appliedMigrationUnits);
 
         migration.execute();
 
@@ -145,6 +179,114 @@ public class MongoMigrationTest extends AbstractMigrationTest
     }
 
 
+    @Test
+    public void shouldTakeVersionsWithDeclaredDigestsAsApplied() throws Exception
+    {
+        Map<String, UnitsDigest> appliedDigests = new HashMap<>();
+        appliedDigests.put(new Version(0, 5, 0).encode(), new UnitsDigest().add("V_0_5_0__contextVariables", 4));
+        appliedDigests.put(new Version(1).encode(), new UnitsDigest().add("V_1__migrations", 1)
+                .add("V_1__migrations", 2).add("V_1__migrations", 3).add("V_1__migrations", 4));
+        when(dao.acquireProcessLock()).thenReturn(true);
+        when(dao.fetchUnitsDigestsByVersion(anyMapOf(String.class, String.class))).thenReturn(appliedDigests);
+
+        migration.execute();
+
+        // V_0_9 has no applied entries, so nothing is read
+        verify(dao, never()).fetchAppliedMigrationUnits();
+        verify(dao, never()).fetchAppliedMigrationUnits(anyCollectionOf(String.class));
+        verify(dao, times(4)).save(any(MigrationEntry.class));
+    }
+
+
+    @Test
+    public void shouldReadVersionWhenAppliedUnitsDifferFromDeclared() throws Exception
+    {
+        // The log has as many entries of V_0_5_0 as it has units, but the applied unit has been removed
+        Set<String> versionsToRead = Collections.singleton(new Version(0, 5, 0).encode());
+        Map<String, UnitsDigest> appliedDigests = new HashMap<>();
+        appliedDigests.put(new Version(0, 5, 0).encode(), new UnitsDigest().add("V_0_5_0__contextVariables", 3));
+        appliedDigests.put(new Version(0, 9).encode(), new UnitsDigest().add("V_0_9__anotherMigrations", 1)
+                .add("V_0_9__anotherMigrations", 2).add("V_0_9__anotherMigrations", 6)
+                .add("V_0_9__anotherMigrations", 3));
+        when(dao.acquireProcessLock()).thenReturn(true);
+        when(dao.fetchUnitsDigestsByVersion(anyMapOf(String.class, String.class))).thenReturn(appliedDigests);
+        when(dao.fetchAppliedMigrationUnits(versionsToRead)).thenReturn(appliedUnits(3));
+
+        migration.execute();
+
+        verify(dao).fetchAppliedMigrationUnits(versionsToRead);
+        verify(dao, times(5)).save(any(MigrationEntry.class));
+    }
+
+
+    private static AppliedMigrationUnits appliedUnits(int changeId)
+    {
+        AppliedMigrationUnits appliedMigrationUnits = new AppliedMigrationUnits();
+        appliedMigrationUnits.add("V_0_5_0__contextVariables", changeId);
+        return appliedMigrationUnits;
+    }
+
+
+    @Test(expected = MigrationLockException.class)
+    public void shouldNotWriteMigrationLogWhenLockIsLost() throws Exception
+    {
+        when(dao.acquireProcessLock()).thenReturn(true);
+        when(dao.isProcessLockLost()).thenReturn(true);
+        when(dao.isProcessLockOwned()).thenReturn(false);
+
+        try
+        {
+            migration.execute();
+        }
+        finally
+        {
+            verify(dao, never()).flush();
+            verify(dao, never()).restoreDeferredIndexes();
+            verify(dao, never()).saveMigrationManifest(anyString(), anyInt());
+            verify(dao).releaseProcessLock();
+        }
+    }
+
+
+    @Test
+    public void shouldNotFlushMigrationLogWhenLeaseIsTakenOver() throws Exception
+    {
+        // The lease has expired after the last unit, before the heartbeat has noticed it
+        when(dao.acquireProcessLock()).thenReturn(true);
+        when(dao.isProcessLockOwned()).thenReturn(false);
+
+        migration.execute();
+
+        verify(dao, never()).restoreDeferredIndexes();
+        verify(dao, never()).saveMigrationManifest(anyString(), anyInt());
+        verify(dao).releaseProcessLock();
+    }
+
+
+    @Test
+    public void shouldRejectUnitsMissingInMigrationClass() throws Exception
+    {
+        when(dao.acquireProcessLock()).thenReturn(true);
+        // The index lists a unit which has been removed from the class
+        List<MigrationUnitInfo> indexedUnits = Arrays.asList(new MigrationUnitInfo(1, "testMigration1", false),
+                new MigrationUnitInfo(3, "removedMigration", false));
+        MigrationInfo staleMigration = new MigrationInfo(V_2__plainMigrations.class.getName(), new Version(2),
+                indexedUnits, Collections.emptySet(), getClass().getClassLoader());
+
+        try
+        {
+            migration.execute(Collections.singletonList(staleMigration));
+            fail("Missing migration unit is not rejected");
+        }
+        catch (MigrationUnitException e)
+        {
+            assertTrue(e.getMessage().contains("removedMigration"));
+            assertTrue(e.getMessage().contains(V_2__plainMigrations.class.getName()));
+        }
+        verify(dao, never()).save(any(MigrationEntry.class));
+    }
+
+
     @Test
     public void shouldReleaseLockAfterWhenLockAcquired() throws Exception
     {
@@ -156,6 +298,58 @@ public class MongoMigrationTest extends AbstractMigrationTest
     }
 
 
+    @Test
+    public void shouldNotifyMigrationListeners() throws Exception
+    {
+        MigrationListener listener = mock(MigrationListener.class);
+        MigrationListener failingListener = mock(MigrationListener.class);
+        doThrow(new IllegalStateException()).when(failingListener).onUnitStarted(any(MigrationEntry.class));
+        when(dao.acquireProcessLock()).thenReturn(true);
+        migration.addMigrationListener(failingListener).addMigrationListener(listener);
+
+        migration.execute();
+
+        verify(listener).onScanFinished(anyList(), anyLong());
+        verify(listener).onLockAcquired(anyLong());
+        verify(listener).onUnitsPending(9);
+        verify(listener, times(9)).onUnitStarted(any(MigrationEntry.class));
+        verify(listener, times(9)).onUnitFinished(any(MigrationEntry.class), anyLong(), any(BulkWriteSummary.class));
+        verify(listener).onLockReleased(anyLong());
+    }
+
+
+    @Test
+    public void shouldExecuteAsynchronously() throws Exception
+    {
+        when(dao.acquireProcessLock()).thenReturn(true);
+
+        MigrationReport report = migration.executeAsync().get();
+
+        assertEquals(MigrationReport.Status.COMPLETED, report.getStatus());
+        assertTrue(migration.getProgress().awaitVersion(new Version(0, 9)).isDone());
+        assertTrue(migration.getProgress().getFinished().isDone());
+    }
+
+
+    @Test
+    public void shouldFailAsyncUnitWhichIsNotCompletedInTime() throws Exception
+    {
+        migration.setMigrationScanPackage(V_1__asyncResults.class.getPackage().getName());
+        migration.setAsyncUnitTimeout(100);
+        when(dao.acquireProcessLock()).thenReturn(true);
+
+        MigrationReport report = migration.execute();
+
+        assertEquals(MigrationReport.Status.FAILED, report.getStatus());
+        assertEquals(1, report.getAppliedUnits().size());
+        assertEquals(1, report.getFailedUnits().size());
+        assertEquals(2, report.getFailedUnits().get(0).getMigrationEntry().getChangeId());
+        assertTrue(report.getFailedUnits().get(0).getCause() instanceof MigrationUnitException);
+        assertTrue(V_1__asyncResults.pendingResult.isCancelled());
+        verify(dao, times(1)).save(any(MigrationEntry.class));
+    }
+
+
     @SuppressWarnings("unchecked")
     @Test
     public void shouldReleaseLockWhenExceptionInMigration() throws Exception
@@ -163,7 +357,7 @@ public class MongoMigrationTest extends AbstractMigrationTest
         // would be nicer with a mock for the whole execution, but this would mean breaking out to separate class..
         // this should be "good enough"
         when(dao.acquireProcessLock()).thenReturn(true);
-        when(dao.isNewMigrationUnit(any(MigrationEntry.class))).thenThrow(RuntimeException.class);
+        when(dao.fetchAppliedMigrationUnits()).thenThrow(RuntimeException.class);
 
         // have to catch the exception to be able to verify after
         try
@@ -179,6 +373,78 @@ public class MongoMigrationTest extends AbstractMigrationTest
     }
 
 
+    @Test
+    public void shouldSkipExecutionWhenManifestIsCurrent() throws Exception
+    {
+        migration.setMigrationScanPackage(V_2__plainMigrations.class.getPackage().getName());
+        when(dao.isMigrationManifestCurrent(anyString())).thenReturn(true);
+
+        migration.execute();
+
+        verify(dao, never()).initializeCollections();
+        verify(dao, never()).acquireProcessLock();
+    }
+
+
+    @Test
+    public void shouldSaveManifestWhenAllMigrationUnitsApplied() throws Exception
+    {
+        migration.setMigrationScanPackage(V_2__plainMigrations.class.getPackage().getName());
+        when(dao.acquireProcessLock()).thenReturn(true);
+
+        migration.execute();
+
+        verify(dao).initializeCollections();
+        verify(dao).saveMigrationManifest(anyString(), eq(2));
+    }
+
+
+    @Test
+    public void shouldApplyDeclaredUpdatesBeforeNextUnit() throws Exception
+    {
+        migration.setMigrationScanPackage(V_1__declaredUpdates.class.getPackage().getName());
+        when(dao.acquireProcessLock()).thenReturn(true);
+
+        MigrationReport report = migration.execute();
+
+        assertEquals(5, report.getAppliedUnits().size());
+        verify(dao, times(5)).save(any(MigrationEntry.class));
+        assertEquals(2L, fakeMongoDatabase.getCollection("report").find().first().get("migrated"));
+    }
+
+
+    @Test
+    public void shouldNotSkipExecutionWithAlwaysRunnableUnits() throws Exception
+    {
+        when(dao.isMigrationManifestCurrent(anyString())).thenReturn(true);
+        when(dao.acquireProcessLock()).thenReturn(true);
+
+        migration.execute();
+
+        verify(dao).acquireProcessLock();
+    }
+
+
+    @Test
+    public void shouldExecuteIndependentMigrationsConcurrently() throws Exception
+    {
+        migration.setMigrationScanPackage(V_1__users.class.getPackage().getName());
+        migration.setMigrationThreads(2);
+        when(dao.acquireProcessLock()).thenReturn(true);
+
+        MigrationReport report = migration.execute();
+
+        assertEquals(MigrationReport.Status.FAILED, report.getStatus());
+        assertEquals(3, report.getAppliedUnits().size());
+        assertEquals("V_1__users", report.getAppliedUnits().get(0).getMigrationClass());
+        assertEquals("V_2__orders", report.getAppliedUnits().get(1).getMigrationClass());
+        assertEquals("V_3__usersAndOrders", report.getAppliedUnits().get(2).getMigrationClass());
+        assertEquals(1, report.getFailedUnits().size());
+        assertEquals(2, report.getFailedUnits().get(0).getMigrationEntry().getChangeId());
+        verify(dao, never()).saveMigrationManifest(anyString(), anyInt());
+    }
+
+
     @Test
     public void shouldReturnExecutionStatusBasedOnDao() throws Exception
     {
@@ -0,0 +1,103 @@
+package com.github.migmong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.bson.Document;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.migmong.migration.MigrationReport;
+import com.github.migmong.migration.MultiTenantMigrationReport;
+import com.github.migmong.migrationsWithoutRunAlways.V_2__plainMigrations;
+import com.mongodb.MongoClient;
+import com.mongodb.ServerAddress;
+
+import de.bwaldvogel.mongo.MongoServer;
+import de.bwaldvogel.mongo.backend.memory.MemoryBackend;
+
+/**
+ * Tests for applying migrations to many tenant databases
+ */
+public class MultiTenantMongoMigrationTest
+{
+    private MongoServer mongoServer;
+    private MongoClient mongoClient;
+
+
+    @Before
+    public void init()
+    {
+        mongoServer = new MongoServer(new MemoryBackend());
+        mongoClient = new MongoClient(new ServerAddress(mongoServer.bind()));
+    }
+
+
+    @After
+    public void cleanUp()
+    {
+        mongoClient.close();
+        mongoServer.shutdownNow();
+    }
+
+
+    @Test
+    public void shouldMigrateEveryTenantDatabase() throws Exception
+    {
+        MultiTenantMigrationReport report = new MultiTenantMongoMigration(mongoClient)
+                .setMigrationScanPackage(V_2__plainMigrations.class.getPackage().getName())
+                .setMigrationNamePrefix("V_")
+                .setDatabaseNames(() -> Arrays.asList("tenant_a", "tenant_b", "tenant_c"))
+                .setConcurrency(2)
+                .execute();
+
+        assertTrue(report.isSuccessful());
+        assertEquals(Arrays.asList("tenant_a", "tenant_b", "tenant_c"),
+                new ArrayList<>(report.getReports().keySet()));
+        for (MigrationReport tenantReport : report.getReports().values())
+            assertEquals(2, tenantReport.getAppliedUnits().size());
+        assertEquals(2, mongoClient.getDatabase("tenant_b").getCollection("migrationLog")
+                .countDocuments(new Document("migrationClass", "V_2__plainMigrations")));
+    }
+
+
+    @Test
+    public void shouldIsolateFailedTenant() throws Exception
+    {
+        MultiTenantMigrationReport report = new MultiTenantMongoMigration(mongoClient)
+                .setMigrationScanPackage(V_2__plainMigrations.class.getPackage().getName())
+                .setMigrationNamePrefix("V_")
+                .setDatabaseNames(() -> Arrays.asList("tenant_a", "tenant_b"))
+                .setTenantConfigurer((dbName, migration) -> {
+                    if (dbName.equals("tenant_a"))
+                        throw new IllegalStateException("tenant is not available");
+                })
+                .execute();
+
+        assertFalse(report.isSuccessful());
+        assertEquals(Collections.singletonList("tenant_a"), report.getFailedTenants());
+        assertEquals(2, report.getReports().get("tenant_b").getAppliedUnits().size());
+    }
+
+
+    @Test
+    public void shouldListTenantDatabasesByPattern() throws Exception
+    {
+        mongoClient.getDatabase("tenant_x").getCollection("users").insertOne(new Document("name", "user"));
+        mongoClient.getDatabase("other").getCollection("users").insertOne(new Document("name", "user"));
+
+        MultiTenantMigrationReport report = new MultiTenantMongoMigration(mongoClient)
+                .setMigrationScanPackage(V_2__plainMigrations.class.getPackage().getName())
+                .setMigrationNamePrefix("V_")
+                .setDatabaseNamePattern("tenant_.+")
+                .execute();
+
+        assertEquals(Collections.singleton("tenant_x"), report.getReports().keySet());
+    }
+}
@@ -0,0 +1,79 @@
+package com.github.migmong.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.Test;
+
+import com.github.migmong.AbstractMigrationTest;
+import com.github.migmong.common.Constants;
+import com.mongodb.client.MongoDatabase;
+
+/**
+ * Tests for migration events
+ */
+public class EventDaoTest extends AbstractMigrationTest
+{
+    private static final String EVENTS_COLLECTION = "migrationEvents";
+
+
+    @Test
+    public void shouldReturnEventPublishedAfterLastSeenOne() throws Exception
+    {
+        MongoDatabase db = prepareFakeDatabase();
+        EventDao dao = new EventDao(EVENTS_COLLECTION);
+        dao.initializeEvents(db);
+        dao.initializeEvents(db);
+
+        dao.publish(db, EventDao.LOCK_RELEASED, Constants.TEST_MIGRATION_COLLECTION, null);
+        long lastEventId = dao.getLatestEventId(db);
+        dao.publish(db, EventDao.MIGRATION_COMPLETED, Constants.TEST_MIGRATION_COLLECTION, "fingerprint");
+
+        Document event = dao.awaitEvent(db, lastEventId, 1000);
+
+        assertEquals(EventDao.MIGRATION_COMPLETED, event.getString("type"));
+        assertTrue(dao.isMigrationCompleted(event, Constants.TEST_MIGRATION_COLLECTION, "fingerprint"));
+        assertFalse(dao.isMigrationCompleted(event, Constants.TEST_MIGRATION_COLLECTION, "another"));
+        assertFalse(dao.isMigrationCompleted(event, "anotherLog", "fingerprint"));
+    }
+
+
+    @Test
+    public void shouldReturnNullIfThereAreNoNewEvents() throws Exception
+    {
+        MongoDatabase db = prepareFakeDatabase();
+        EventDao dao = new EventDao(EVENTS_COLLECTION);
+        dao.initializeEvents(db);
+        dao.publish(db, EventDao.LOCK_RELEASED, Constants.TEST_MIGRATION_COLLECTION, null);
+
+        assertNull(dao.awaitEvent(db, dao.getLatestEventId(db), 300));
+    }
+
+
+    @Test
+    public void shouldOrderEventsOfProcessesByServerSequence() throws Exception
+    {
+        MongoDatabase db = prepareFakeDatabase();
+        EventDao waiter = new EventDao(EVENTS_COLLECTION);
+        EventDao publisher = new EventDao(EVENTS_COLLECTION);
+        waiter.initializeEvents(db);
+        assertEquals(0, waiter.getLatestEventId(db));
+
+        // An event published by an older version with an object id
+        db.getCollection(EVENTS_COLLECTION).insertOne(new Document("_id", new ObjectId())
+                .append("type", EventDao.LOCK_RELEASED));
+        publisher.publish(db, EventDao.LOCK_RELEASED, Constants.TEST_MIGRATION_COLLECTION, null);
+        long lastEventId = waiter.getLatestEventId(db);
+        publisher.publish(db, EventDao.MIGRATION_COMPLETED, Constants.TEST_MIGRATION_COLLECTION, "fingerprint");
+
+        assertEquals(1, lastEventId);
+        Document event = waiter.awaitEvent(db, lastEventId, 1000);
+        assertEquals(2L, event.get("_id"));
+        assertEquals(EventDao.MIGRATION_COMPLETED, event.getString("type"));
+        assertNull(waiter.awaitEvent(db, waiter.getLatestEventId(db), 300));
+    }
+}
@@ -1,8 +1,10 @@
 package com.github.migmong.dao;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import org.bson.Document;
 import org.junit.Test;
 
 import com.github.migmong.AbstractMigrationTest;
@@ -86,6 +88,84 @@ public class LockDaoTest extends AbstractMigrationTest
     }
 
 
+    @Test
+    public void shouldTakeOverExpiredLease() throws Exception
+    {
+        MongoDatabase db = prepareFakeDatabase();
+        LockDao crashed = new LockDao(Constants.TEST_LOCK_COLLECTION);
+        crashed.setLeaseMillis(500);
+        crashed.initializeLock(db);
+        LockDao waiting = new LockDao(Constants.TEST_LOCK_COLLECTION);
+
+        assertTrue(crashed.acquireLock(db));
+        assertFalse(waiting.acquireLock(db));
+        assertTrue(crashed.isLockOwned(db));
+
+        Thread.sleep(700);
+
+        assertFalse(crashed.isLockOwned(db));
+        assertTrue(waiting.acquireLock(db));
+        assertEquals(2, waiting.getFencingToken());
+        assertFalse(crashed.renewLock(db));
+        assertFalse(crashed.isLockOwned(db));
+        assertTrue(waiting.renewLock(db));
+        assertTrue(waiting.isLockOwned(db));
+    }
+
+
+    @Test
+    public void shouldTakeOverLockOfOlderVersionAfterLease() throws Exception
+    {
+        MongoDatabase db = prepareFakeDatabase();
+        LockDao dao = new LockDao(Constants.TEST_LOCK_COLLECTION);
+        dao.setLeaseMillis(300);
+        dao.initializeLock(db);
+        // Lock held by a crashed process of an older version has no lease
+        db.getCollection(Constants.TEST_LOCK_COLLECTION)
+                .insertOne(new Document("key", "LOCK").append("status", "LOCK_HELD"));
+
+        assertFalse(dao.acquireLock(db));
+        assertFalse(dao.acquireLock(db));
+
+        Thread.sleep(400);
+
+        assertTrue(dao.acquireLock(db));
+        assertTrue(dao.isLockOwned(db));
+    }
+
+
+    @Test
+    public void shouldNotReleaseLockOfAnotherOwner()
+    {
+        MongoDatabase db = prepareFakeDatabase();
+        LockDao owner = new LockDao(Constants.TEST_LOCK_COLLECTION);
+        owner.initializeLock(db);
+        LockDao another = new LockDao(Constants.TEST_LOCK_COLLECTION);
+
+        owner.acquireLock(db);
+        another.releaseLock(db);
+
+        assertTrue(owner.isLockHeld(db));
+    }
+
+
+    @Test
+    public void shouldIncrementFencingTokenOnEveryAcquisition()
+    {
+        MongoDatabase db = prepareFakeDatabase();
+        LockDao dao = new LockDao(Constants.TEST_LOCK_COLLECTION);
+        dao.initializeLock(db);
+
+        dao.acquireLock(db);
+        long firstToken = dao.getFencingToken();
+        dao.releaseLock(db);
+        dao.acquireLock(db);
+
+        assertEquals(firstToken + 1, dao.getFencingToken());
+        assertTrue(dao.isLockHeld(db));
+    }
+
+
     @Test
     public void whenLockNotHeldCheckReturnsFalse()
     {
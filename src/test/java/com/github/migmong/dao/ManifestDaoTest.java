@@ -0,0 +1,56 @@
+package com.github.migmong.dao;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.github.migmong.AbstractMigrationTest;
+import com.github.migmong.common.Constants;
+import com.mongodb.client.MongoDatabase;
+
+/**
+ * Tests for fingerprints of applied migrations
+ */
+public class ManifestDaoTest extends AbstractMigrationTest
+{
+    private static final String MANIFEST_COLLECTION = "migrationManifest";
+
+
+    @Test
+    public void shouldBeCurrentAfterSave()
+    {
+        MongoDatabase db = prepareFakeDatabase();
+        ManifestDao dao = new ManifestDao(MANIFEST_COLLECTION);
+
+        dao.save(db, Constants.TEST_MIGRATION_COLLECTION, "abc", 3);
+
+        assertTrue(dao.isCurrent(db, Constants.TEST_MIGRATION_COLLECTION, "abc"));
+    }
+
+
+    @Test
+    public void shouldNotBeCurrentWithAnotherFingerprint()
+    {
+        MongoDatabase db = prepareFakeDatabase();
+        ManifestDao dao = new ManifestDao(MANIFEST_COLLECTION);
+
+        dao.save(db, Constants.TEST_MIGRATION_COLLECTION, "abc", 3);
+        dao.save(db, Constants.TEST_MIGRATION_COLLECTION, "def", 4);
+
+        assertFalse(dao.isCurrent(db, Constants.TEST_MIGRATION_COLLECTION, "abc"));
+        assertTrue(dao.isCurrent(db, Constants.TEST_MIGRATION_COLLECTION, "def"));
+    }
+
+
+    @Test
+    public void shouldNotBeCurrentForAnotherMigrationCollection()
+    {
+        MongoDatabase db = prepareFakeDatabase();
+        ManifestDao dao = new ManifestDao(MANIFEST_COLLECTION);
+
+        dao.save(db, Constants.TEST_MIGRATION_COLLECTION, "abc", 3);
+
+        assertFalse(dao.isCurrent(db, "anotherMigrationLog", "abc"));
+    }
+}
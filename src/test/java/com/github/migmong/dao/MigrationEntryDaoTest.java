@@ -1,6 +1,8 @@
 package com.github.migmong.dao;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyString;
@@ -9,6 +11,10 @@ import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
+
 import org.bson.Document;
 import org.junit.Test;
 
@@ -16,7 +22,14 @@ import com.github.migmong.AbstractMigrationTest;
 import com.github.migmong.common.Constants;
 import com.github.migmong.exception.MigrationLockException;
 import com.github.migmong.exception.MigrationConfigurationException;
+import com.github.migmong.migration.AppliedMigrationUnits;
+import com.github.migmong.migration.MigrationEntry;
+import com.github.migmong.migration.UnitsDigest;
+import com.github.migmong.migration.Version;
+import com.github.migmong.migration.data.MigrationCheckpoint;
 import com.mongodb.MongoClient;
+import com.mongodb.WriteConcern;
+import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
 
 /**
@@ -54,6 +67,221 @@ public class MigrationEntryDaoTest extends AbstractMigrationTest
     }
 
 
+    @Test
+    public void shouldFetchAppliedMigrationUnitsWithOneQuery() throws Exception
+    {
+        MongoClient mongoClient = mock(MongoClient.class);
+        MongoDatabase db = prepareFakeDatabase();
+        when(mongoClient.getDatabase(anyString())).thenReturn(db);
+
+        ChangeEntryDao dao = new ChangeEntryDao(Constants.TEST_MIGRATION_COLLECTION, Constants.TEST_LOCK_COLLECTION, WAIT_FOR_LOCK,
+                CHANGE_LOG_LOCK_WAIT_TIME, CHANGE_LOG_LOCK_POLL_RATE, THROW_EXCEPTION_IF_CANNOT_OBTAIN_LOCK);
+        dao.connectMongoDb(mongoClient, Constants.TEST_DB_NAME);
+        dao.save(new MigrationEntry(1, new Date(), "V_1__first", "first"));
+        dao.save(new MigrationEntry(2, new Date(), "V_1__first", "second"));
+
+        AppliedMigrationUnits appliedMigrationUnits = dao.fetchAppliedMigrationUnits();
+
+        assertEquals(2, appliedMigrationUnits.size());
+        assertTrue(appliedMigrationUnits.contains(new MigrationEntry(2, new Date(), "V_1__first", "second")));
+        assertFalse(appliedMigrationUnits.contains(new MigrationEntry(1, new Date(), "V_2__second", "first")));
+    }
+
+
+    @Test
+    public void shouldComputeUnitsDigestsByVersion() throws Exception
+    {
+        MongoClient mongoClient = mock(MongoClient.class);
+        MongoDatabase db = prepareFakeDatabase();
+        when(mongoClient.getDatabase(anyString())).thenReturn(db);
+
+        ChangeEntryDao dao = new ChangeEntryDao(Constants.TEST_MIGRATION_COLLECTION, Constants.TEST_LOCK_COLLECTION, WAIT_FOR_LOCK,
+                CHANGE_LOG_LOCK_WAIT_TIME, CHANGE_LOG_LOCK_POLL_RATE, THROW_EXCEPTION_IF_CANNOT_OBTAIN_LOCK);
+        dao.connectMongoDb(mongoClient, Constants.TEST_DB_NAME);
+        dao.save(versionedEntry(1, "V_1__first", new Version(1)));
+        dao.save(versionedEntry(1, "V_1_1__second", new Version(1, 1)));
+        dao.save(versionedEntry(2, "V_1_1__second", new Version(1, 1)));
+        dao.save(versionedEntry(1, "V_10__third", new Version(10)));
+
+        Map<String, UnitsDigest> digests = dao.fetchUnitsDigestsByVersion(Collections.emptyMap());
+        AppliedMigrationUnits appliedMigrationUnits = dao.fetchAppliedMigrationUnits(
+                Collections.singleton(new Version(1).encode()));
+
+        assertEquals(new Version(10).encode(), dao.fetchHighestAppliedVersion());
+        assertEquals(3, digests.size());
+        assertEquals(new UnitsDigest().add("V_1_1__second", 2).add("V_1_1__second", 1),
+                digests.get(new Version(1, 1).encode()));
+        assertFalse(new UnitsDigest().add("V_1_1__second", 1).add("V_1_1__second", 3)
+                .equals(digests.get(new Version(1, 1).encode())));
+        assertEquals(1, appliedMigrationUnits.size());
+        assertTrue(appliedMigrationUnits.contains(versionedEntry(1, "V_1__first", new Version(1))));
+        assertFalse(appliedMigrationUnits.contains(versionedEntry(1, "V_1_1__second", new Version(1, 1))));
+    }
+
+
+    @Test
+    public void shouldCompactMigrationLogIntoSummary() throws Exception
+    {
+        MongoClient mongoClient = mock(MongoClient.class);
+        MongoDatabase db = prepareFakeDatabase();
+        when(mongoClient.getDatabase(anyString())).thenReturn(db);
+
+        ChangeEntryDao dao = new ChangeEntryDao(Constants.TEST_MIGRATION_COLLECTION, Constants.TEST_LOCK_COLLECTION, WAIT_FOR_LOCK,
+                CHANGE_LOG_LOCK_WAIT_TIME, CHANGE_LOG_LOCK_POLL_RATE, THROW_EXCEPTION_IF_CANNOT_OBTAIN_LOCK);
+        dao.connectMongoDb(mongoClient, Constants.TEST_DB_NAME);
+        dao.save(versionedEntry(1, "V_1__first", new Version(1)));
+        dao.save(versionedEntry(2, "V_1__first", new Version(1)));
+        dao.save(versionedEntry(4, "V_1__first", new Version(1)));
+        dao.save(versionedEntry(1, "V_2__second", new Version(2)));
+
+        int compacted = dao.compactMigrationLog(new Version(1).encode());
+        AppliedMigrationUnits compactedUnits = dao.fetchCompactedMigrationUnits();
+        AppliedMigrationUnits appliedMigrationUnits = dao.fetchAppliedMigrationUnits();
+
+        assertEquals(3, compacted);
+        assertEquals(3, db.getCollection(Constants.TEST_MIGRATION_COLLECTION + "Archive").countDocuments());
+        assertEquals(2, db.getCollection(Constants.TEST_MIGRATION_COLLECTION).countDocuments());
+        assertEquals(3, compactedUnits.size());
+        assertFalse(compactedUnits.contains(versionedEntry(3, "V_1__first", new Version(1))));
+        assertEquals(4, appliedMigrationUnits.size());
+        assertTrue(appliedMigrationUnits.contains(versionedEntry(4, "V_1__first", new Version(1))));
+        assertTrue(appliedMigrationUnits.contains(versionedEntry(1, "V_2__second", new Version(2))));
+        assertFalse(dao.isNewMigrationUnit(versionedEntry(2, "V_1__first", new Version(1))));
+        assertEquals(new Version(2).encode(), dao.fetchHighestAppliedVersion());
+    }
+
+
+    @Test
+    public void shouldMergeSummaryWhenCompactingAgain() throws Exception
+    {
+        MongoClient mongoClient = mock(MongoClient.class);
+        MongoDatabase db = prepareFakeDatabase();
+        when(mongoClient.getDatabase(anyString())).thenReturn(db);
+
+        ChangeEntryDao dao = new ChangeEntryDao(Constants.TEST_MIGRATION_COLLECTION, Constants.TEST_LOCK_COLLECTION, WAIT_FOR_LOCK,
+                CHANGE_LOG_LOCK_WAIT_TIME, CHANGE_LOG_LOCK_POLL_RATE, THROW_EXCEPTION_IF_CANNOT_OBTAIN_LOCK);
+        dao.connectMongoDb(mongoClient, Constants.TEST_DB_NAME);
+        dao.save(versionedEntry(1, "V_1__first", new Version(1)));
+        dao.compactMigrationLog(new Version(1).encode());
+        dao.save(versionedEntry(2, "V_1__first", new Version(1)));
+        dao.save(versionedEntry(1, "V_2__second", new Version(2)));
+
+        int compacted = dao.compactMigrationLog(new Version(2).encode());
+        AppliedMigrationUnits compactedUnits = dao.fetchCompactedMigrationUnits();
+
+        assertEquals(2, compacted);
+        assertEquals(3, compactedUnits.size());
+        assertEquals(1, db.getCollection(Constants.TEST_MIGRATION_COLLECTION).countDocuments());
+        assertEquals(0, dao.compactMigrationLog(new Version(2).encode()));
+    }
+
+
+    @Test
+    public void shouldBackfillVersionsOfMigrationLog() throws Exception
+    {
+        MongoClient mongoClient = mock(MongoClient.class);
+        MongoDatabase db = prepareFakeDatabase();
+        when(mongoClient.getDatabase(anyString())).thenReturn(db);
+
+        ChangeEntryDao dao = new ChangeEntryDao(Constants.TEST_MIGRATION_COLLECTION, Constants.TEST_LOCK_COLLECTION, WAIT_FOR_LOCK,
+                CHANGE_LOG_LOCK_WAIT_TIME, CHANGE_LOG_LOCK_POLL_RATE, THROW_EXCEPTION_IF_CANNOT_OBTAIN_LOCK);
+        dao.connectMongoDb(mongoClient, Constants.TEST_DB_NAME);
+        // Entries written before versions and hashes were kept
+        MongoCollection<Document> migrationLog = db.getCollection(Constants.TEST_MIGRATION_COLLECTION);
+        migrationLog.insertOne(new MigrationEntry(1, new Date(), "V_1__first", "first").buildSearchQueryDBObject());
+        migrationLog.insertOne(new MigrationEntry(1, new Date(), "V_2__second", "first").buildSearchQueryDBObject());
+        assertNull(dao.fetchHighestAppliedVersion());
+
+        Map<String, UnitsDigest> digests = dao.fetchUnitsDigestsByVersion(
+                Collections.singletonMap("V_1__first", new Version(1).encode()));
+
+        assertEquals(new Version(1).encode(), dao.fetchHighestAppliedVersion());
+        assertEquals(Collections.singletonMap(new Version(1).encode(), new UnitsDigest().add("V_1__first", 1)),
+                digests);
+        assertEquals(2, migrationLog.countDocuments(new Document(MigrationEntry.UNIT_HASH,
+                new Document("$exists", true))));
+    }
+
+
+    @Test
+    public void shouldBufferMigrationEntriesUntilBatchIsFull() throws Exception
+    {
+        MongoClient mongoClient = mock(MongoClient.class);
+        MongoDatabase db = prepareFakeDatabase();
+        when(mongoClient.getDatabase(anyString())).thenReturn(db);
+
+        ChangeEntryDao dao = new ChangeEntryDao(Constants.TEST_MIGRATION_COLLECTION, Constants.TEST_LOCK_COLLECTION, WAIT_FOR_LOCK,
+                CHANGE_LOG_LOCK_WAIT_TIME, CHANGE_LOG_LOCK_POLL_RATE, THROW_EXCEPTION_IF_CANNOT_OBTAIN_LOCK);
+        dao.setMigrationLogBatchSize(3);
+        dao.setMigrationLogWriteConcern(WriteConcern.W1);
+        dao.connectMongoDb(mongoClient, Constants.TEST_DB_NAME);
+        MongoCollection<Document> migrationCollection = db.getCollection(Constants.TEST_MIGRATION_COLLECTION);
+
+        dao.save(new MigrationEntry(1, new Date(), "V_1__first", "first"));
+        dao.save(new MigrationEntry(2, new Date(), "V_1__first", "second"));
+        assertEquals(0, migrationCollection.countDocuments());
+
+        dao.save(new MigrationEntry(3, new Date(), "V_1__first", "third"));
+        assertEquals(3, migrationCollection.countDocuments());
+
+        dao.save(new MigrationEntry(4, new Date(), "V_1__first", "fourth"));
+        dao.flush();
+        assertEquals(4, migrationCollection.countDocuments());
+    }
+
+
+    @Test
+    public void shouldIgnoreAlreadySavedEntriesOnFlush() throws Exception
+    {
+        MongoClient mongoClient = mock(MongoClient.class);
+        MongoDatabase db = prepareFakeDatabase();
+        when(mongoClient.getDatabase(anyString())).thenReturn(db);
+
+        ChangeEntryDao dao = new ChangeEntryDao(Constants.TEST_MIGRATION_COLLECTION, Constants.TEST_LOCK_COLLECTION, WAIT_FOR_LOCK,
+                CHANGE_LOG_LOCK_WAIT_TIME, CHANGE_LOG_LOCK_POLL_RATE, THROW_EXCEPTION_IF_CANNOT_OBTAIN_LOCK);
+        dao.setMigrationLogBatchSize(10);
+        dao.connectMongoDb(mongoClient, Constants.TEST_DB_NAME);
+        dao.initializeCollections();
+
+        dao.save(new MigrationEntry(1, new Date(), "V_1__first", "first"));
+        dao.flush();
+        dao.save(new MigrationEntry(1, new Date(), "V_1__first", "first"));
+        dao.save(new MigrationEntry(2, new Date(), "V_1__first", "second"));
+        dao.flush();
+
+        assertEquals(2, db.getCollection(Constants.TEST_MIGRATION_COLLECTION).countDocuments());
+    }
+
+
+    @Test
+    public void shouldReplaceCheckpointWithAppliedEntry() throws Exception
+    {
+        MongoClient mongoClient = mock(MongoClient.class);
+        MongoDatabase db = prepareFakeDatabase();
+        when(mongoClient.getDatabase(anyString())).thenReturn(db);
+
+        ChangeEntryDao dao = new ChangeEntryDao(Constants.TEST_MIGRATION_COLLECTION, Constants.TEST_LOCK_COLLECTION, WAIT_FOR_LOCK,
+                CHANGE_LOG_LOCK_WAIT_TIME, CHANGE_LOG_LOCK_POLL_RATE, THROW_EXCEPTION_IF_CANNOT_OBTAIN_LOCK);
+        dao.connectMongoDb(mongoClient, Constants.TEST_DB_NAME);
+        dao.initializeCollections();
+        MigrationEntry migrationEntry = new MigrationEntry(1, new Date(), "V_1__first", "first");
+
+        dao.saveCheckpoint(migrationEntry, new MigrationCheckpoint(10, 10, 5));
+        dao.saveCheckpoint(migrationEntry, new MigrationCheckpoint(20, 20, 10));
+
+        assertEquals(new MigrationCheckpoint(20, 20, 10), dao.loadCheckpoint(migrationEntry));
+        assertTrue(dao.isNewMigrationUnit(migrationEntry));
+        assertEquals(0, dao.fetchAppliedMigrationUnits().size());
+
+        dao.save(migrationEntry);
+
+        assertNull(dao.loadCheckpoint(migrationEntry));
+        assertFalse(dao.isNewMigrationUnit(migrationEntry));
+        assertEquals(1, dao.fetchAppliedMigrationUnits().size());
+        assertEquals(1, db.getCollection(Constants.TEST_MIGRATION_COLLECTION).countDocuments());
+    }
+
+
     @Test
     public void shouldGetLockWhenLockDaoGetsLock() throws Exception
     {
@@ -77,7 +305,95 @@ public class MigrationEntryDaoTest extends AbstractMigrationTest
 
 
     @Test
-    public void shouldInitiateLock() throws MigrationConfigurationException
+    public void shouldWakeUpWaiterWhenLockIsReleased() throws Exception
+    {
+        MongoClient mongoClient = mock(MongoClient.class);
+        MongoDatabase db = prepareFakeDatabase();
+        when(mongoClient.getDatabase(anyString())).thenReturn(db);
+
+        ChangeEntryDao holder = new ChangeEntryDao(Constants.TEST_MIGRATION_COLLECTION, Constants.TEST_LOCK_COLLECTION,
+                WAIT_FOR_LOCK, CHANGE_LOG_LOCK_WAIT_TIME, CHANGE_LOG_LOCK_POLL_RATE, THROW_EXCEPTION_IF_CANNOT_OBTAIN_LOCK);
+        holder.connectMongoDb(mongoClient, Constants.TEST_DB_NAME);
+        holder.initializeCollections();
+        ChangeEntryDao waiter = new ChangeEntryDao(Constants.TEST_MIGRATION_COLLECTION, Constants.TEST_LOCK_COLLECTION,
+                true, CHANGE_LOG_LOCK_WAIT_TIME, CHANGE_LOG_LOCK_POLL_RATE, THROW_EXCEPTION_IF_CANNOT_OBTAIN_LOCK);
+        waiter.connectMongoDb(mongoClient, Constants.TEST_DB_NAME);
+
+        assertTrue(holder.acquireProcessLock());
+        Thread release = new Thread(() -> {
+            try
+            {
+                Thread.sleep(2000);
+                holder.releaseProcessLock();
+            }
+            catch (Exception e)
+            {
+                throw new IllegalStateException(e);
+            }
+        });
+        release.start();
+
+        long start = System.currentTimeMillis();
+        boolean acquired = waiter.acquireProcessLock();
+        long waited = System.currentTimeMillis() - start;
+        release.join();
+        waiter.releaseProcessLock();
+
+        assertTrue(acquired);
+        // Backoff alone would wait for the poll which starts between 1.75 and 3.5 seconds
+        assertTrue("Waited " + waited + " ms", waited < 2700);
+    }
+
+
+    @Test
+    public void shouldStopWaitingWhenMigrationsAreCompletedByAnotherProcess() throws Exception
+    {
+        MongoClient mongoClient = mock(MongoClient.class);
+        MongoDatabase db = prepareFakeDatabase();
+        when(mongoClient.getDatabase(anyString())).thenReturn(db);
+
+        ChangeEntryDao holder = new ChangeEntryDao(Constants.TEST_MIGRATION_COLLECTION, Constants.TEST_LOCK_COLLECTION,
+                WAIT_FOR_LOCK, CHANGE_LOG_LOCK_WAIT_TIME, CHANGE_LOG_LOCK_POLL_RATE, THROW_EXCEPTION_IF_CANNOT_OBTAIN_LOCK);
+        holder.connectMongoDb(mongoClient, Constants.TEST_DB_NAME);
+        holder.initializeCollections();
+        ChangeEntryDao waiter = new ChangeEntryDao(Constants.TEST_MIGRATION_COLLECTION, Constants.TEST_LOCK_COLLECTION,
+                true, CHANGE_LOG_LOCK_WAIT_TIME, CHANGE_LOG_LOCK_POLL_RATE, true);
+        waiter.connectMongoDb(mongoClient, Constants.TEST_DB_NAME);
+        waiter.setMigrationFingerprint("fingerprint");
+
+        assertTrue(holder.acquireProcessLock());
+        Thread complete = new Thread(() -> {
+            try
+            {
+                Thread.sleep(500);
+                holder.saveMigrationManifest("fingerprint", 1);
+            }
+            catch (Exception e)
+            {
+                throw new IllegalStateException(e);
+            }
+        });
+        complete.start();
+
+        boolean acquired = waiter.acquireProcessLock();
+        complete.join();
+
+        assertFalse(acquired);
+        assertTrue(waiter.isMigrationManifestCurrent("fingerprint"));
+        assertTrue(holder.isProccessLockHeld());
+    }
+
+
+    private MigrationEntry versionedEntry(int changeId, String migrationClass, Version version)
+    {
+        MigrationEntry migrationEntry = new MigrationEntry(changeId, new Date(), migrationClass, "unit" + changeId);
+        migrationEntry.setVersion(version.encode());
+        return migrationEntry;
+    }
+
+
+    @Test
+    public void shouldInitiateLock() throws Exception
     {
         MongoClient mongoClient = mock(MongoClient.class);
         MongoDatabase db = prepareFakeDatabase();
@@ -92,6 +408,7 @@ public class MigrationEntryDaoTest extends AbstractMigrationTest
         dao.setLockDao(lockDao);
 
         dao.connectMongoDb(mongoClient, Constants.TEST_DB_NAME);
+        dao.initializeCollections();
 
         verify(lockDao).initializeLock(db);
     }
@@ -173,10 +490,13 @@ public class MigrationEntryDaoTest extends AbstractMigrationTest
         dao.setLockDao(lockDao);
 
         dao.connectMongoDb(mongoClient, Constants.TEST_DB_NAME);
+        long started = System.currentTimeMillis();
         boolean hasLock = dao.acquireProcessLock();
 
         verify(lockDao, times(2)).acquireLock(any(MongoDatabase.class));
         assertTrue(hasLock);
+        // The retry is not made right after the failed attempt
+        assertTrue(System.currentTimeMillis() - started >= 100);
     }
 
 }
@@ -0,0 +1,175 @@
+package com.github.migmong.index;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+import javax.tools.JavaCompiler;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import org.junit.Test;
+
+import com.github.migmong.migration.MigrationInfo;
+import com.github.migmong.migration.MigrationUnitInfo;
+import com.github.migmong.migration.annotations.Migration;
+import com.github.migmong.utils.MigrationService;
+
+/**
+ * Tests for building migration index at compile time
+ */
+public class MigrationIndexProcessorTest
+{
+    private static final String PACKAGE = "com.example.migrations";
+
+
+    @Test
+    public void shouldWriteSortedIndex() throws Exception
+    {
+        Path output = compile(
+                migrationSource("V_1__second", "@MigrationUnit(id = 2) public void b(MigrationContext c) {}" +
+                        "@MigrationUnit(id = 1, runAlways = true) public void a(MigrationContext c) {}"),
+                migrationSource("V_0_5__first", "@MigrationUnit(id = 1) public void a(MigrationContext c) {}"));
+
+        try (InputStream input = Files.newInputStream(output.resolve(MigrationIndex.LOCATION)))
+        {
+            List<MigrationIndex.Entry> entries = MigrationIndex.read(input, "V_");
+
+            assertEquals(2, entries.size());
+            assertEquals(PACKAGE + ".V_0_5__first", entries.get(0).getClassName());
+            assertEquals("0.5", entries.get(0).getVersion().toString());
+            assertEquals(PACKAGE + ".V_1__second", entries.get(1).getClassName());
+            assertEquals(Arrays.asList(new MigrationUnitInfo(1, "a", true), new MigrationUnitInfo(2, "b", false)),
+                    entries.get(1).getMigrationUnits());
+        }
+    }
+
+
+    @Test
+    public void shouldWriteBackgroundUnits() throws Exception
+    {
+        Path output = compile(migrationSource("V_1__background",
+                "@MigrationUnit(id = 1, runAlways = true, background = true) public void a(MigrationContext c) {}"));
+
+        try (InputStream input = Files.newInputStream(output.resolve(MigrationIndex.LOCATION)))
+        {
+            assertEquals(Collections.singletonList(new MigrationUnitInfo(1, "a", true, true)),
+                    MigrationIndex.read(input, "V_").get(0).getMigrationUnits());
+        }
+    }
+
+
+    @Test
+    public void shouldWriteMigrationCollections() throws Exception
+    {
+        Path source = Files.createTempDirectory("migmong").resolve("V_2__second.java");
+        Files.write(source, ("package " + PACKAGE + ";\n" +
+                "@com.github.migmong.migration.annotations.Migration(collections = {\"users\", \"orders\"})\n" +
+                "public class V_2__second {}\n").getBytes(StandardCharsets.UTF_8));
+        Path output = compile(source);
+
+        try (InputStream input = Files.newInputStream(output.resolve(MigrationIndex.LOCATION)))
+        {
+            List<MigrationIndex.Entry> entries = MigrationIndex.read(input, "V_");
+
+            assertEquals(new LinkedHashSet<>(Arrays.asList("users", "orders")), entries.get(0).getCollections());
+        }
+    }
+
+
+    @Test
+    public void shouldIgnoreIndexWithAnotherPrefix() throws Exception
+    {
+        Path output = compile(migrationSource("V_1__first", ""));
+
+        try (InputStream input = Files.newInputStream(output.resolve(MigrationIndex.LOCATION)))
+        {
+            assertEquals(null, MigrationIndex.read(input, "V"));
+        }
+    }
+
+
+    @Test
+    public void shouldRejectDuplicatedMigrationUnits() throws Exception
+    {
+        assertFalse(tryCompile(Files.createTempDirectory("migmong"), migrationSource("V_1__duplicates",
+                "@MigrationUnit(id = 1) public void a(MigrationContext c) {}" +
+                        "@MigrationUnit(id = 1) public void b(MigrationContext c) {}")));
+    }
+
+
+    @Test
+    public void shouldRejectWrongVersion() throws Exception
+    {
+        assertFalse(tryCompile(Files.createTempDirectory("migmong"), migrationSource("V_1a__wrongVersion", "")));
+    }
+
+
+    @Test
+    public void shouldFetchIndexedMigrations() throws Exception
+    {
+        Path output = compile(migrationSource("V_2__second", ""), migrationSource("V_1_1__first", ""));
+
+        try (URLClassLoader classLoader = new URLClassLoader(new URL[] { output.toUri().toURL() },
+                getClass().getClassLoader()))
+        {
+            List<MigrationInfo> migrations = new MigrationService(PACKAGE, classLoader).fetchMigrations("V_");
+
+            assertEquals(2, migrations.size());
+            assertEquals("V_1_1__first", migrations.get(0).getSimpleName());
+            assertEquals("V_2__second", migrations.get(1).getMigrationClass().getSimpleName());
+        }
+    }
+
+
+    private Path compile(Path... sources) throws IOException
+    {
+        Path output = Files.createTempDirectory("migmong");
+        assertTrue(tryCompile(output, sources));
+        return output;
+    }
+
+
+    private boolean tryCompile(Path output, Path... sources) throws IOException
+    {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        try (StandardJavaFileManager fileManager = compiler.getStandardFileManager(null, null, null))
+        {
+            String classPath = new File(Migration.class.getProtectionDomain().getCodeSource().getLocation().getPath())
+                    .getPath();
+            List<String> options = Arrays.asList("-d", output.toString(), "-classpath", classPath,
+                    "-A" + MigrationIndex.PREFIX_OPTION + "=V_");
+
+            JavaCompiler.CompilationTask task = compiler.getTask(null, fileManager, null, options, null,
+                    fileManager.getJavaFileObjects(sources));
+            task.setProcessors(Collections.singletonList(new MigrationIndexProcessor()));
+            return task.call();
+        }
+    }
+
+
+    private Path migrationSource(String className, String body) throws IOException
+    {
+        Path source = Files.createTempDirectory("migmong").resolve(className + ".java");
+        String content = "package " + PACKAGE + ";\n" +
+                "import com.github.migmong.migration.MigrationContext;\n" +
+                "import com.github.migmong.migration.annotations.Migration;\n" +
+                "import com.github.migmong.migration.annotations.MigrationUnit;\n" +
+                "@Migration public class " + className + " {" + body + "}\n";
+        Files.write(source, content.getBytes(StandardCharsets.UTF_8));
+        return source;
+    }
+}
@@ -0,0 +1,54 @@
+package com.github.migmong.listener;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+
+import java.util.Date;
+
+import org.junit.Test;
+
+import com.github.migmong.migration.MigrationEntry;
+import com.github.migmong.migration.data.BulkWriteSummary;
+
+/**
+ * Tests for publishing migration metrics
+ */
+public class MetricsMigrationListenerTest
+{
+    private static final MigrationEntry ENTRY = new MigrationEntry(1, new Date(), "V_1__users", "addUsers");
+
+
+    @Test
+    public void shouldPublishUnitDurationAndDocuments()
+    {
+        MetricsRegistry registry = mock(MetricsRegistry.class);
+        BulkWriteSummary writeSummary = new BulkWriteSummary();
+        writeSummary.setInserted(10);
+
+        new MetricsMigrationListener(registry).onUnitFinished(ENTRY, 25, writeSummary);
+
+        verify(registry).recordTime(MetricsMigrationListener.UNIT_DURATION, 25, "migration", "V_1__users",
+                "unit", "addUsers", "result", "applied");
+        verify(registry).incrementCounter(MetricsMigrationListener.UNIT_DOCUMENTS, 10, "migration", "V_1__users",
+                "unit", "addUsers", "operation", "inserted");
+        verifyNoMoreInteractions(registry);
+    }
+
+
+    @Test
+    public void shouldCountFailuresAndLockWait()
+    {
+        MetricsRegistry registry = mock(MetricsRegistry.class);
+        MetricsMigrationListener listener = new MetricsMigrationListener(registry);
+
+        listener.onLockAcquired(300);
+        listener.onUnitFailed(ENTRY, 5, new IllegalStateException());
+
+        verify(registry).recordTime(MetricsMigrationListener.LOCK_WAIT, 300, "result", "acquired");
+        verify(registry).recordTime(MetricsMigrationListener.UNIT_DURATION, 5, "migration", "V_1__users",
+                "unit", "addUsers", "result", "failed");
+        verify(registry).incrementCounter(MetricsMigrationListener.UNIT_FAILURES, 1, "migration", "V_1__users",
+                "unit", "addUsers", "exception", "IllegalStateException");
+    }
+}
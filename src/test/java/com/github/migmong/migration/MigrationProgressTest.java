@@ -0,0 +1,76 @@
+package com.github.migmong.migration;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.Test;
+
+/**
+ * Tests for waiting for migrations up to a version
+ */
+public class MigrationProgressTest
+{
+    private static final MigrationInfo FIRST = migration("V_1__first", new Version(1));
+    private static final MigrationInfo SECOND = migration("V_2__second", new Version(2));
+
+
+    @Test
+    public void shouldWaitOnlyForMigrationsUpToVersion()
+    {
+        MigrationProgress progress = new MigrationProgress();
+        CompletableFuture<Void> first = progress.awaitVersion(new Version(1));
+        CompletableFuture<Void> all = progress.awaitReady();
+
+        progress.start(Arrays.asList(FIRST, SECOND));
+        progress.ready(FIRST);
+
+        assertTrue(first.isDone());
+        assertFalse(all.isDone());
+
+        progress.ready(SECOND);
+
+        assertTrue(all.isDone());
+        assertFalse(progress.isFinished());
+    }
+
+
+    @Test
+    public void shouldFailMigrationsNotExecutedBecauseOfFailures()
+    {
+        MigrationProgress progress = new MigrationProgress();
+        progress.start(Arrays.asList(FIRST, SECOND));
+        progress.failed(FIRST, new IllegalStateException());
+        MigrationReport report = new MigrationReport(MigrationReport.Status.COMPLETED);
+        report.addFailed(new MigrationEntry(1, null, "V_1__first", "unit"), new IllegalStateException());
+
+        progress.finish(report);
+
+        assertTrue(progress.awaitVersion(new Version(2)).isCompletedExceptionally());
+        assertTrue(progress.isFinished());
+    }
+
+
+    @Test
+    public void shouldNotReleaseMigrationsWhenLockIsNotAcquired()
+    {
+        MigrationProgress progress = new MigrationProgress();
+        CompletableFuture<Void> ready = progress.awaitReady();
+        progress.start(Arrays.asList(FIRST, SECOND));
+
+        progress.finish(new MigrationReport(MigrationReport.Status.LOCK_NOT_ACQUIRED));
+
+        assertTrue(ready.isCompletedExceptionally());
+        assertTrue(progress.isFinished());
+    }
+
+
+    private static MigrationInfo migration(String className, Version version)
+    {
+        return new MigrationInfo(className, version, Collections.emptyList(), Collections.emptySet(),
+                MigrationProgressTest.class.getClassLoader());
+    }
+}
@@ -0,0 +1,33 @@
+package com.github.migmong.migration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.Date;
+
+import org.junit.Test;
+
+import com.github.migmong.trace.CommandSummary;
+
+/**
+ * Tests for migration process results
+ */
+public class MigrationReportTest
+{
+    @Test
+    public void shouldFindCommandSummaryAfterUnitStatisticsChange()
+    {
+        MigrationEntry migrationEntry = new MigrationEntry(1, new Date(), "V_1__first", "declaredUpdate");
+        CommandSummary commandSummary = new CommandSummary();
+        MigrationReport report = new MigrationReport(MigrationReport.Status.COMPLETED);
+
+        // Declared updates are tracked before they are applied and their duration is known
+        report.addCommandSummary(migrationEntry, commandSummary);
+        migrationEntry.setDurationMillis(10L);
+        migrationEntry.addProcessedDocuments(5);
+
+        assertSame(commandSummary, report.getCommandSummaries().get(migrationEntry));
+        assertEquals(new MigrationEntry(1, migrationEntry.getTimestamp(), "V_1__first", "declaredUpdate"),
+                migrationEntry);
+    }
+}
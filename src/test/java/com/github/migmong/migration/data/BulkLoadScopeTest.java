@@ -0,0 +1,137 @@
+package com.github.migmong.migration.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import org.bson.Document;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.migmong.AbstractMigrationTest;
+import com.github.migmong.common.Constants;
+import com.github.migmong.dao.ChangeEntryDao;
+import com.github.migmong.migration.MigrationEntry;
+import com.mongodb.MongoClient;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+
+/**
+ * Tests for bulk loads with deferred index rebuild
+ */
+public class BulkLoadScopeTest extends AbstractMigrationTest
+{
+    private static final String COLLECTION = "users";
+
+    private MongoDatabase db;
+    private MongoCollection<Document> collection;
+    private ChangeEntryDao dao;
+    private MigrationEntry migrationEntry = new MigrationEntry(1, new Date(), "V_1__users", "loadUsers");
+
+
+    @Before
+    public void init() throws Exception
+    {
+        MongoClient mongoClient = mock(MongoClient.class);
+        db = prepareFakeDatabase();
+        when(mongoClient.getDatabase(anyString())).thenReturn(db);
+
+        dao = new ChangeEntryDao(Constants.TEST_MIGRATION_COLLECTION, Constants.TEST_LOCK_COLLECTION, false,
+                5L, 10L, false);
+        dao.connectMongoDb(mongoClient, Constants.TEST_DB_NAME);
+        dao.initializeCollections();
+
+        collection = db.getCollection(COLLECTION);
+        collection.insertOne(new Document("_id", 1).append("email", "a@b.c").append("age", 30));
+        collection.createIndex(Indexes.ascending("email"), new IndexOptions().unique(true));
+        collection.createIndex(Indexes.ascending("age"));
+        collection.createIndex(Indexes.ascending("lastName", "firstName"));
+    }
+
+
+    @Test
+    public void shouldDropAndRebuildSecondaryIndexes() throws Exception
+    {
+        try (BulkLoadScope scope = new BulkLoadScope(db, COLLECTION, migrationEntry, null).open())
+        {
+            assertEquals(Arrays.asList("age_1", "lastName_1_firstName_1"), names(scope.getDeferredIndexes()));
+            assertEquals(Arrays.asList("_id_", "email_1"), indexNames());
+        }
+
+        assertEquals(Arrays.asList("_id_", "age_1", "email_1", "lastName_1_firstName_1"), indexNames());
+    }
+
+
+    @Test
+    public void shouldReuseSavedIndexesAfterRestart() throws Exception
+    {
+        new BulkLoadScope(db, COLLECTION, migrationEntry, dao).open();
+        assertEquals(Arrays.asList("age_1", "lastName_1_firstName_1"),
+                names(dao.loadDeferredIndexes(migrationEntry, COLLECTION)));
+
+        // The unit is restarted after the indexes have been dropped
+        try (BulkLoadScope scope = new BulkLoadScope(db, COLLECTION, migrationEntry, dao).open())
+        {
+            assertEquals(Arrays.asList("age_1", "lastName_1_firstName_1"), names(scope.getDeferredIndexes()));
+        }
+
+        assertEquals(Arrays.asList("_id_", "age_1", "email_1", "lastName_1_firstName_1"), indexNames());
+        assertNull(dao.loadDeferredIndexes(migrationEntry, COLLECTION));
+    }
+
+
+    @Test
+    public void shouldRestoreIndexesOfInterruptedUnits() throws Exception
+    {
+        new BulkLoadScope(db, COLLECTION, migrationEntry, dao).open();
+
+        assertEquals(1, dao.restoreDeferredIndexes());
+
+        assertEquals(Arrays.asList("_id_", "age_1", "email_1", "lastName_1_firstName_1"), indexNames());
+        assertNull(dao.loadDeferredIndexes(migrationEntry, COLLECTION));
+        assertEquals(0, dao.restoreDeferredIndexes());
+    }
+
+
+    @Test
+    public void shouldRestoreIndexesOfInterruptedAppliedUnit() throws Exception
+    {
+        // Always runnable units do not save checkpoints, but their deferred indexes are kept on the applied entry
+        dao.save(migrationEntry);
+        new BulkLoadScope(db, COLLECTION, migrationEntry, dao.getDeferredIndexStore()).open();
+
+        assertEquals(Arrays.asList("age_1", "lastName_1_firstName_1"),
+                names(dao.getDeferredIndexStore().loadDeferredIndexes(migrationEntry, COLLECTION)));
+        assertEquals(1, dao.restoreDeferredIndexes());
+
+        assertEquals(Arrays.asList("_id_", "age_1", "email_1", "lastName_1_firstName_1"), indexNames());
+        assertNull(dao.getDeferredIndexStore().loadDeferredIndexes(migrationEntry, COLLECTION));
+        assertEquals(1, db.getCollection(Constants.TEST_MIGRATION_COLLECTION).countDocuments());
+    }
+
+
+    private List<String> indexNames()
+    {
+        List<String> names = names(collection.listIndexes().into(new ArrayList<>()));
+        names.sort(null);
+        return names;
+    }
+
+
+    private static List<String> names(List<Document> indexes)
+    {
+        List<String> names = new ArrayList<>();
+        for (Document index : indexes)
+            names.add(index.getString("name"));
+        return names;
+    }
+}
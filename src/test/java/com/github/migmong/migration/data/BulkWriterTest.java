@@ -0,0 +1,125 @@
+package com.github.migmong.migration.data;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.Document;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.conversions.Bson;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.migmong.AbstractMigrationTest;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.Updates;
+
+/**
+ * Tests for buffered bulk writes
+ */
+public class BulkWriterTest extends AbstractMigrationTest
+{
+    private MongoCollection<Document> collection;
+
+
+    @Before
+    public void init()
+    {
+        collection = prepareFakeDatabase().getCollection("users");
+    }
+
+
+    @Test
+    public void shouldWriteBatchWhenItIsFull()
+    {
+        BulkWriter writer = new BulkWriter(collection).setTargetLatency(0).setBatchSize(3);
+
+        writer.insert(new Document("_id", 1)).insert(new Document("_id", 2));
+        assertEquals(0, collection.countDocuments());
+
+        writer.insert(new Document("_id", 3));
+        assertEquals(3, collection.countDocuments());
+
+        writer.insert(new Document("_id", 4));
+        writer.flush();
+        assertEquals(4, collection.countDocuments());
+        assertEquals(2, writer.getSummary().getBatches());
+    }
+
+
+    @Test
+    public void shouldWriteBatchWhenItExceedsByteSize()
+    {
+        BulkWriter writer = new BulkWriter(collection).setTargetLatency(0).setMaxBatchBytes(200);
+        String payload = new String(new char[120]).replace('\0', 'x');
+
+        writer.insert(new Document("_id", 1).append("payload", payload));
+        assertEquals(0, collection.countDocuments());
+
+        writer.insert(new Document("_id", 2).append("payload", payload));
+        assertEquals(1, collection.countDocuments());
+    }
+
+
+    @Test
+    public void shouldEncodeOnlySampledModels()
+    {
+        AtomicInteger encoded = new AtomicInteger();
+        Bson countingFilter = new Bson()
+        {
+            @Override
+            public <TDocument> BsonDocument toBsonDocument(Class<TDocument> documentClass,
+                    CodecRegistry codecRegistry)
+            {
+                encoded.incrementAndGet();
+                return new BsonDocument("_id", new BsonInt32(1));
+            }
+        };
+        BulkWriter writer = new BulkWriter(collection).setTargetLatency(0).setBatchSize(1000);
+
+        for (int i = 0; i < BulkWriter.SIZE_SAMPLE_INTERVAL * 2; i++)
+            writer.update(countingFilter, Updates.set("active", true));
+
+        assertEquals(2, encoded.get());
+    }
+
+
+    @Test
+    public void shouldSummarizeWrites()
+    {
+        collection.insertOne(new Document("_id", 1).append("name", "first"));
+        collection.insertOne(new Document("_id", 2).append("name", "second"));
+        BulkWriter writer = new BulkWriter(collection);
+
+        writer.update(Filters.eq("_id", 1), Updates.set("name", "updated"))
+                .add(new UpdateOneModel<>(Filters.eq("_id", 3), Updates.set("name", "third"),
+                        new UpdateOptions().upsert(true)))
+                .replace(Filters.eq("_id", 2), new Document("name", "replaced"))
+                .delete(Filters.eq("_id", 1))
+                .insert(new Document("_id", 4));
+        writer.flush();
+
+        BulkWriteSummary summary = writer.getSummary();
+        assertEquals(1, summary.getInserted());
+        assertEquals(1, summary.getUpserted());
+        assertEquals(1, summary.getDeleted());
+        assertEquals(2, summary.getModified());
+    }
+
+
+    @Test
+    public void shouldGrowBatchWhenWritesAreFast()
+    {
+        BulkWriter writer = new BulkWriter(collection).setTargetLatency(60000).setBatchSize(2).setMaxBatchSize(6);
+
+        for (int i = 0; i < 10; i++)
+            writer.insert(new Document("_id", i));
+
+        assertEquals(6, writer.getBatchSize());
+    }
+}
@@ -0,0 +1,150 @@
+package com.github.migmong.migration.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.bson.Document;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.migmong.AbstractMigrationTest;
+import com.github.migmong.common.Constants;
+import com.github.migmong.dao.ChangeEntryDao;
+import com.github.migmong.migration.MigrationEntry;
+import com.mongodb.MongoClient;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+
+/**
+ * Tests for chunked iteration with checkpoints
+ */
+public class ChunkIteratorTest extends AbstractMigrationTest
+{
+    private static final String COLLECTION = "users";
+
+    private MongoCollection<Document> collection;
+    private ChangeEntryDao dao;
+    private MigrationEntry migrationEntry = new MigrationEntry(1, new Date(), "V_1__users", "migrateUsers");
+
+
+    @Before
+    public void init() throws Exception
+    {
+        MongoClient mongoClient = mock(MongoClient.class);
+        MongoDatabase db = prepareFakeDatabase();
+        when(mongoClient.getDatabase(anyString())).thenReturn(db);
+
+        dao = new ChangeEntryDao(Constants.TEST_MIGRATION_COLLECTION, Constants.TEST_LOCK_COLLECTION, false,
+                5L, 10L, false);
+        dao.connectMongoDb(mongoClient, Constants.TEST_DB_NAME);
+        dao.initializeCollections();
+
+        collection = db.getCollection(COLLECTION);
+        for (int i = 1; i <= 10; i++)
+            collection.insertOne(new Document("_id", i).append("group", i % 3));
+    }
+
+
+    @Test
+    public void shouldIterateInChunks() throws Exception
+    {
+        ChunkIterator chunks = new ChunkIterator(collection, null, ChunkIterator.ID, 4, migrationEntry, dao);
+
+        List<Integer> sizes = new ArrayList<>();
+        while (chunks.hasNext())
+            sizes.add(chunks.next().size());
+
+        assertEquals(List.of(4, 4, 2), sizes);
+        assertEquals(10, chunks.getProcessed());
+        assertEquals(new MigrationCheckpoint(10, 10, 10), dao.loadCheckpoint(migrationEntry));
+    }
+
+
+    @Test
+    public void shouldResumeAfterLastProcessedChunk() throws Exception
+    {
+        ChunkIterator interrupted = new ChunkIterator(collection, null, ChunkIterator.ID, 3, migrationEntry, dao);
+        interrupted.next();
+        interrupted.next();
+        // The second chunk has not been processed completely
+
+        ChunkIterator resumed = new ChunkIterator(collection, null, ChunkIterator.ID, 3, migrationEntry, dao);
+
+        assertEquals(3, resumed.getProcessed());
+        assertEquals(4, resumed.next().get(0).get("_id"));
+    }
+
+
+    @Test
+    public void shouldResumeByNotUniqueKey() throws Exception
+    {
+        ChunkIterator interrupted = new ChunkIterator(collection, null, "group", 3, migrationEntry, dao);
+        List<Object> ids = new ArrayList<>();
+        for (Document document : interrupted.next())
+            ids.add(document.get("_id"));
+        interrupted.hasNext();
+
+        ChunkIterator resumed = new ChunkIterator(collection, null, "group", 3, migrationEntry, dao);
+        while (resumed.hasNext())
+        {
+            for (Document document : resumed.next())
+                ids.add(document.get("_id"));
+        }
+
+        assertEquals(List.of(3, 6, 9, 1, 4, 7, 10, 2, 5, 8), ids);
+    }
+
+
+    @Test
+    public void shouldResumeByEmbeddedKey() throws Exception
+    {
+        MongoCollection<Document> events = dao.getMongoDatabase().getCollection("events");
+        for (int i = 1; i <= 10; i++)
+            events.insertOne(new Document("_id", i).append("meta", new Document("createdAt", i * 10)));
+        ChunkIterator interrupted = new ChunkIterator(events, null, "meta.createdAt", 3, migrationEntry, dao);
+        interrupted.next();
+        interrupted.hasNext();
+
+        ChunkIterator resumed = new ChunkIterator(events, null, "meta.createdAt", 3, migrationEntry, dao);
+
+        assertEquals(new MigrationCheckpoint(30, 3, 3), dao.loadCheckpoint(migrationEntry));
+        assertEquals(4, resumed.next().get(0).get("_id"));
+    }
+
+
+    @Test
+    public void shouldFlushWritesBeforeCheckpoint() throws Exception
+    {
+        MongoCollection<Document> target = dao.getMongoDatabase().getCollection("targetUsers");
+        BulkWriter writer = new BulkWriter(target).setBatchSize(100);
+        ChunkIterator chunks = new ChunkIterator(collection, null, ChunkIterator.ID, 4, migrationEntry, dao)
+                .setBeforeCheckpoint(writer::flush);
+
+        for (Document document : chunks.next())
+            writer.insert(document);
+        assertEquals(0, target.countDocuments());
+
+        chunks.hasNext();
+        assertEquals(4, target.countDocuments());
+        assertEquals(4, dao.loadCheckpoint(migrationEntry).getProcessed());
+    }
+
+
+    @Test
+    public void shouldNotSaveCheckpointWithoutStore() throws Exception
+    {
+        ChunkIterator chunks = new ChunkIterator(collection, null, ChunkIterator.ID, 20, migrationEntry, null);
+
+        assertEquals(10, chunks.next().size());
+        assertFalse(chunks.hasNext());
+        assertEquals(10, chunks.getProcessed());
+        assertEquals(0, dao.getMongoDatabase().getCollection(Constants.TEST_MIGRATION_COLLECTION).countDocuments());
+    }
+}
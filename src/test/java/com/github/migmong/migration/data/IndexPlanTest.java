@@ -0,0 +1,118 @@
+package com.github.migmong.migration.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.migmong.AbstractMigrationTest;
+import com.mongodb.MongoClientSettings;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Collation;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+
+/**
+ * Tests for declarative index changes
+ */
+public class IndexPlanTest extends AbstractMigrationTest
+{
+    private MongoDatabase db;
+
+
+    @Before
+    public void init()
+    {
+        db = prepareFakeDatabase();
+        db.getCollection("users").insertOne(new Document("_id", 1));
+        db.getCollection("orders").insertOne(new Document("_id", 1));
+    }
+
+
+    @Test
+    public void shouldCreateIndexesOfAllCollections() throws Exception
+    {
+        IndexPlanResult result = new IndexPlan(db)
+                .createIndex("users", Indexes.ascending("email"), new IndexOptions().unique(true))
+                .createIndex("users", Indexes.ascending("lastName", "firstName"))
+                .createIndex("orders", Indexes.descending("created"))
+                .apply();
+
+        assertEquals(Arrays.asList("users.email_1", "users.lastName_1_firstName_1", "orders.created_-1"),
+                result.getCreated());
+        assertEquals(3, db.getCollection("users").listIndexes().into(new ArrayList<>()).size());
+        assertEquals(2, db.getCollection("orders").listIndexes().into(new ArrayList<>()).size());
+    }
+
+
+    @Test
+    public void shouldSkipExistingIndexes() throws Exception
+    {
+        db.getCollection("users").createIndex(Indexes.ascending("email"), new IndexOptions().unique(true));
+
+        IndexPlanResult result = new IndexPlan(db)
+                .createIndex("users", Indexes.ascending("email"), new IndexOptions().unique(true))
+                .createIndex("users", Indexes.ascending("age"))
+                .apply();
+
+        assertEquals(Collections.singletonList("users.age_1"), result.getCreated());
+        assertEquals(Collections.singletonList("users.email_1"), result.getSkipped());
+    }
+
+
+    @Test
+    public void shouldIgnoreMissingDroppedIndexes() throws Exception
+    {
+        IndexPlanResult result = new IndexPlan(db)
+                .dropIndex("users", "missing_1")
+                .createIndex("users", Indexes.ascending("email"), new IndexOptions().unique(true))
+                .apply();
+
+        assertEquals(Collections.emptyList(), result.getDropped());
+        assertEquals(Collections.singletonList("users.email_1"), result.getCreated());
+    }
+
+
+    @Test
+    public void shouldCompareIndexOptions()
+    {
+        BsonDocument keys = BsonDocument.parse("{lastName: 1, firstName: 1}");
+        Document index = new Document("key", new Document("lastName", 1.0).append("firstName", 1))
+                .append("name", "lastName_1_firstName_1")
+                .append("unique", true);
+
+        assertEquals("lastName_1_firstName_1", IndexPlan.generateIndexName(keys));
+        assertTrue(IndexPlan.isSameIndex(index, keys, new IndexOptions().unique(true),
+                MongoClientSettings.getDefaultCodecRegistry()));
+        assertFalse(IndexPlan.isSameIndex(index, keys, new IndexOptions(),
+                MongoClientSettings.getDefaultCodecRegistry()));
+        assertFalse(IndexPlan.isSameIndex(index, BsonDocument.parse("{firstName: 1, lastName: 1}"),
+                new IndexOptions().unique(true), MongoClientSettings.getDefaultCodecRegistry()));
+    }
+
+
+    @Test
+    public void shouldSendIndexesWithOtherOptions()
+    {
+        BsonDocument keys = BsonDocument.parse("{name: 1.0}");
+        Document index = new Document("v", 2).append("key", new Document("name", 1)).append("name", "name_1");
+        Document collatedIndex = new Document(index).append("collation", new Document("locale", "en"));
+
+        assertEquals("name_1", IndexPlan.generateIndexName(keys));
+        assertTrue(IndexPlan.isSameIndex(index, keys, new IndexOptions(),
+                MongoClientSettings.getDefaultCodecRegistry()));
+        assertFalse(IndexPlan.isSameIndex(collatedIndex, keys, new IndexOptions(),
+                MongoClientSettings.getDefaultCodecRegistry()));
+        assertFalse(IndexPlan.isSameIndex(index, keys,
+                new IndexOptions().collation(Collation.builder().locale("en").build()),
+                MongoClientSettings.getDefaultCodecRegistry()));
+    }
+}
@@ -0,0 +1,148 @@
+package com.github.migmong.migration.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.bson.Document;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.migmong.AbstractMigrationTest;
+import com.github.migmong.common.Constants;
+import com.github.migmong.dao.ChangeEntryDao;
+import com.github.migmong.exception.MigrationException;
+import com.github.migmong.migration.MigrationEntry;
+import com.mongodb.MongoClient;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Updates;
+
+/**
+ * Tests for concurrent processing of collection partitions
+ */
+public class PartitionedScanTest extends AbstractMigrationTest
+{
+    private static final String COLLECTION = "users";
+
+    private MongoDatabase db;
+    private ChangeEntryDao dao;
+    private MigrationEntry migrationEntry = new MigrationEntry(1, new Date(), "V_1__users", "migrateUsers");
+
+
+    @Before
+    public void init() throws Exception
+    {
+        MongoClient mongoClient = mock(MongoClient.class);
+        db = prepareFakeDatabase();
+        when(mongoClient.getDatabase(anyString())).thenReturn(db);
+
+        dao = new ChangeEntryDao(Constants.TEST_MIGRATION_COLLECTION, Constants.TEST_LOCK_COLLECTION, false,
+                5L, 10L, false);
+        dao.connectMongoDb(mongoClient, Constants.TEST_DB_NAME);
+        dao.initializeCollections();
+
+        for (int i = 0; i < 100; i++)
+            db.getCollection(COLLECTION).insertOne(new Document("_id", i));
+    }
+
+
+    @Test
+    public void shouldProcessAllDocumentsInPartitions() throws Exception
+    {
+        Set<Object> ids = ConcurrentHashMap.newKeySet();
+        PartitionedScanResult result = new PartitionedScan(db, COLLECTION, 4, migrationEntry, dao)
+                .setSplitStrategy(PartitionedScan.SplitStrategy.MIN_MAX)
+                .setChunkSize(10)
+                .forEachChunk((partition, chunk) -> {
+                    for (Document document : chunk)
+                    {
+                        ids.add(document.get("_id"));
+                        partition.bulkWriter(COLLECTION).update(Filters.eq("_id", document.get("_id")),
+                                Updates.set("migrated", true));
+                    }
+                });
+
+        assertEquals(100, ids.size());
+        assertEquals(4, result.getPartitions().size());
+        assertEquals(100, result.getProcessed());
+        assertEquals(100, result.getWriteSummary().getModified());
+        assertEquals(100, db.getCollection(COLLECTION).countDocuments(Filters.eq("migrated", true)));
+        assertEquals(Arrays.asList(25L, 50L, 75L), dao.loadSplitPoints(migrationEntry));
+    }
+
+
+    @Test
+    public void shouldSplitByEmbeddedKey() throws Exception
+    {
+        for (int i = 0; i < 100; i++)
+            db.getCollection("events").insertOne(new Document("_id", i).append("meta", new Document("seq", i)));
+        Set<Object> ids = ConcurrentHashMap.newKeySet();
+
+        PartitionedScanResult result = new PartitionedScan(db, "events", 4, migrationEntry, dao)
+                .setSplitStrategy(PartitionedScan.SplitStrategy.MIN_MAX)
+                .setKeyField("meta.seq")
+                .setChunkSize(10)
+                .forEachChunk((partition, chunk) -> {
+                    for (Document document : chunk)
+                        ids.add(document.get("_id"));
+                });
+
+        assertEquals(100, ids.size());
+        assertEquals(100, result.getProcessed());
+        assertEquals(Arrays.asList(25L, 50L, 75L), dao.loadSplitPoints(migrationEntry));
+    }
+
+
+    @Test
+    public void shouldResumeInterruptedPartition() throws Exception
+    {
+        try
+        {
+            new PartitionedScan(db, COLLECTION, 2, migrationEntry, dao)
+                    .setSplitPoints(Arrays.asList(50))
+                    .setChunkSize(10)
+                    .forEachChunk((partition, chunk) -> {
+                        if (partition.getIndex() == 1 && chunk.get(0).getInteger("_id") == 70)
+                            throw new IllegalStateException("interrupted");
+                    });
+            fail();
+        }
+        catch (MigrationException e)
+        {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+
+        Set<Object> ids = ConcurrentHashMap.newKeySet();
+        PartitionedScanResult result = new PartitionedScan(db, COLLECTION, 2, migrationEntry, dao)
+                .setSplitPoints(Arrays.asList(50))
+                .setChunkSize(10)
+                .forEachChunk((partition, chunk) -> chunk.forEach(document -> ids.add(document.get("_id"))));
+
+        assertEquals(100, result.getProcessed());
+        assertTrue(ids.contains(70));
+        assertFalse(ids.contains(60));
+    }
+
+
+    @Test
+    public void shouldScanInOnePartitionWithoutSplitPoints() throws Exception
+    {
+        List<ScanPartition> partitions = new PartitionedScan(db, COLLECTION, 1, migrationEntry, null)
+                .forEachChunk((partition, chunk) -> { })
+                .getPartitions();
+
+        assertEquals(1, partitions.size());
+        assertEquals(100, partitions.get(0).getProcessed());
+    }
+}
@@ -0,0 +1,146 @@
+package com.github.migmong.migration.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.migmong.AbstractMigrationTest;
+import com.github.migmong.common.Constants;
+import com.github.migmong.dao.ChangeEntryDao;
+import com.github.migmong.migration.MigrationEntry;
+import com.mongodb.MongoClient;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Field;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Updates;
+
+/**
+ * Tests for transformations executed on the server
+ */
+public class ServerSideTransformTest extends AbstractMigrationTest
+{
+    private static final String COLLECTION = "users";
+    private static final String TARGET_COLLECTION = "usersV2";
+
+    private MongoDatabase db;
+    private ChangeEntryDao dao;
+    private MigrationEntry migrationEntry = new MigrationEntry(1, new Date(), "V_1__users", "transformUsers");
+
+
+    @Before
+    public void init() throws Exception
+    {
+        MongoClient mongoClient = mock(MongoClient.class);
+        db = prepareFakeDatabase();
+        when(mongoClient.getDatabase(anyString())).thenReturn(db);
+
+        dao = new ChangeEntryDao(Constants.TEST_MIGRATION_COLLECTION, Constants.TEST_LOCK_COLLECTION, false,
+                5L, 10L, false);
+        dao.connectMongoDb(mongoClient, Constants.TEST_DB_NAME);
+        dao.initializeCollections();
+
+        for (int i = 1; i <= 10; i++)
+            db.getCollection(COLLECTION).insertOne(new Document("_id", i).append("name", "user" + i));
+    }
+
+
+    @Test
+    public void shouldUpdateDocumentsInChunks() throws Exception
+    {
+        ServerSideTransformResult result = update().setChunkSize(4).execute();
+
+        assertEquals(10, result.getProcessed());
+        assertEquals(10, result.getModified());
+        assertEquals(3, result.getChunks());
+        assertEquals(10, db.getCollection(COLLECTION).countDocuments(Filters.eq("migrated", true)));
+        assertEquals(Long.valueOf(10), migrationEntry.getProcessedDocuments());
+        assertEquals(8, dao.loadCheckpoint(migrationEntry).getProcessed());
+    }
+
+
+    @Test
+    public void shouldResumeAfterLastChunk() throws Exception
+    {
+        dao.saveCheckpoint(migrationEntry, new MigrationCheckpoint(4, 4, 4));
+
+        ServerSideTransformResult result = update().setChunkSize(4).execute();
+
+        assertEquals(10, result.getProcessed());
+        assertEquals(2, result.getChunks());
+        assertEquals(6, db.getCollection(COLLECTION).countDocuments(Filters.eq("migrated", true)));
+        assertEquals(Long.valueOf(10), migrationEntry.getProcessedDocuments());
+    }
+
+
+    @Test
+    public void shouldWriteAggregationResultsWithOut() throws Exception
+    {
+        ServerSideTransformResult result = new ServerSideTransform(db, COLLECTION, migrationEntry, dao)
+                .setFilter(Filters.lte("_id", 5))
+                .setPipeline(Collections.singletonList(Aggregates.addFields(new Field<>("fullName", "$name"))))
+                .outInto(TARGET_COLLECTION)
+                .setCountProcessed(true)
+                .execute();
+
+        assertEquals(5, result.getProcessed());
+        assertEquals(1, result.getChunks());
+        assertEquals(5, db.getCollection(TARGET_COLLECTION).countDocuments(Filters.exists("fullName")));
+    }
+
+
+    @Test
+    public void shouldNotCountUnchunkedAggregationByDefault() throws Exception
+    {
+        ServerSideTransformResult result = new ServerSideTransform(db, COLLECTION, migrationEntry, dao)
+                .outInto(TARGET_COLLECTION)
+                .execute();
+
+        assertEquals(0, result.getProcessed());
+        assertEquals(10, db.getCollection(TARGET_COLLECTION).countDocuments());
+    }
+
+
+    @Test(expected = IllegalStateException.class)
+    public void shouldNotChunkOut() throws Exception
+    {
+        new ServerSideTransform(db, COLLECTION, migrationEntry, dao)
+                .outInto(TARGET_COLLECTION)
+                .setChunkSize(4)
+                .execute();
+    }
+
+
+    /**
+     * The fake server does not support pipeline-style updates, so the stages are applied as a regular update
+     */
+    @SuppressWarnings("unchecked")
+    private ServerSideTransform update()
+    {
+        MongoCollection<Document> collection = db.getCollection(COLLECTION);
+        MongoCollection<Document> pipelineCollection = mock(MongoCollection.class);
+        when(pipelineCollection.find(any(Bson.class))).thenAnswer(
+                invocation -> collection.find((Bson)invocation.getArguments()[0]));
+        when(pipelineCollection.updateMany(any(Bson.class), anyListOf(Bson.class))).thenAnswer(
+                invocation -> collection.updateMany((Bson)invocation.getArguments()[0],
+                        Updates.combine((List<Bson>)invocation.getArguments()[1])));
+        MongoDatabase pipelineDatabase = mock(MongoDatabase.class);
+        when(pipelineDatabase.getCollection(COLLECTION)).thenReturn(pipelineCollection);
+
+        return new ServerSideTransform(pipelineDatabase, COLLECTION, migrationEntry, dao)
+                .updateWith(Collections.singletonList(Updates.set("migrated", true)));
+    }
+}
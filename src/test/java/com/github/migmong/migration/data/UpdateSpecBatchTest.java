@@ -0,0 +1,96 @@
+package com.github.migmong.migration.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.bson.Document;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.migmong.AbstractMigrationTest;
+import com.mongodb.MongoClientSettings;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Updates;
+
+/**
+ * Tests for fusion of declared updates
+ */
+public class UpdateSpecBatchTest extends AbstractMigrationTest
+{
+    private MongoDatabase db;
+
+
+    @Before
+    public void init()
+    {
+        db = prepareFakeDatabase();
+        for (int i = 1; i <= 3; i++)
+            db.getCollection("users").insertOne(new Document("_id", i).append("name", "user" + i).append("legacy", 1));
+    }
+
+
+    @Test
+    public void shouldFuseUpdatesOfDifferentFields()
+    {
+        List<List<UpdateSpec>> groups = UpdateSpecBatch.fuse(Arrays.asList(
+                new UpdateSpec("users", new Document(), Updates.rename("name", "fullName")),
+                new UpdateSpec("users", new Document(), Updates.set("active", true)),
+                new UpdateSpec("users", new Document(), Updates.unset("legacy"))),
+                MongoClientSettings.getDefaultCodecRegistry());
+
+        assertEquals(1, groups.size());
+        assertEquals(3, groups.get(0).size());
+    }
+
+
+    @Test
+    public void shouldNotFuseDependentUpdates()
+    {
+        List<List<UpdateSpec>> groups = UpdateSpecBatch.fuse(Arrays.asList(
+                new UpdateSpec("users", new Document(), Updates.rename("name", "fullName")),
+                new UpdateSpec("users", new Document(), Updates.set("fullName.first", "x")),
+                new UpdateSpec("users", Filters.exists("active"), Updates.set("a", 1)),
+                new UpdateSpec("users", Filters.exists("active"), Updates.set("active", true))),
+                MongoClientSettings.getDefaultCodecRegistry());
+
+        assertEquals(4, groups.size());
+    }
+
+
+    @Test
+    public void shouldNotFuseUpdatesWithExpressionFilters()
+    {
+        Document filter = new Document("$expr", new Document("$gt", Arrays.asList("$score", 10)));
+        List<List<UpdateSpec>> groups = UpdateSpecBatch.fuse(Arrays.asList(
+                new UpdateSpec("users", filter, Updates.set("score", 0)),
+                new UpdateSpec("users", filter, Updates.set("flagged", true)),
+                new UpdateSpec("users", Filters.where("this.score > 10"), Updates.set("score", 0)),
+                new UpdateSpec("users", Filters.where("this.score > 10"), Updates.set("flagged", true))),
+                MongoClientSettings.getDefaultCodecRegistry());
+
+        assertEquals(4, groups.size());
+    }
+
+
+    @Test
+    public void shouldApplyFusedUpdatesInOnePass()
+    {
+        UpdateSpecBatch batch = new UpdateSpecBatch(db);
+        batch.add(new UpdateSpec("users", new Document(), Updates.rename("name", "fullName")));
+        batch.add(new UpdateSpec("users", new Document(), Updates.set("active", true)));
+        batch.add(new UpdateSpec("users", new Document(), Updates.unset("legacy")));
+        batch.add(new UpdateSpec("orders", new Document(), Updates.set("migrated", true)));
+
+        batch.apply();
+
+        assertEquals(4, batch.getApplied());
+        assertEquals(2, batch.getPasses());
+        assertTrue(batch.isEmpty());
+        assertEquals(3, db.getCollection("users").countDocuments(Filters.and(Filters.exists("fullName"),
+                Filters.eq("active", true), Filters.exists("legacy", false))));
+    }
+}
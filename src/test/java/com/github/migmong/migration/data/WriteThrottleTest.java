@@ -0,0 +1,95 @@
+package com.github.migmong.migration.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.bson.Document;
+import org.junit.Test;
+
+import com.github.migmong.AbstractMigrationTest;
+
+/**
+ * Tests for throttling of migration writes
+ */
+public class WriteThrottleTest extends AbstractMigrationTest
+{
+    @Test
+    public void shouldLimitRateOfWrites()
+    {
+        WriteThrottle throttle = new WriteThrottle().setLoadProbe(LoadProbe.STANDALONE).setMaxWritesPerSecond(100);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 5; i++)
+            throttle.acquire(50);
+        long elapsedMillis = (System.nanoTime() - start) / 1000000;
+
+        assertTrue("Writes took " + elapsedMillis + " ms", elapsedMillis >= 2000);
+    }
+
+
+    @Test
+    public void shouldSlowDownWhenLatencyIsHigh()
+    {
+        WriteThrottle throttle = new WriteThrottle().setLoadProbe(LoadProbe.STANDALONE)
+                .setMaxWritesPerSecond(1000)
+                .setMaxWriteLatency(100)
+                .setSampleInterval(0);
+
+        throttle.recordLatency(500);
+        throttle.acquire(1);
+
+        assertTrue(throttle.getWritesPerSecond() <= 500);
+    }
+
+
+    @Test
+    public void shouldPauseWhileReplicationLagExceedsCeiling()
+    {
+        AtomicInteger samples = new AtomicInteger();
+        LoadProbe lagging = () -> samples.incrementAndGet() < 3 ? 20000 : 0;
+        WriteThrottle throttle = new WriteThrottle().setLoadProbe(lagging)
+                .setMaxReplicationLag(10000)
+                .setSampleInterval(10);
+
+        try
+        {
+            Thread.sleep(20);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        throttle.acquire(1);
+
+        assertEquals(3, samples.get());
+    }
+
+
+    @Test
+    public void shouldFallBackToStandaloneMode()
+    {
+        ReplicaSetLoadProbe probe = new ReplicaSetLoadProbe(prepareFakeDatabase());
+
+        assertEquals(0, probe.getReplicationLagMillis());
+        assertTrue(probe.isStandalone());
+    }
+
+
+    @Test
+    public void shouldComputeLagOfTheMostLaggingSecondary()
+    {
+        long now = System.currentTimeMillis();
+
+        long lag = ReplicaSetLoadProbe.computeLag(Arrays.asList(
+                new Document("state", 1).append("optimeDate", new Date(now)),
+                new Document("state", 2).append("optimeDate", new Date(now - 1500)),
+                new Document("state", 2).append("optimeDate", new Date(now - 300)),
+                new Document("state", 7)));
+
+        assertEquals(1500, lag);
+    }
+}
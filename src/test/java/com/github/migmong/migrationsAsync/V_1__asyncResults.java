@@ -0,0 +1,32 @@
+package com.github.migmong.migrationsAsync;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+import com.github.migmong.migration.MigrationContext;
+import com.github.migmong.migration.annotations.Migration;
+import com.github.migmong.migration.annotations.MigrationUnit;
+
+/**
+ * Migration with asynchronous results, one of them is never completed
+ */
+@Migration
+public class V_1__asyncResults
+{
+    public static volatile CompletableFuture<Void> pendingResult;
+
+
+    @MigrationUnit(id = 1)
+    public CompletionStage<Void> completedResult(MigrationContext context)
+    {
+        return CompletableFuture.completedFuture(null);
+    }
+
+
+    @MigrationUnit(id = 2)
+    public CompletionStage<Void> pendingResult(MigrationContext context)
+    {
+        pendingResult = new CompletableFuture<>();
+        return pendingResult;
+    }
+}
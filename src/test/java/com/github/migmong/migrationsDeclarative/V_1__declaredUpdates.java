@@ -0,0 +1,56 @@
+package com.github.migmong.migrationsDeclarative;
+
+import org.bson.Document;
+
+import com.github.migmong.migration.MigrationContext;
+import com.github.migmong.migration.annotations.Migration;
+import com.github.migmong.migration.annotations.MigrationUnit;
+import com.github.migmong.migration.data.UpdateSpec;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Updates;
+
+/**
+ * Migration with declared updates between units which change data themselves
+ */
+@Migration
+public class V_1__declaredUpdates
+{
+    @MigrationUnit(id = 1)
+    public void insertUsers(MigrationContext context)
+    {
+        context.getMongoDatabase().getCollection("users")
+                .insertOne(new Document("_id", 1).append("name", "first").append("legacy", true));
+        context.getMongoDatabase().getCollection("users")
+                .insertOne(new Document("_id", 2).append("name", "second").append("legacy", true));
+    }
+
+
+    @MigrationUnit(id = 2)
+    public UpdateSpec renameName(MigrationContext context)
+    {
+        return new UpdateSpec("users", new Document(), Updates.rename("name", "fullName"));
+    }
+
+
+    @MigrationUnit(id = 3)
+    public UpdateSpec setActive(MigrationContext context)
+    {
+        return new UpdateSpec("users", new Document(), Updates.set("active", true));
+    }
+
+
+    @MigrationUnit(id = 4)
+    public UpdateSpec unsetLegacy(MigrationContext context)
+    {
+        return new UpdateSpec("users", new Document(), Updates.unset("legacy"));
+    }
+
+
+    @MigrationUnit(id = 5)
+    public void countMigratedUsers(MigrationContext context)
+    {
+        long migrated = context.getMongoDatabase().getCollection("users").countDocuments(Filters.and(
+                Filters.exists("fullName"), Filters.eq("active", true), Filters.exists("legacy", false)));
+        context.getMongoDatabase().getCollection("report").insertOne(new Document("migrated", migrated));
+    }
+}
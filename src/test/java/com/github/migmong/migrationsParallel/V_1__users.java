@@ -0,0 +1,25 @@
+package com.github.migmong.migrationsParallel;
+
+import com.github.migmong.migration.MigrationContext;
+import com.github.migmong.migration.annotations.Migration;
+import com.github.migmong.migration.annotations.MigrationUnit;
+
+/**
+ * Migration which can be executed concurrently with {@link V_2__orders}
+ */
+@Migration(collections = "users")
+public class V_1__users
+{
+    @MigrationUnit(id = 1)
+    public void testMigration1(MigrationContext context)
+    {
+        context.getMongoDatabase().getCollection("users").insertOne(new org.bson.Document("name", "user"));
+    }
+
+
+    @MigrationUnit(id = 2)
+    public void testMigration2(MigrationContext context)
+    {
+        throw new IllegalStateException("failed users migration");
+    }
+}
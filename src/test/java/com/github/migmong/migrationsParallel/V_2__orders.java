@@ -0,0 +1,18 @@
+package com.github.migmong.migrationsParallel;
+
+import com.github.migmong.migration.MigrationContext;
+import com.github.migmong.migration.annotations.Migration;
+import com.github.migmong.migration.annotations.MigrationUnit;
+
+/**
+ * Migration which can be executed concurrently with {@link V_1__users}
+ */
+@Migration(collections = "orders")
+public class V_2__orders
+{
+    @MigrationUnit(id = 1)
+    public void testMigration1(MigrationContext context)
+    {
+        context.getMongoDatabase().getCollection("orders").insertOne(new org.bson.Document("name", "order"));
+    }
+}
@@ -0,0 +1,21 @@
+package com.github.migmong.migrationsParallel;
+
+import com.github.migmong.migration.MigrationContext;
+import com.github.migmong.migration.annotations.Migration;
+import com.github.migmong.migration.annotations.MigrationUnit;
+
+/**
+ * Migration which is executed after all previous ones
+ */
+@Migration
+public class V_3__usersAndOrders
+{
+    @MigrationUnit(id = 1)
+    public void testMigration1(MigrationContext context)
+    {
+        long users = context.getMongoDatabase().getCollection("users").countDocuments();
+        long orders = context.getMongoDatabase().getCollection("orders").countDocuments();
+        if (users != 1 || orders != 1)
+            throw new IllegalStateException("previous migrations are not finished");
+    }
+}
@@ -0,0 +1,25 @@
+package com.github.migmong.migrationsWithoutRunAlways;
+
+import com.github.migmong.migration.MigrationContext;
+import com.github.migmong.migration.annotations.Migration;
+import com.github.migmong.migration.annotations.MigrationUnit;
+
+/**
+ * Migration without runAlways units, so the whole migration process can be skipped when it is applied
+ */
+@Migration
+public class V_2__plainMigrations
+{
+    @MigrationUnit(id = 1)
+    public void testMigration1(MigrationContext context)
+    {
+        System.out.println("invoked P1");
+    }
+
+
+    @MigrationUnit(id = 2)
+    public void testMigration2(MigrationContext context)
+    {
+        System.out.println("invoked P2");
+    }
+}
@@ -0,0 +1,87 @@
+package com.github.migmong.trace;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+
+import org.bson.BsonDocument;
+import org.bson.BsonInt64;
+import org.bson.BsonString;
+import org.bson.Document;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.mongodb.MongoClient;
+import com.mongodb.MongoClientOptions;
+import com.mongodb.ServerAddress;
+import com.mongodb.client.MongoCollection;
+
+import de.bwaldvogel.mongo.MongoServer;
+import de.bwaldvogel.mongo.backend.memory.MemoryBackend;
+
+/**
+ * Tests for attributing driver commands to migration units
+ */
+public class CommandTrackerTest
+{
+    private MongoServer mongoServer;
+    private MongoClient client;
+    private CommandTracker tracker;
+
+
+    @Before
+    public void init()
+    {
+        mongoServer = new MongoServer(new MemoryBackend());
+        InetSocketAddress serverAddress = mongoServer.bind();
+        tracker = new CommandTracker();
+        client = new MongoClient(new ServerAddress(serverAddress),
+                MongoClientOptions.builder().addCommandListener(tracker).build());
+    }
+
+
+    @After
+    public void cleanUp()
+    {
+        client.close();
+        mongoServer.shutdownNow();
+    }
+
+
+    @Test
+    public void shouldCountCommandsOfTrackedThreadOnly()
+    {
+        MongoCollection<Document> users = client.getDatabase("test").getCollection("users");
+
+        CommandSummary summary = tracker.startTracking();
+        users.insertOne(new Document("name", "a"));
+        users.insertOne(new Document("name", "b"));
+        users.find().first();
+        tracker.stopTracking();
+        users.insertOne(new Document("name", "c"));
+
+        assertEquals(3, summary.getCount());
+        CommandStatistics inserts = summary.getCommands().get(0);
+        assertEquals("insert", inserts.getCommandName());
+        assertEquals("users", inserts.getCollection());
+        assertEquals(2, inserts.getCount());
+        assertEquals(0, inserts.getFailures());
+        assertTrue(inserts.getBytesSent() > 0);
+        assertTrue(inserts.getBytesReceived() > 0);
+        assertEquals(2, Arrays.stream(inserts.getLatencyHistogram()).sum());
+    }
+
+
+    @Test
+    public void shouldTakeCollectionOfGetMore()
+    {
+        BsonDocument getMore = new BsonDocument("getMore", new BsonInt64(1))
+                .append("collection", new BsonString("orders"));
+
+        assertEquals("orders", CommandTracker.getCollection(getMore));
+        assertEquals("", CommandTracker.getCollection(new BsonDocument("ping", new BsonInt64(1))));
+    }
+}
@@ -0,0 +1,159 @@
+package com.github.migmong.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+/**
+ * Tests for completion of asynchronous results of migration units
+ */
+public class AsyncUnitResultsTest
+{
+    @Test
+    public void shouldDetectAsyncResults()
+    {
+        assertTrue(AsyncUnitResults.isAsync(CompletableFuture.completedFuture("done")));
+        assertTrue(AsyncUnitResults.isAsync(new RangePublisher(1, new ArrayList<>())));
+        assertFalse(AsyncUnitResults.isAsync(null));
+        assertFalse(AsyncUnitResults.isAsync("done"));
+    }
+
+
+    @Test
+    public void shouldDrainPublisherWithBackpressure() throws Exception
+    {
+        List<Long> requests = new ArrayList<>();
+        int count = AsyncUnitResults.REQUEST_SIZE * 3 + 10;
+
+        long published = AsyncUnitResults.subscribe(new RangePublisher(count, requests)).get();
+
+        assertEquals(count, published);
+        assertEquals(4, requests.size());
+        for (long request : requests)
+            assertEquals(AsyncUnitResults.REQUEST_SIZE, request);
+    }
+
+
+    @Test
+    public void shouldPropagateFailure() throws Exception
+    {
+        IllegalStateException failure = new IllegalStateException("failed");
+        CompletableFuture<Object> result = new CompletableFuture<>();
+        result.completeExceptionally(failure);
+
+        try
+        {
+            AsyncUnitResults.subscribe(result).get();
+            fail();
+        }
+        catch (ExecutionException e)
+        {
+            assertSame(failure, e.getCause());
+        }
+    }
+
+
+    @Test
+    public void shouldCancelSubscriptionWhenWaitingIsCancelled()
+    {
+        AtomicBoolean cancelled = new AtomicBoolean();
+        Flow.Publisher<Integer> silentPublisher = subscriber -> subscriber.onSubscribe(new Flow.Subscription()
+        {
+            @Override
+            public void request(long n)
+            {
+            }
+
+
+            @Override
+            public void cancel()
+            {
+                cancelled.set(true);
+            }
+        });
+
+        CompletableFuture<Long> completion = AsyncUnitResults.subscribe(silentPublisher);
+        assertFalse(cancelled.get());
+        completion.cancel(true);
+
+        assertTrue(cancelled.get());
+    }
+
+
+    @Test
+    public void shouldCancelCompletionStageWhenWaitingIsCancelled()
+    {
+        CompletableFuture<Object> result = new CompletableFuture<>();
+
+        AsyncUnitResults.subscribe(result).cancel(true);
+
+        assertTrue(result.isCancelled());
+    }
+
+
+    /**
+     * Emits numbers only when they are requested
+     */
+    private static class RangePublisher implements Flow.Publisher<Integer>
+    {
+        private final int count;
+        private final List<Long> requests;
+        private int emitted;
+
+
+        RangePublisher(int count, List<Long> requests)
+        {
+            this.count = count;
+            this.requests = requests;
+        }
+
+
+        @Override
+        public void subscribe(Flow.Subscriber<? super Integer> subscriber)
+        {
+            subscriber.onSubscribe(new Flow.Subscription()
+            {
+                private boolean emitting;
+                private long demand;
+
+
+                @Override
+                public void request(long n)
+                {
+                    requests.add(n);
+                    demand += n;
+                    if (emitting)
+                        return;
+
+                    emitting = true;
+                    while (demand > 0 && emitted < count)
+                    {
+                        demand--;
+                        subscriber.onNext(emitted++);
+                    }
+                    emitting = false;
+                    if (emitted == count)
+                        subscriber.onComplete();
+                }
+
+
+                @Override
+                public void cancel()
+                {
+                    emitted = count;
+                }
+            });
+        }
+    }
+}
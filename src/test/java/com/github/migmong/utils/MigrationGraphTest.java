@@ -0,0 +1,74 @@
+package com.github.migmong.utils;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.github.migmong.migration.MigrationInfo;
+import com.github.migmong.migration.Version;
+
+/**
+ * Tests for dependencies between migrations
+ */
+public class MigrationGraphTest
+{
+    @Test
+    public void shouldChainMigrationsWithoutCollections()
+    {
+        MigrationGraph graph = new MigrationGraph(Arrays.asList(migration(1), migration(2), migration(3)));
+
+        assertEquals(set(), graph.getDependencies(0));
+        assertEquals(set(0), graph.getDependencies(1));
+        assertEquals(set(1), graph.getDependencies(2));
+    }
+
+
+    @Test
+    public void shouldNotChainMigrationsWithDisjointCollections()
+    {
+        MigrationGraph graph = new MigrationGraph(Arrays.asList(
+                migration(1, "users"),
+                migration(2, "orders"),
+                migration(3, "users", "orders")));
+
+        assertEquals(set(), graph.getDependencies(0));
+        assertEquals(set(), graph.getDependencies(1));
+        assertEquals(set(0, 1), graph.getDependencies(2));
+    }
+
+
+    @Test
+    public void shouldWaitForAllMigrationsBeforeMigrationWithoutCollections()
+    {
+        MigrationGraph graph = new MigrationGraph(Arrays.asList(
+                migration(1),
+                migration(2, "users"),
+                migration(3, "orders"),
+                migration(4),
+                migration(5, "users")));
+
+        assertEquals(set(0), graph.getDependencies(1));
+        assertEquals(set(0), graph.getDependencies(2));
+        assertEquals(set(0, 1, 2), graph.getDependencies(3));
+        assertEquals(set(3), graph.getDependencies(4));
+    }
+
+
+    private MigrationInfo migration(int version, String... collections)
+    {
+        return new MigrationInfo("com.example.V" + version + "__migration", new Version(version),
+                Collections.emptyList(), new HashSet<>(Arrays.asList(collections)), null);
+    }
+
+
+    private Set<Integer> set(Integer... values)
+    {
+        return new HashSet<>(List.of(values));
+    }
+}
@@ -4,6 +4,7 @@ import static junit.framework.Assert.assertEquals;
 import static junit.framework.Assert.assertTrue;
 
 import java.lang.reflect.Method;
+import java.util.Arrays;
 import java.util.List;
 
 import org.junit.Test;
@@ -12,8 +13,11 @@ import com.github.migmong.migrations.V_0_9__anotherMigrations;
 import com.github.migmong.migrations.V_1__migrations;
 import com.github.migmong.exception.MigrationException;
 import com.github.migmong.exception.MigrationUnitException;
+import com.github.migmong.migration.MigrationContext;
 import com.github.migmong.migration.MigrationEntry;
 import com.github.migmong.migration.MigrationInfo;
+import com.github.migmong.migration.MigrationUnitDescriptor;
+import com.github.migmong.migration.MigrationUnitInfo;
 import com.github.migmong.migrationWithDuplicates.V_0_1_5__withDuplicates;
 
 import junit.framework.Assert;
@@ -104,4 +108,43 @@ public class MigrationServiceTest
             assertEquals(unitIsAlwaysRunnable, detectedAsAlwaysRunnable);
         }
     }
+
+
+    @Test
+    public void shouldReadMigrationUnitsFromBytecode() throws MigrationException
+    {
+        String scanPackage = V_0_9__anotherMigrations.class.getPackage().getName();
+        MigrationService service = new MigrationService(scanPackage);
+
+        List<MigrationInfo> foundMigrations = service.fetchMigrations("V_");
+        MigrationInfo migration = foundMigrations.stream()
+                .filter(x -> x.getClassName().equals(V_0_9__anotherMigrations.class.getName()))
+                .findFirst()
+                .orElseThrow();
+
+        assertEquals(Arrays.asList(
+                new MigrationUnitInfo(1, "testMigration1", false),
+                new MigrationUnitInfo(2, "testMigration2", false),
+                new MigrationUnitInfo(3, "testMigration6_withAlways", true),
+                new MigrationUnitInfo(6, "testMigration3_withAlways", true)),
+                migration.getMigrationUnits());
+    }
+
+
+    @Test
+    public void shouldResolveMigrationUnitDescriptorsOnce() throws Exception
+    {
+        String scanPackage = V_0_9__anotherMigrations.class.getPackage().getName();
+        MigrationService service = new MigrationService(scanPackage);
+
+        List<MigrationUnitDescriptor> descriptors = service.fetchMigrationUnitDescriptors(
+                V_0_9__anotherMigrations.class);
+        descriptors.get(0).invoke(new V_0_9__anotherMigrations(), new MigrationContext());
+
+        assertEquals(4, descriptors.size());
+        assertEquals(6, descriptors.get(3).getId());
+        assertEquals("testMigration3_withAlways", descriptors.get(3).getMethodName());
+        assertTrue(descriptors.get(3).isRunAlways());
+        assertTrue(descriptors == service.fetchMigrationUnitDescriptors(V_0_9__anotherMigrations.class));
+    }
 }